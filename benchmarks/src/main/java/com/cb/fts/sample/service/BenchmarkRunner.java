@@ -0,0 +1,30 @@
+package com.cb.fts.sample.service;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its allocation rate
+ * (gc.alloc.rate.norm is the bytes allocated per operation).
+ *
+ * Accepts the usual JMH command line, e.g. "java -jar target/benchmarks.jar SearchQueryBuild -p variant=12".
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+        }
+        options.addProfiler(GCProfiler.class);
+        Options built = options.build();
+        new Runner(built).run();
+    }
+}
@@ -0,0 +1,193 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.repositories.ActorNameRepository;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.facets.DefaultNumericRangeFacetResult;
+import com.couchbase.client.java.search.result.facets.DefaultTermFacetResult;
+import com.couchbase.client.java.search.result.facets.FacetResult;
+import com.couchbase.client.java.search.result.facets.NumericRange;
+import com.couchbase.client.java.search.result.facets.TermRange;
+import com.couchbase.client.java.search.result.hits.DefaultHitLocations;
+import com.couchbase.client.java.search.result.impl.DefaultSearchMetrics;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryResult;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+import com.couchbase.client.java.search.result.impl.DefaultSearchStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Wires the services without Spring and Couchbase: repositories are stubbed, hydration returns
+ * canned movies and the query corpora are read from the classpath.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static List<String> queries() {
+        return lines("/queries.txt");
+    }
+
+    /**
+     * A parser whose ActorNameRepository knows the names of actors.txt and whose dictionary is not
+     * loaded, so every shingle goes through the repository as before the dictionary existed.
+     *
+     * @param cacheSize 0 disables the parse cache
+     */
+    static MovieQueryParser parser(long cacheSize) {
+        Set<String> actorIds = new HashSet<>();
+        for (String actor : lines("/actors.txt")) {
+            actorIds.add("actorName-" + actor);
+        }
+        ActorNameRepository repository = (ActorNameRepository) Proxy.newProxyInstance(
+                ActorNameRepository.class.getClassLoader(), new Class<?>[]{ActorNameRepository.class},
+                (proxy, method, args) -> {
+                    if ("findById".equals(method.getName())) {
+                        String id = (String) args[0];
+                        return actorIds.contains(id)
+                                ? Optional.of(ActorName.builder().id(id).moviesCount(10).build())
+                                : Optional.empty();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        MovieQueryParser parser = new MovieQueryParser();
+        set(parser, "actorNameRepository", repository);
+        set(parser, "actorNameDictionary", new ActorNameDictionary());
+        set(parser, "entityGazetteer", new EntityGazetteer());
+        set(parser, "spellingCorrector", new SpellingCorrector());
+        set(parser, "cacheMaxSize", cacheSize);
+        set(parser, "cacheTtlMs", 600_000L);
+        set(parser, "meterRegistry", new SimpleMeterRegistry());
+        parser.init();
+        return parser;
+    }
+
+    static MovieServiceImpl movieService(MovieQueryParser parser, Map<String, Movie> movies) {
+        MovieServiceImpl movieService = new MovieServiceImpl();
+        set(movieService, "boostQueryTemplates", new BoostQueryTemplates());
+        set(movieService, "movieQueryParser", parser);
+        set(movieService, "movieHydrator", new CannedMovieHydrator(movies));
+        set(movieService, "branchLimit", 40);
+        return movieService;
+    }
+
+    /**
+     * A successful result shaped like the movies_shingle responses: highlighted fragments,
+     * stored fields and the facets of the search page.
+     */
+    static SearchQueryResult searchQueryResult(int hits) {
+        List<SearchQueryRow> rows = new ArrayList<>(hits);
+        for (int i = 0; i < hits; i++) {
+            Map<String, List<String>> fragments = new HashMap<>();
+            fragments.put("title", Collections.singletonList("The <mark>Matrix</mark> " + i));
+            fragments.put("overview", Arrays.asList(
+                    "Set in the 22nd century, <mark>The Matrix</mark> tells the story of a computer hacker",
+                    "who joins a group of underground insurgents fighting the vast and powerful computers"));
+            Map<String, String> fields = new HashMap<>();
+            fields.put("title", "The Matrix " + i);
+            rows.add(new DefaultSearchQueryRow("movies_shingle_1", "movie::" + i, 12.5 - i * 0.25,
+                    JsonObject.create(), new DefaultHitLocations(), fragments, fields));
+        }
+
+        Map<String, FacetResult> facets = new LinkedHashMap<>();
+        facets.put(FacetService.GENRES, new DefaultTermFacetResult(FacetService.GENRES, FacetService.GENRES_FIELD,
+                hits, 0, 0, Arrays.asList(new TermRange("Action", 14), new TermRange("Science Fiction", 11),
+                new TermRange("Thriller", 6), new TermRange("Adventure", 3))));
+        facets.put(FacetService.YEAR, new DefaultNumericRangeFacetResult(FacetService.YEAR, FacetService.YEAR_FIELD,
+                hits, 0, 0, Arrays.asList(new NumericRange("2000s", 2000d, 2010d, 9),
+                new NumericRange("1990s", 1990d, 2000d, 8), new NumericRange("2010s", 2010d, 2020d, 3))));
+
+        return new DefaultSearchQueryResult(new DefaultSearchStatus(6, 0, 6), rows, null, facets,
+                new DefaultSearchMetrics(4_200_000, 1_250, 12.5));
+    }
+
+    /**
+     * The movies of {@link #searchQueryResult(int)}, as slim as the PARTIAL hydration returns them.
+     */
+    static Map<String, Movie> movies(int hits) {
+        Map<String, Movie> movies = new HashMap<>();
+        for (int i = 0; i < hits; i++) {
+            movies.put("movie::" + i, Movie.builder()
+                    .id("movie::" + i)
+                    .title("The Matrix " + i)
+                    .overview("Set in the 22nd century, The Matrix tells the story of a computer hacker who joins a "
+                            + "group of underground insurgents fighting the vast and powerful computers who now rule the earth.")
+                    .posterPath("/hEpWvX6Bp79eLxY1kX5ZZJcme5U.jpg")
+                    .releaseDate("1999-03-30")
+                    .releaseYear(1999)
+                    .voteAverage(7.9)
+                    .adult(false)
+                    .build());
+        }
+        return movies;
+    }
+
+    static void set(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name + " of " + target.getClass().getSimpleName(), e);
+        }
+    }
+
+    private static List<String> lines(String resource) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BenchmarkSupport.class.getResourceAsStream(resource), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    lines.add(line.trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    private static final class CannedMovieHydrator extends MovieHydrator {
+
+        private final Map<String, Movie> movies;
+
+        CannedMovieHydrator(Map<String, Movie> movies) {
+            this.movies = movies;
+        }
+
+        @Override
+        public Map<String, Movie> hydrate(List<String> ids) {
+            Map<String, Movie> hydrated = new HashMap<>(ids.size() * 2);
+            for (String id : ids) {
+                Movie movie = movies.get(id);
+                if (movie != null) {
+                    hydrated.put(id, movie);
+                }
+            }
+            return hydrated;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cb.fts.sample.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.GENRES;
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.PERSON;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityExtractorBenchmark {
+
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        queries = BenchmarkSupport.queries().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public EntityExtractor construct() {
+        return new EntityExtractor(nextQuery());
+    }
+
+    @Benchmark
+    public EntityExtractor constructAndAddEntities() {
+        EntityExtractor entityExtractor = new EntityExtractor(nextQuery());
+        entityExtractor.addEntity(GENRES, "comedy");
+        entityExtractor.addEntity(GENRES, "science fiction");
+        entityExtractor.addEntity(PERSON, "tom hanks");
+        return entityExtractor;
+    }
+
+    @Benchmark
+    public String normalize() {
+        return EntityExtractor.normalize(nextQuery());
+    }
+
+    private String nextQuery() {
+        String query = queries[next];
+        next = next + 1 == queries.length ? 0 : next + 1;
+        return query;
+    }
+}
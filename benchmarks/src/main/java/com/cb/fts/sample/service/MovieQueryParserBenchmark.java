@@ -0,0 +1,48 @@
+package com.cb.fts.sample.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing with the stubbed repository; cacheSize 0 measures the parse itself, otherwise
+ * the corpus is served by the parse cache after the first pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MovieQueryParserBenchmark {
+
+    @Param({"0", "10000"})
+    private long cacheSize;
+
+    private MovieQueryParser parser;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        parser = BenchmarkSupport.parser(cacheSize);
+        queries = BenchmarkSupport.queries().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public EntityExtractor parse() {
+        String query = queries[next];
+        next = next + 1 == queries.length ? 0 : next + 1;
+        return parser.parse(query);
+    }
+}
@@ -0,0 +1,90 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.search.SearchQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query tree construction of every searchN variant, with and without the JSON export that the
+ * SDK performs before sending the request. Variants 11 and 12 get pre-parsed queries, so only
+ * the tree construction is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchQueryBuildBenchmark {
+
+    @Param({"1", "2", "3", "4", "5", "8", "9", "10", "11", "12"})
+    private int variant;
+
+    private MovieServiceImpl movieService;
+    private String[] queries;
+    private EntityExtractor[] parsed;
+    private Map<String, List<String>> facets;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        MovieQueryParser parser = BenchmarkSupport.parser(10_000);
+        movieService = BenchmarkSupport.movieService(parser, new HashMap<>());
+        queries = BenchmarkSupport.queries().toArray(new String[0]);
+        parsed = new EntityExtractor[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            parsed[i] = parser.parse(queries[i]);
+        }
+        facets = new HashMap<>();
+        facets.put(FacetService.GENRES, Arrays.asList("Drama", "Crime"));
+        facets.put(FacetService.YEAR, Arrays.asList("1990s"));
+    }
+
+    @Benchmark
+    public SearchQuery build() {
+        return build(next());
+    }
+
+    @Benchmark
+    public String buildAndExport() {
+        return build(next()).export().toString();
+    }
+
+    private int next() {
+        int current = next;
+        next = next + 1 == queries.length ? 0 : next + 1;
+        return current;
+    }
+
+    private SearchQuery build(int i) {
+        String query = queries[i];
+        switch (variant) {
+            case 1: return movieService.buildSearch1(query);
+            case 2: return movieService.buildSearch2(query);
+            case 3: return movieService.buildSearch3(query);
+            case 4: return movieService.buildSearch4(query);
+            case 5: return movieService.buildSearch5(query);
+            case 8: return movieService.buildSearch8(query);
+            case 9: return movieService.buildSearch9(query, facets);
+            case 10: return movieService.buildSearch10(query, facets);
+            case 11: return movieService.buildSearch11(query, facets, parsed[i]);
+            case 12: return movieService.buildSearch12(query, facets, parsed[i]);
+            default: throw new IllegalArgumentException("No search" + variant);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.Result;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a canned FTS response into the REST result, hydration excluded, and filter parsing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResultMappingBenchmark {
+
+    @Param({"20", "200"})
+    private int hits;
+
+    private MovieServiceImpl movieService;
+    private SearchQueryResult result;
+
+    @Setup
+    public void setUp() {
+        movieService = BenchmarkSupport.movieService(BenchmarkSupport.parser(0), BenchmarkSupport.movies(hits));
+        result = BenchmarkSupport.searchQueryResult(hits);
+    }
+
+    @Benchmark
+    public Result getSearchResults() {
+        return movieService.getSearchResults(result);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getFilters() {
+        return movieService.getFilters("genres=Drama,Science Fiction::collection=Star Wars Collection::year=1990s,2001");
+    }
+}
@@ -0,0 +1,206 @@
+package com.cb.fts.sample.loadtest;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP stand-in for the FTS REST endpoint, POST /api/index/{index}/query.
+ *
+ * Responses are canned: a fixed number of hit rankings are drawn from the movies at startup, and every
+ * query is answered with one of them chosen by the hash of its JSON, so identical queries get identical
+ * results. The response honors "size", "from", "fields" and the requested facets, and is sent after a
+ * service time drawn from the latency distribution.
+ */
+public final class FtsStandIn {
+
+    private final StandInData data;
+    private final LatencyDistribution latency;
+    private final List<List<String>> rankings = new ArrayList<>();
+    private final AtomicLong requests = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public FtsStandIn(StandInData data, LatencyDistribution latency, int rankingCount, int rankingSize, long seed) {
+        this.data = data;
+        this.latency = latency;
+        Random random = new Random(seed);
+        List<String> ids = new ArrayList<>(data.movieIds());
+        for (int i = 0; i < rankingCount; i++) {
+            Collections.shuffle(ids, random);
+            // some queries match few movies, so the adaptive fuzziness and empty results are exercised
+            int size = i % 10 == 0 ? random.nextInt(4) : Math.min(ids.size(), rankingSize);
+            rankings.add(new ArrayList<>(ids.subList(0, Math.min(size, ids.size()))));
+        }
+    }
+
+    /**
+     * Starts listening on the port, 0 for any free one.
+     *
+     * @param threads concurrent requests served, like the query concurrency of an FTS node
+     */
+    public void start(int port, int threads) throws IOException {
+        executor = Executors.newFixedThreadPool(threads);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.createContext("/api/index/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!"POST".equals(exchange.getRequestMethod()) || !path.endsWith("/query")) {
+                send(exchange, 404, "{\"error\":\"unsupported " + exchange.getRequestMethod() + " " + path + "\"}");
+                return;
+            }
+            String index = path.substring("/api/index/".length(), path.length() - "/query".length());
+            String body = read(exchange.getRequestBody());
+            JsonObject request = JsonObject.fromJson(body);
+
+            String response = respond(index, request, body.hashCode(), start).toString();
+            long sleepMicros = latency.sampleMicros() - TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            if (sleepMicros > 0) {
+                TimeUnit.MICROSECONDS.sleep(sleepMicros);
+            }
+            send(exchange, 200, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, 400, JsonObject.create().put("error", e.toString()).toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private JsonObject respond(String index, JsonObject request, int hash, long start) {
+        List<String> ranking = rankings.get(Math.floorMod(hash, rankings.size()));
+        Integer size = request.getInt("size");
+        Integer from = request.getInt("from");
+        int first = Math.min(from == null ? 0 : from, ranking.size());
+        int last = Math.min(first + (size == null ? 10 : size), ranking.size());
+        JsonArray requestedFields = request.getArray("fields");
+
+        JsonArray hits = JsonArray.create();
+        for (int i = first; i < last; i++) {
+            String id = ranking.get(i);
+            JsonObject hit = JsonObject.create()
+                    .put("index", index + "_stand_in")
+                    .put("id", id)
+                    .put("score", 10.0 / (i + 1))
+                    .put("locations", JsonObject.create());
+            if (request.containsKey("highlight")) {
+                hit.put("fragments", JsonObject.create().put("title", JsonArray.from("<mark>" + id + "</mark>")));
+            }
+            if (requestedFields != null) {
+                JsonObject stored = JsonObject.create();
+                Map<String, Object> fields = data.fields(id);
+                for (Object name : requestedFields) {
+                    Object value = fields != null ? fields.get(name) : null;
+                    if (value != null) {
+                        stored.put((String) name, value);
+                    }
+                }
+                hit.put("fields", stored);
+            }
+            hits.add(hit);
+        }
+
+        JsonObject response = JsonObject.create()
+                .put("status", JsonObject.create().put("total", 6).put("failed", 0).put("successful", 6))
+                .put("request", request)
+                .put("hits", hits)
+                .put("total_hits", ranking.size())
+                .put("max_score", ranking.isEmpty() ? 0 : 10.0)
+                .put("took", System.nanoTime() - start);
+        JsonObject facets = request.getObject("facets");
+        if (facets != null) {
+            response.put("facets", facets(facets, ranking.size(), hash));
+        }
+        return response;
+    }
+
+    private JsonObject facets(JsonObject requested, int total, int hash) {
+        JsonObject facets = JsonObject.create();
+        for (String name : requested.getNames()) {
+            JsonObject facet = requested.getObject(name);
+            JsonObject result = JsonObject.create()
+                    .put("field", facet.getString("field"))
+                    .put("total", total)
+                    .put("missing", 0)
+                    .put("other", 0);
+            JsonArray ranges = facet.getArray("numeric_ranges");
+            if (ranges != null) {
+                JsonArray counted = JsonArray.create();
+                for (int i = 0; i < ranges.size(); i++) {
+                    JsonObject range = ranges.getObject(i);
+                    counted.add(JsonObject.create().put("name", range.getString("name"))
+                            .put("min", range.get("min")).put("max", range.get("max"))
+                            .put("count", Math.floorMod(hash + i * 31, Math.max(1, total))));
+                }
+                result.put("numeric_ranges", counted);
+            } else {
+                Integer size = facet.getInt("size");
+                JsonArray terms = JsonArray.create();
+                List<String> genres = data.genres();
+                for (int i = 0; i < Math.min(size == null ? 10 : size, genres.size()); i++) {
+                    terms.add(JsonObject.create().put("term", genres.get(Math.floorMod(hash + i, genres.size())))
+                            .put("count", Math.max(1, total / (i + 2))));
+                }
+                result.put("terms", terms);
+            }
+            facets.put(name, result);
+        }
+        return facets;
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int n; (n = input.read(chunk)) > 0; ) {
+            buffer.write(chunk, 0, n);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
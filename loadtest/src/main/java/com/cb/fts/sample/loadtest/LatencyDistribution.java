@@ -0,0 +1,109 @@
+package com.cb.fts.sample.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Service time of a stand-in, specified as "none", "fixed ms=5", "uniform min=2 max=10" or
+ * "lognormal median=5 p99=40"; a lognormal distribution has the long tail of real FTS and KV latencies.
+ */
+public final class LatencyDistribution {
+
+    // the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.3263478740;
+
+    private enum Shape {
+        NONE, FIXED, UNIFORM, LOGNORMAL
+    }
+
+    private final Shape shape;
+    private final double a;
+    private final double b;
+    private final String spec;
+
+    private LatencyDistribution(Shape shape, double a, double b, String spec) {
+        this.shape = shape;
+        this.a = a;
+        this.b = b;
+        this.spec = spec;
+    }
+
+    public static LatencyDistribution parse(String spec) {
+        String[] tokens = spec.trim().split("\\s+");
+        Shape shape = Shape.valueOf(tokens[0].toUpperCase());
+        double ms = 0;
+        double min = 0;
+        double max = 0;
+        double median = 0;
+        double p99 = 0;
+        for (int i = 1; i < tokens.length; i++) {
+            String[] pair = tokens[i].split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected name=value in the latency \"" + spec + "\"");
+            }
+            double value = Double.parseDouble(pair[1]);
+            switch (pair[0]) {
+                case "ms":
+                    ms = value;
+                    break;
+                case "min":
+                    min = value;
+                    break;
+                case "max":
+                    max = value;
+                    break;
+                case "median":
+                    median = value;
+                    break;
+                case "p99":
+                    p99 = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter " + pair[0] + " in the latency \"" + spec + "\"");
+            }
+        }
+        switch (shape) {
+            case FIXED:
+                return new LatencyDistribution(shape, ms, 0, spec);
+            case UNIFORM:
+                if (max < min) {
+                    throw new IllegalArgumentException("The latency \"" + spec + "\" needs min <= max");
+                }
+                return new LatencyDistribution(shape, min, max, spec);
+            case LOGNORMAL:
+                if (median <= 0 || p99 < median) {
+                    throw new IllegalArgumentException("The latency \"" + spec + "\" needs 0 < median <= p99");
+                }
+                // mu and sigma of the underlying normal distribution
+                return new LatencyDistribution(shape, Math.log(median), Math.log(p99 / median) / Z_99, spec);
+            default:
+                return new LatencyDistribution(Shape.NONE, 0, 0, spec);
+        }
+    }
+
+    /**
+     * A random service time in microseconds.
+     */
+    public long sampleMicros() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double ms;
+        switch (shape) {
+            case FIXED:
+                ms = a;
+                break;
+            case UNIFORM:
+                ms = a + (b - a) * random.nextDouble();
+                break;
+            case LOGNORMAL:
+                ms = Math.exp(a + b * random.nextGaussian());
+                break;
+            default:
+                return 0;
+        }
+        return (long) (ms * 1000);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
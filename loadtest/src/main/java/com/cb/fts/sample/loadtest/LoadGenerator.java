@@ -0,0 +1,207 @@
+package com.cb.fts.sample.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a fixed arrival rate, whatever the response times (an open model): a dispatcher thread
+ * schedules the arrivals, evenly spaced or as a Poisson process, and hands them to a pool of workers.
+ *
+ * Latency is measured from the scheduled arrival rather than from the moment a worker sends the request,
+ * so the time a request waits behind slow ones is counted instead of hidden (coordinated omission).
+ * Requests scheduled during the warmup are sent but not recorded. Successful responses without results are
+ * counted apart, so a search that degrades to an empty answer does not pass for a fast success. The CPU time of the process over the
+ * measured period tells whether the latencies include queueing for the CPU of the host.
+ */
+public final class LoadGenerator {
+
+    private static final byte[] DISCARD = new byte[8192];
+    // the start of a search response without results, with or without a projection
+    private static final byte[] EMPTY_RESULTS = "{\"results\":[]".getBytes(StandardCharsets.UTF_8);
+
+    private final String baseUrl;
+    private final QuerySource querySource;
+    private final Map<String, Double> mix;
+    private final double rate;
+    private final boolean poisson;
+    private final int connections;
+    private final int timeoutMs;
+    private final Random random;
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private long cpuNanos;
+
+    public LoadGenerator(String baseUrl, QuerySource querySource, Map<String, Double> mix, double rate,
+                         boolean poisson, int connections, int timeoutMs, long seed) {
+        this.baseUrl = baseUrl;
+        this.querySource = querySource;
+        this.mix = mix;
+        this.rate = rate;
+        this.poisson = poisson;
+        this.connections = connections;
+        this.timeoutMs = timeoutMs;
+        this.random = new Random(seed);
+        for (String endpoint : mix.keySet()) {
+            endpoints.put(endpoint, new Endpoint());
+        }
+        // HttpURLConnection keeps at most 5 idle connections per host by default
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+    }
+
+    /**
+     * Runs the warmup and then the measured period, and waits for the requests still in flight.
+     *
+     * @return the measured period in nanoseconds
+     */
+    public long run(long warmupMs, long durationMs) throws InterruptedException {
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(connections, connections, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>());
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMs);
+        long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        double arrival = start;
+        long cpuStart = -1;
+        while (arrival < end) {
+            long scheduled = (long) arrival;
+            for (long wait; (wait = scheduled - System.nanoTime()) > 0; ) {
+                LockSupport.parkNanos(wait);
+            }
+            String endpoint = pick();
+            String path = querySource.next(endpoint);
+            boolean measured = scheduled >= measureFrom;
+            if (measured && cpuStart < 0) {
+                cpuStart = processCpuNanos();
+            }
+            workers.execute(() -> send(endpoints.get(endpoint), path, scheduled, measured));
+            arrival += poisson ? -Math.log(1 - random.nextDouble()) * meanIntervalNanos : meanIntervalNanos;
+        }
+        cpuNanos = processCpuNanos() - cpuStart;
+        shutdown(workers);
+        return end - measureFrom;
+    }
+
+    public Map<String, Endpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * The CPU time used by this process during the measured period: the application, the stand-ins and the
+     * generator when they run in-process, only the generator with a remote target.
+     */
+    public long cpuNanos() {
+        return cpuNanos;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    private String pick() {
+        double u = random.nextDouble();
+        String last = null;
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            last = entry.getKey();
+            u -= entry.getValue();
+            if (u < 0) {
+                break;
+            }
+        }
+        return last;
+    }
+
+    private void send(Endpoint endpoint, String path, long scheduled, boolean measured) {
+        boolean ok;
+        boolean empty = false;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            int status = connection.getResponseCode();
+            ok = status >= 200 && status < 300;
+            try (InputStream body = ok ? connection.getInputStream() : connection.getErrorStream()) {
+                byte[] start = new byte[EMPTY_RESULTS.length];
+                int read = 0;
+                for (int n = 0; body != null && read < start.length && n >= 0; read += Math.max(n, 0)) {
+                    n = body.read(start, read, start.length - read);
+                }
+                empty = ok && Arrays.equals(start, EMPTY_RESULTS);
+                // read the whole body, so the connection is reused
+                while (body != null && body.read(DISCARD) > 0) {
+                }
+            }
+        } catch (IOException e) {
+            ok = false;
+        }
+        if (measured) {
+            endpoint.record(System.nanoTime() - scheduled, ok, empty);
+        }
+    }
+
+    private void shutdown(ExecutorService workers) throws InterruptedException {
+        workers.shutdown();
+        if (!workers.awaitTermination(timeoutMs * 2L + 10_000, TimeUnit.MILLISECONDS)) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * The measured requests of an endpoint; latencies of failed requests are recorded too.
+     */
+    public static final class Endpoint {
+
+        private final Recorder latencyMicros = new Recorder(3);
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong empty = new AtomicLong();
+
+        void record(long nanos, boolean ok, boolean emptyResults) {
+            latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+            requests.incrementAndGet();
+            if (!ok) {
+                errors.incrementAndGet();
+            }
+            if (emptyResults) {
+                empty.incrementAndGet();
+            }
+        }
+
+        public long requests() {
+            return requests.get();
+        }
+
+        public long errors() {
+            return errors.get();
+        }
+
+        /**
+         * The successful responses that started with an empty results list.
+         */
+        public long empty() {
+            return empty.get();
+        }
+
+        public Histogram latencyMicros() {
+            return latencyMicros.getIntervalHistogram();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.cb.fts.sample.loadtest;
+
+import com.cb.fts.sample.SampleApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the application against local stand-ins of FTS and KV, sends it an open-model load and writes a JSON
+ * report of throughput, latency percentiles and error rates per endpoint, comparable across builds:
+ *
+ * <pre>
+ * java -jar loadtest/target/loadtest.jar --rate=200 --duration=60s --mix=search:0.8,cover:0.2 \
+ *      --fts-latency="lognormal median=4 p99=30" --report=after.json --baseline=before.json
+ * </pre>
+ *
+ * With --target=http://host:port the load is sent to a running application instead, and no stand-in is started.
+ * Options are --name=value; see {@link #DEFAULTS} for all of them.
+ */
+public final class LoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTest.class);
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        // arrivals per second, and the arrival process: poisson or constant
+        DEFAULTS.put("rate", "100");
+        DEFAULTS.put("arrival", "poisson");
+        // long enough for the JIT to compile the search path, which takes up to 30s on a single core
+        DEFAULTS.put("warmup", "30s");
+        DEFAULTS.put("duration", "30s");
+        DEFAULTS.put("mix", "search:0.8,cover:0.2");
+        // a query log to replay, otherwise the benchmark queries are drawn with a Zipf distribution
+        DEFAULTS.put("queries", "");
+        DEFAULTS.put("zipf", "1.0");
+        // a catalog dump (JSON array or NDJSON, optionally gzipped), otherwise synthetic movies
+        DEFAULTS.put("dataset", "");
+        DEFAULTS.put("movies", "20000");
+        DEFAULTS.put("fts-latency", "lognormal median=4 p99=30");
+        DEFAULTS.put("fts-threads", "32");
+        DEFAULTS.put("kv-latency", "lognormal median=0.4 p99=3");
+        DEFAULTS.put("connections", "64");
+        DEFAULTS.put("timeout", "10s");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("target", "");
+        DEFAULTS.put("report", "loadtest-report.json");
+        DEFAULTS.put("baseline", "");
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    // the CPU utilization above which requests queue for a processor
+    private static final double SATURATED = 0.8;
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        long seed = Long.parseLong(options.get("seed"));
+        StandInData data = null;
+        FtsStandIn fts = null;
+        ConfigurableApplicationContext application = null;
+        String target = options.get("target");
+
+        try {
+            if (target.isEmpty()) {
+                data = options.get("dataset").isEmpty()
+                        ? StandInData.synthetic(Integer.parseInt(options.get("movies")), QuerySource.benchmarkQueries(), seed)
+                        : StandInData.load(options.get("dataset"));
+                log.info("Stand-in data: {} movies", data.movieIds().size());
+
+                fts = new FtsStandIn(data, LatencyDistribution.parse(options.get("fts-latency")), 256, 500, seed);
+                fts.start(0, Integer.parseInt(options.get("fts-threads")));
+                StandInBucket bucket = new StandInBucket(data, LatencyDistribution.parse(options.get("kv-latency")), fts.url());
+
+                application = new SpringApplicationBuilder(SampleApplication.class)
+                        .profiles("loadtest")
+                        .initializers(context -> context.getBeanFactory().registerSingleton("standInBucket", bucket))
+                        .run();
+                int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+                target = "http://127.0.0.1:" + port;
+                log.info("Application started on {}, FTS stand-in on {}", target, fts.url());
+            }
+
+            List<String> titles = data != null ? data.titles() : Collections.emptyList();
+            double zipf = Double.parseDouble(options.get("zipf"));
+            QuerySource querySource = options.get("queries").isEmpty()
+                    ? QuerySource.zipf(titles, zipf, seed)
+                    : QuerySource.replay(options.get("queries"), titles, zipf, seed);
+
+            LoadGenerator generator = new LoadGenerator(target, querySource, mix(options.get("mix")),
+                    Double.parseDouble(options.get("rate")), "poisson".equals(options.get("arrival")),
+                    Integer.parseInt(options.get("connections")), (int) millis(options.get("timeout")), seed);
+            log.info("Sending {} requests/s for {} after a warmup of {}", options.get("rate"),
+                    options.get("duration"), options.get("warmup"));
+            long measuredNanos = generator.run(millis(options.get("warmup")), millis(options.get("duration")));
+
+            Map<String, Object> report = report(options, generator, measuredNanos, fts);
+            ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+            objectMapper.writeValue(new File(options.get("report")), report);
+            System.out.println(objectMapper.writeValueAsString(report));
+            if (!options.get("baseline").isEmpty()) {
+                compare(objectMapper.readTree(new File(options.get("baseline"))), objectMapper.valueToTree(report));
+            }
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (fts != null) {
+                fts.stop();
+            }
+        }
+    }
+
+    private static Map<String, Object> report(Map<String, String> options, LoadGenerator generator,
+                                              long measuredNanos, FtsStandIn fts) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", Instant.now().toString());
+        report.put("config", options);
+        double seconds = measuredNanos / 1e9;
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        for (Map.Entry<String, LoadGenerator.Endpoint> entry : generator.endpoints().entrySet()) {
+            LoadGenerator.Endpoint endpoint = entry.getValue();
+            Histogram histogram = endpoint.latencyMicros();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", endpoint.requests());
+            result.put("errors", endpoint.errors());
+            result.put("errorRate", endpoint.requests() == 0 ? 0.0 : (double) endpoint.errors() / endpoint.requests());
+            result.put("emptyResults", endpoint.empty());
+            result.put("throughput", round(endpoint.requests() / seconds));
+            Map<String, Object> latency = new LinkedHashMap<>();
+            for (double percentile : PERCENTILES) {
+                latency.put("p" + (percentile == 99.9 ? "999" : String.valueOf((int) percentile)),
+                        round(histogram.getValueAtPercentile(percentile) / 1000.0));
+            }
+            latency.put("max", round(histogram.getMaxValue() / 1000.0));
+            latency.put("mean", round(histogram.getTotalCount() == 0 ? 0 : histogram.getMean() / 1000.0));
+            result.put("latencyMs", latency);
+            endpoints.put(entry.getKey(), result);
+        }
+        report.put("endpoints", endpoints);
+        if (fts != null) {
+            report.put("ftsRequests", fts.requests());
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        double cpuUtilization = generator.cpuNanos() / (double) measuredNanos / processors;
+        Map<String, Object> host = new LinkedHashMap<>();
+        host.put("processors", processors);
+        host.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        host.put("jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        host.put("cpuUtilization", round(cpuUtilization));
+        report.put("host", host);
+        if (cpuUtilization > SATURATED) {
+            log.warn("The process used {}% of the {} processors: the latencies include the wait for a CPU, "
+                    + "lower --rate to measure the application", Math.round(cpuUtilization * 100), processors);
+        }
+        return report;
+    }
+
+    /**
+     * Logs the change of each endpoint's throughput, error rate and latencies against the baseline report.
+     */
+    private static void compare(JsonNode baseline, JsonNode current) {
+        current.path("endpoints").fields().forEachRemaining(entry -> {
+            JsonNode before = baseline.path("endpoints").path(entry.getKey());
+            if (before.isMissingNode()) {
+                return;
+            }
+            JsonNode after = entry.getValue();
+            StringBuilder line = new StringBuilder(entry.getKey()).append(" vs baseline:");
+            line.append(" throughput ").append(change(before.path("throughput"), after.path("throughput")));
+            line.append(", errorRate ").append(before.path("errorRate").asDouble())
+                    .append(" -> ").append(after.path("errorRate").asDouble());
+            line.append(", emptyResults ").append(before.path("emptyResults").asLong())
+                    .append(" -> ").append(after.path("emptyResults").asLong());
+            after.path("latencyMs").fields().forEachRemaining(latency -> line.append(", ").append(latency.getKey())
+                    .append(' ').append(change(before.path("latencyMs").path(latency.getKey()), latency.getValue())));
+            System.out.println(line);
+        });
+    }
+
+    private static String change(JsonNode before, JsonNode after) {
+        double from = before.asDouble();
+        double to = after.asDouble();
+        String percent = from == 0 ? "" : String.format(" (%+.1f%%)", (to - from) * 100 / from);
+        return from + " -> " + to + percent;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = arg.startsWith("--") && equals > 2 ? arg.substring(2, equals) : null;
+            if (name == null || !DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with a name in "
+                        + DEFAULTS.keySet());
+            }
+            options.put(name, arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    // "search:0.8,cover:0.2", normalized to sum up to 1
+    private static Map<String, Double> mix(String spec) {
+        Map<String, Double> mix = new LinkedHashMap<>();
+        double total = 0;
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split(":");
+            double share = pair.length > 1 ? Double.parseDouble(pair[1]) : 1;
+            mix.put(pair[0], share);
+            total += share;
+        }
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            entry.setValue(entry.getValue() / total);
+        }
+        return mix;
+    }
+
+    // "500ms", "30s", "2m" or milliseconds
+    private static long millis(String duration) {
+        if (duration.endsWith("ms")) {
+            return Long.parseLong(duration.substring(0, duration.length() - 2));
+        }
+        if (duration.endsWith("s")) {
+            return Long.parseLong(duration.substring(0, duration.length() - 1)) * 1000;
+        }
+        if (duration.endsWith("m")) {
+            return Long.parseLong(duration.substring(0, duration.length() - 1)) * 60_000;
+        }
+        return Long.parseLong(duration);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,135 @@
+package com.cb.fts.sample.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The requests of the load test, as paths of the search API. Searches replay a query log in order, cycling
+ * through it, or draw from the queries with a Zipf distribution, so a few head queries dominate like in
+ * real traffic. Covers are requested for movie titles drawn with the same distribution.
+ *
+ * A query log has one request per line: either the query as typed, or a path like
+ * "/api/movie/search?query=tom+hanks" which is sent as it is. Blank lines and lines starting with # are skipped.
+ */
+public final class QuerySource {
+
+    public static final String SEARCH = "search";
+    public static final String COVER = "cover";
+
+    private final List<String> queries;
+    private final boolean replay;
+    private final Zipf queryRanks;
+    private final List<String> titles;
+    private final Zipf titleRanks;
+    private final Random random;
+    private int next;
+
+    private QuerySource(List<String> queries, boolean replay, List<String> titles, double exponent, long seed) {
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("No queries to send");
+        }
+        this.queries = queries;
+        this.replay = replay;
+        this.queryRanks = new Zipf(queries.size(), exponent);
+        this.titles = titles;
+        this.titleRanks = new Zipf(Math.max(1, titles.size()), exponent);
+        this.random = new Random(seed);
+    }
+
+    public static QuerySource replay(String path, List<String> titles, double exponent, long seed) throws IOException {
+        return new QuerySource(lines(Files.newInputStream(Paths.get(path))), true, titles, exponent, seed);
+    }
+
+    public static QuerySource zipf(List<String> titles, double exponent, long seed) throws IOException {
+        return new QuerySource(benchmarkQueries(), false, titles, exponent, seed);
+    }
+
+    /**
+     * The search box inputs of the benchmarks, from the most to the least frequent.
+     */
+    public static List<String> benchmarkQueries() throws IOException {
+        return lines(QuerySource.class.getResourceAsStream("/queries.txt"));
+    }
+
+    /**
+     * The path of the next request of the endpoint; not thread-safe, requests are drawn by the dispatcher.
+     */
+    public String next(String endpoint) {
+        switch (endpoint) {
+            case SEARCH:
+                String query = replay ? queries.get(next++ % queries.size()) : queries.get(queryRanks.sample(random));
+                return query.startsWith("/") ? query : "/api/movie/search?query=" + encode(query);
+            case COVER:
+                String title = titles.isEmpty() ? queries.get(queryRanks.sample(random)) : titles.get(titleRanks.sample(random));
+                return "/api/movie/getCover?movieName=" + encode(title);
+            default:
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint + ", expected " + SEARCH + " or " + COVER);
+        }
+    }
+
+    private static List<String> lines(InputStream input) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ranks 0..n-1 drawn with probability proportional to 1 / (rank + 1)^exponent, by inverting the CDF.
+     */
+    static final class Zipf {
+
+        private final double[] cdf;
+
+        Zipf(int n, double exponent) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = cdf.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cdf[mid] < u) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.cb.fts.sample.loadtest;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.FtsMalformedRequestException;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.DefaultAsyncN1qlQueryResult;
+import com.couchbase.client.java.query.DefaultN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.result.AsyncSearchQueryResult;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.facets.DefaultNumericRangeFacetResult;
+import com.couchbase.client.java.search.result.facets.DefaultTermFacetResult;
+import com.couchbase.client.java.search.result.facets.FacetResult;
+import com.couchbase.client.java.search.result.facets.NumericRange;
+import com.couchbase.client.java.search.result.facets.TermRange;
+import com.couchbase.client.java.search.result.hits.DefaultHitLocations;
+import com.couchbase.client.java.search.result.impl.DefaultAsyncSearchQueryResult;
+import com.couchbase.client.java.search.result.impl.DefaultSearchMetrics;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryResult;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+import com.couchbase.client.java.search.result.impl.DefaultSearchStatus;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The movies bucket of the load test: KV operations are answered in-process from {@link StandInData}
+ * after a service time drawn from the KV latency, and search queries are sent over HTTP to the
+ * {@link FtsStandIn} and mapped to the SDK result classes like the responses of a real FTS node.
+ *
+ * Only the operations the application uses are implemented, through dynamic proxies of {@link Bucket}
+ * and {@link AsyncBucket}; N1QL queries return no rows, so the dictionaries loaded with N1QL stay empty
+ * and the parser checks actor names with KV lookups. Sub-document lookups are not supported, the
+ * application runs with couchflix.hydration.mode=FULL.
+ */
+public final class StandInBucket {
+
+    public static final String NAME = "movies";
+
+    private final StandInData data;
+    private final LatencyDistribution kvLatency;
+    private final String ftsUrl;
+
+    private final AsyncBucket async;
+    private final Bucket sync;
+
+    public StandInBucket(StandInData data, LatencyDistribution kvLatency, String ftsUrl) {
+        this.data = data;
+        this.kvLatency = kvLatency;
+        this.ftsUrl = ftsUrl;
+        this.async = proxy(AsyncBucket.class, this::invokeAsync);
+        this.sync = proxy(Bucket.class, this::invokeSync);
+    }
+
+    public Bucket bucket() {
+        return sync;
+    }
+
+    private Object invokeAsync(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "name":
+                return NAME;
+            case "get":
+                if (args.length == 1 && args[0] instanceof String) {
+                    String id = (String) args[0];
+                    return kv(() -> {
+                        String json = data.get(id);
+                        return json != null ? Observable.just(JsonDocument.create(id, JsonObject.fromJson(json)))
+                                : Observable.empty();
+                    });
+                }
+                if (args.length == 2 && args[1] == RawJsonDocument.class) {
+                    String id = (String) args[0];
+                    return kv(() -> {
+                        String json = data.get(id);
+                        return json != null ? Observable.just(RawJsonDocument.create(id, json)) : Observable.empty();
+                    });
+                }
+                break;
+            case "exists":
+                if (args.length == 1 && args[0] instanceof String) {
+                    return kv(() -> Observable.just(data.contains((String) args[0])));
+                }
+                break;
+            case "upsert":
+                if (args.length == 1) {
+                    Document<?> document = (Document<?>) args[0];
+                    return kv(() -> Observable.just(store(document)));
+                }
+                break;
+            case "query":
+                if (args[0] instanceof SearchQuery) {
+                    SearchQuery query = (SearchQuery) args[0];
+                    return Observable.fromCallable(() -> search(query)).subscribeOn(Schedulers.io());
+                }
+                if (args[0] instanceof N1qlQuery) {
+                    return Observable.just(emptyN1qlResult());
+                }
+                break;
+            case "close":
+                return Observable.just(true);
+            case "isClosed":
+                return false;
+            default:
+                break;
+        }
+        throw unsupported(method);
+    }
+
+    private Object invokeSync(Method method, Object[] args) throws Exception {
+        switch (method.getName()) {
+            case "name":
+                return NAME;
+            case "async":
+                return async;
+            case "get":
+                if (args.length == 1 && args[0] instanceof String) {
+                    String id = (String) args[0];
+                    sleep();
+                    String json = data.get(id);
+                    return json != null ? JsonDocument.create(id, JsonObject.fromJson(json)) : null;
+                }
+                break;
+            case "exists":
+                if (args.length == 1 && args[0] instanceof String) {
+                    sleep();
+                    return data.contains((String) args[0]);
+                }
+                break;
+            case "upsert":
+                if (args.length == 1) {
+                    sleep();
+                    return store((Document<?>) args[0]);
+                }
+                break;
+            case "query":
+                if (args[0] instanceof SearchQuery) {
+                    return DefaultSearchQueryResult.FROM_ASYNC.call(search((SearchQuery) args[0])).toBlocking().single();
+                }
+                if (args[0] instanceof N1qlQuery) {
+                    return new DefaultN1qlQueryResult(Collections.emptyList(), null, null, Collections.emptyList(),
+                            null, "success", true, true, "stand-in", "");
+                }
+                break;
+            case "close":
+                return true;
+            case "isClosed":
+                return false;
+            default:
+                break;
+        }
+        throw unsupported(method);
+    }
+
+    private Observable<?> kv(Supplier<Observable<?>> reply) {
+        long micros = kvLatency.sampleMicros();
+        Observable<?> deferred = Observable.defer(reply::get);
+        return micros > 0 ? Observable.timer(micros, TimeUnit.MICROSECONDS).flatMap(tick -> deferred) : deferred;
+    }
+
+    private void sleep() throws InterruptedException {
+        long micros = kvLatency.sampleMicros();
+        if (micros > 0) {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        }
+    }
+
+    private Document<?> store(Document<?> document) {
+        Object content = document.content();
+        data.put(document.id(), content instanceof String ? (String) content : String.valueOf(content));
+        return document;
+    }
+
+    private AsyncSearchQueryResult search(SearchQuery query) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)
+                new URL(ftsUrl + "/api/index/" + query.indexName() + "/query").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(query.export().toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int status = connection.getResponseCode();
+        String body;
+        try (InputStream input = status == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+            body = read(input);
+        }
+        if (status != 200) {
+            return new DefaultAsyncSearchQueryResult(new DefaultSearchStatus(1, 1, 0),
+                    Observable.error(new FtsMalformedRequestException(body)), Observable.empty(),
+                    Observable.just(new DefaultSearchMetrics(0, 0, 0)));
+        }
+        return searchResult(JsonObject.fromJson(body));
+    }
+
+    // the response of the FtsStandIn, mapped to the result classes as the SDK maps a real one
+    private static AsyncSearchQueryResult searchResult(JsonObject response) {
+        JsonObject status = response.getObject("status");
+        List<SearchQueryRow> rows = new ArrayList<>();
+        for (Object item : response.getArray("hits")) {
+            JsonObject hit = (JsonObject) item;
+            Map<String, List<String>> fragments = new HashMap<>();
+            JsonObject highlighted = hit.getObject("fragments");
+            if (highlighted != null) {
+                for (String field : highlighted.getNames()) {
+                    List<String> values = new ArrayList<>();
+                    for (Object fragment : highlighted.getArray(field)) {
+                        values.add(String.valueOf(fragment));
+                    }
+                    fragments.put(field, values);
+                }
+            }
+            Map<String, String> fields = new HashMap<>();
+            JsonObject stored = hit.getObject("fields");
+            if (stored != null) {
+                for (String field : stored.getNames()) {
+                    fields.put(field, String.valueOf(stored.get(field)));
+                }
+            }
+            rows.add(new DefaultSearchQueryRow(hit.getString("index"), hit.getString("id"),
+                    hit.getDouble("score"), hit.getObject("explanation"),
+                    DefaultHitLocations.from(hit.getObject("locations")), fragments, fields));
+        }
+
+        List<FacetResult> facets = new ArrayList<>();
+        JsonObject counted = response.getObject("facets");
+        if (counted != null) {
+            for (String name : counted.getNames()) {
+                facets.add(facet(name, counted.getObject(name)));
+            }
+        }
+        return new DefaultAsyncSearchQueryResult(
+                new DefaultSearchStatus(status.getLong("total"), status.getLong("failed"),
+                        status.getLong("successful")),
+                Observable.from(rows), Observable.from(facets),
+                Observable.just(new DefaultSearchMetrics(response.getLong("took"), response.getLong("total_hits"),
+                        response.getDouble("max_score"))));
+    }
+
+    private static FacetResult facet(String name, JsonObject facet) {
+        String field = facet.getString("field");
+        long total = facet.getLong("total");
+        long missing = facet.getLong("missing");
+        long other = facet.getLong("other");
+        JsonArray numericRanges = facet.getArray("numeric_ranges");
+        if (numericRanges != null) {
+            List<NumericRange> ranges = new ArrayList<>();
+            for (Object item : numericRanges) {
+                JsonObject range = (JsonObject) item;
+                ranges.add(new NumericRange(range.getString("name"), range.getDouble("min"),
+                        range.getDouble("max"), range.getLong("count")));
+            }
+            return new DefaultNumericRangeFacetResult(name, field, total, missing, other, ranges);
+        }
+        List<TermRange> terms = new ArrayList<>();
+        for (Object item : facet.getArray("terms")) {
+            JsonObject term = (JsonObject) item;
+            terms.add(new TermRange(term.getString("term"), term.getLong("count")));
+        }
+        return new DefaultTermFacetResult(name, field, total, missing, other, terms);
+    }
+
+    private static AsyncN1qlQueryResult emptyN1qlResult() {
+        return new DefaultAsyncN1qlQueryResult(Observable.empty(), Observable.empty(), Observable.empty(),
+                Observable.empty(), Observable.empty(), Observable.just("success"), true, "stand-in", "");
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int n; (n = input.read(chunk)) > 0; ) {
+            buffer.write(chunk, 0, n);
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static UnsupportedOperationException unsupported(Method method) {
+        return new UnsupportedOperationException("The stand-in bucket does not implement " + method);
+    }
+
+    /**
+     * A proxy answering toString, hashCode and equals itself and every other call with the handler.
+     */
+    static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            Object[] arguments = args != null ? args : new Object[0];
+            switch (method.getName()) {
+                case "toString":
+                    return "StandIn" + type.getSimpleName();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == arguments[0];
+                default:
+                    try {
+                        return handler.invoke(method, arguments);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    interface Handler {
+        Object invoke(Method method, Object[] args) throws Exception;
+    }
+}
@@ -0,0 +1,64 @@
+package com.cb.fts.sample.loadtest;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.cluster.ClusterInfo;
+import com.couchbase.client.java.env.CouchbaseEnvironment;
+import com.couchbase.client.java.util.features.Version;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.couchbase.config.CouchbaseConfigurer;
+
+import java.util.Collections;
+
+/**
+ * Replaces the Couchbase connection of the application with the {@link StandInBucket} registered by
+ * {@link LoadTest}; Spring Boot's Couchbase configuration backs off when a {@link CouchbaseConfigurer}
+ * is present, so no cluster is bootstrapped. The cluster and its info are inert proxies.
+ */
+@Configuration
+public class StandInConfiguration implements CouchbaseConfigurer {
+
+    private static final Version VERSION = new Version(5, 5, 0);
+
+    @Autowired
+    private StandInBucket standInBucket;
+
+    @Override
+    public CouchbaseEnvironment couchbaseEnvironment() {
+        return StandInBucket.proxy(CouchbaseEnvironment.class, (method, args) -> {
+            throw new UnsupportedOperationException("The stand-in environment does not implement " + method);
+        });
+    }
+
+    @Override
+    public Cluster couchbaseCluster() {
+        return StandInBucket.proxy(Cluster.class, (method, args) -> {
+            if (method.getName().equals("disconnect")) {
+                return true;
+            }
+            throw new UnsupportedOperationException("The stand-in cluster does not implement " + method);
+        });
+    }
+
+    @Override
+    public ClusterInfo couchbaseClusterInfo() {
+        return StandInBucket.proxy(ClusterInfo.class, (method, args) -> {
+            switch (method.getName()) {
+                case "checkAvailable":
+                    return true;
+                case "getMinVersion":
+                    return VERSION;
+                case "getAllVersions":
+                    return Collections.singletonList(VERSION);
+                default:
+                    throw new UnsupportedOperationException("The stand-in cluster info does not implement " + method);
+            }
+        });
+    }
+
+    @Override
+    public Bucket couchbaseClient() {
+        return standInBucket.bucket();
+    }
+}
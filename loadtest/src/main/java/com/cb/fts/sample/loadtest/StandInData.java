@@ -0,0 +1,178 @@
+package com.cb.fts.sample.loadtest;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.entities.Movie;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The documents served by the stand-ins: the movies of a catalog dump (a JSON array or NDJSON of movie
+ * documents with their key in "id", optionally gzipped), or movies cloned from document-example.json with
+ * varied titles, years, genres and scores. The actorName documents are derived from the cast.
+ */
+public final class StandInData {
+
+    private static final TypeReference<Map<String, Object>> DOCUMENT = new TypeReference<Map<String, Object>>() {};
+
+    private static final List<String> GENRES = Arrays.asList("Drama", "Comedy", "Thriller", "Action", "Romance",
+            "Adventure", "Crime", "Science Fiction", "Horror", "Family", "Fantasy", "Mystery", "Animation");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // documents by key, as stored JSON; covers are added by the application while the test runs
+    private final Map<String, String> documents = new ConcurrentHashMap<>();
+    private final List<String> movieIds = new ArrayList<>();
+    private final List<String> titles = new ArrayList<>();
+    private final Map<String, Map<String, Object>> fields = new HashMap<>();
+
+    public static StandInData load(String path) throws IOException {
+        StandInData data = new StandInData();
+        Map<String, Integer> moviesCounts = new HashMap<>();
+        try (InputStream file = new FileInputStream(path);
+             InputStream input = path.endsWith(".gz") ? new GZIPInputStream(file, 1 << 16) : file;
+             JsonParser parser = data.objectMapper.getFactory().createParser(input)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            while (token == JsonToken.START_OBJECT) {
+                Map<String, Object> movie = parser.readValueAs(DOCUMENT);
+                Object id = movie.remove("id");
+                if (id != null) {
+                    data.add(id.toString(), movie, moviesCounts);
+                }
+                token = parser.nextToken();
+            }
+        }
+        data.addActorNames(moviesCounts);
+        return data;
+    }
+
+    public static StandInData synthetic(int movies, List<String> titles, long seed) throws IOException {
+        StandInData data = new StandInData();
+        Map<String, Object> template;
+        try (InputStream input = StandInData.class.getResourceAsStream("/document-example.json")) {
+            template = data.objectMapper.readValue(input, DOCUMENT);
+        }
+        template.remove("id");
+        String example = data.objectMapper.writeValueAsString(template);
+
+        Random random = new Random(seed);
+        Map<String, Integer> moviesCounts = new HashMap<>();
+        for (int i = 0; i < movies; i++) {
+            Map<String, Object> movie = data.objectMapper.readValue(example, DOCUMENT);
+            String title = titles.get(random.nextInt(titles.size())) + " " + (i + 1);
+            int year = 1930 + random.nextInt(90);
+            movie.put("title", title);
+            movie.put("original_title", title);
+            movie.put("release_date", year + "-06-01");
+            movie.put("release_year", year);
+            movie.put("popularity", random.nextDouble() * 60);
+            movie.put("runtime", 70 + random.nextInt(100));
+            movie.put("vote_average", Math.round(random.nextDouble() * 90) / 10.0);
+            movie.put("vote_count", random.nextInt(5000));
+            movie.put("promoted", random.nextInt(20) == 0);
+            List<Map<String, Object>> genres = new ArrayList<>();
+            for (int g = 0; g < 1 + random.nextInt(3); g++) {
+                Map<String, Object> genre = new LinkedHashMap<>();
+                genre.put("name", GENRES.get(random.nextInt(GENRES.size())));
+                genres.add(genre);
+            }
+            movie.put("genres", genres);
+            data.add(String.valueOf(i + 1), movie, moviesCounts);
+        }
+        data.addActorNames(moviesCounts);
+        return data;
+    }
+
+    public String get(String id) {
+        return documents.get(id);
+    }
+
+    public void put(String id, String json) {
+        documents.put(id, json);
+    }
+
+    public boolean contains(String id) {
+        return documents.containsKey(id);
+    }
+
+    public List<String> movieIds() {
+        return movieIds;
+    }
+
+    public List<String> titles() {
+        return titles;
+    }
+
+    public List<String> genres() {
+        return GENRES;
+    }
+
+    /**
+     * The numeric and boolean fields of the movie, which the FTS stand-in returns as stored fields.
+     */
+    public Map<String, Object> fields(String id) {
+        return fields.get(id);
+    }
+
+    private void add(String id, Map<String, Object> movie, Map<String, Integer> moviesCounts) throws IOException {
+        movie.put("_class", Movie.class.getName());
+        documents.put(id, objectMapper.writeValueAsString(movie));
+        movieIds.add(id);
+        Object title = movie.get("title");
+        if (title != null) {
+            titles.add(title.toString());
+        }
+
+        Map<String, Object> stored = new HashMap<>();
+        for (Map.Entry<String, Object> entry : movie.entrySet()) {
+            if (entry.getValue() instanceof Number || entry.getValue() instanceof Boolean) {
+                stored.put(entry.getKey(), entry.getValue());
+            }
+        }
+        fields.put(id, stored);
+
+        Object cast = movie.get("cast");
+        if (cast instanceof List) {
+            for (Object actor : (List<?>) cast) {
+                Object name = actor instanceof Map ? ((Map<?, ?>) actor).get("name") : null;
+                if (name != null) {
+                    moviesCounts.merge(actorNameId(name.toString()), 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    private void addActorNames(Map<String, Integer> moviesCounts) throws IOException {
+        for (Map.Entry<String, Integer> entry : moviesCounts.entrySet()) {
+            Map<String, Object> actorName = new LinkedHashMap<>();
+            actorName.put("_class", ActorName.class.getName());
+            actorName.put("moviesCount", entry.getValue());
+            documents.put(entry.getKey(), objectMapper.writeValueAsString(actorName));
+        }
+    }
+
+    // the keys of the parser: lowercase, ASCII and dash-separated
+    private static String actorNameId(String name) {
+        String ascii = Normalizer.normalize(name.toLowerCase(), Normalizer.Form.NFD)
+                .replaceAll("[^\\p{ASCII}]", "");
+        return "actorName-" + String.join("-", ascii.trim().split("\\s+"));
+    }
+}
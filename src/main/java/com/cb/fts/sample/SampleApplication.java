@@ -1,15 +1,20 @@
 package com.cb.fts.sample;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 import java.io.IOException;
 
 @EnableAutoConfiguration
 @SpringBootApplication
+@EnableScheduling
 public class SampleApplication {
 
     @Autowired
@@ -19,4 +24,16 @@ public class SampleApplication {
 		SpringApplication.run(SampleApplication.class, args);
 	}
 
+	/**
+	 * The scheduled loads of the dictionaries and in-memory indexes block on N1QL scans, so they get a pool
+	 * of couchflix.scheduler.pool-size threads instead of the single thread of the default scheduler.
+	 */
+	@Bean
+	public ThreadPoolTaskScheduler taskScheduler(@Value("${couchflix.scheduler.pool-size:4}") int poolSize) {
+		ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setPoolSize(poolSize);
+		scheduler.setThreadNamePrefix("couchflix-scheduler-");
+		return scheduler;
+	}
+
 }
@@ -54,7 +54,8 @@ public class Movie implements Serializable {
     private String homepage;
     private String status;
     private Boolean promoted;
-    private double weightedRating;
+    private Double weightedRating;
+    private Double staticRank;
 
 
 }
@@ -0,0 +1,28 @@
+package com.cb.fts.sample.entities.vo;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.Data;
+
+import java.io.Serializable;
+
+@Data
+public class CacheStatistics implements Serializable {
+
+    private String name;
+    private long entries;
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long evictionWeight;
+
+    public CacheStatistics(String name, long entries, CacheStats stats) {
+        this.name = name;
+        this.entries = entries;
+        this.hitCount = stats.hitCount();
+        this.missCount = stats.missCount();
+        this.hitRate = stats.hitRate();
+        this.evictionCount = stats.evictionCount();
+        this.evictionWeight = stats.evictionWeight();
+    }
+}
@@ -1,6 +1,7 @@
 package com.cb.fts.sample.entities.vo;
 
 import com.couchbase.client.java.search.result.facets.FacetResult;
+import com.couchbase.client.java.search.result.facets.NumericRange;
 import com.couchbase.client.java.search.result.facets.TermFacetResult;
 import com.couchbase.client.java.search.result.facets.TermRange;
 import lombok.Data;
@@ -17,4 +18,9 @@ public class FacetItem implements Serializable {
         this.name = termRange.name();
         this.total = termRange.count();
     }
+
+    public FacetItem(NumericRange numericRange) {
+        this.name = numericRange.name();
+        this.total = numericRange.count();
+    }
 }
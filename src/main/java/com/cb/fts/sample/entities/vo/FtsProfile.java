@@ -0,0 +1,23 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FtsProfile implements Serializable {
+
+    private String index;
+    // "took" reported by the FTS service
+    private double serverMs;
+    // from sending the request to the last hit, server time included
+    private double clientMs;
+    private long totalHits;
+    // leaf queries of the query tree, compound queries are not counted
+    private int clauseCount;
+    private String query;
+}
@@ -0,0 +1,24 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LoadStatus implements Serializable {
+
+    private String source;
+    private boolean running;
+    private long startedAt;
+    private long elapsedMs;
+    private long read;
+    private long skipped;
+    private long loaded;
+    private long failed;
+    private double docsPerSecond;
+    private String error;
+}
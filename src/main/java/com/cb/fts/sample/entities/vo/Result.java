@@ -1,17 +1,31 @@
 package com.cb.fts.sample.entities.vo;
 
-import lombok.AllArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
-import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
 import java.util.List;
 
 @Data
-@AllArgsConstructor
-@NoArgsConstructor
 public class Result implements Serializable {
 
     private List<SearchResult> results;
     private List<Facet> facets;
+    // only set when the search was run with profile=true
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private SearchProfile profile;
+    // the profile of a profiled or slow search, its serializationMs is set when the response is written
+    @JsonIgnore
+    private transient SearchProfile timedProfile;
+
+    public Result() {
+    }
+
+    public Result(List<SearchResult> results, List<Facet> facets, SearchProfile profile) {
+        this.results = results;
+        this.facets = facets;
+        this.profile = profile;
+        this.timedProfile = profile;
+    }
 }
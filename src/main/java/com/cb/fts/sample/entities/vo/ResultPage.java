@@ -0,0 +1,20 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ResultPage implements Serializable {
+
+    private List<SearchResult> results;
+    private List<Facet> facets;
+    private int total;
+    // null on the last page
+    private String next;
+}
@@ -0,0 +1,25 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchComparison implements Serializable {
+
+    private String query;
+    private long monolithicMs;
+    private long fanOutMs;
+    private List<String> monolithicIds;
+    private List<String> fanOutIds;
+    // movies returned by both modes
+    private int overlap;
+    // sum of 1 / log2(rank + 1) over the fan-out ranking, counting only movies of the monolithic ranking,
+    // divided by the same sum for a perfect ranking
+    private double ndcg;
+}
@@ -0,0 +1,27 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchProfile implements Serializable {
+
+    private String query;
+    private String filters;
+    private String variant;
+    private long timestamp;
+    private double totalMs;
+    private List<StageTiming> stages;
+    // actor name KV lookups, only made while the actor dictionary is not loaded
+    private List<StageTiming> entityLookups;
+    private List<FtsProfile> fts;
+    // time from the start of the hydration to the arrival of each movie
+    private List<StageTiming> hydration;
+    private double serializationMs;
+}
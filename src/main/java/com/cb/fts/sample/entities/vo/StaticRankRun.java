@@ -0,0 +1,23 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StaticRankRun implements Serializable {
+
+    private boolean running;
+    private long startedAt;
+    private long elapsedMs;
+    private int partitions;
+    private long scanned;
+    private long changed;
+    private long conflicts;
+    private long failed;
+    private String error;
+}
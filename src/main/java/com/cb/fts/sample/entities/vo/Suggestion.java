@@ -0,0 +1,22 @@
+package com.cb.fts.sample.entities.vo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.Serializable;
+
+@Data
+@AllArgsConstructor
+public class Suggestion implements Serializable {
+
+    private String text;
+    private Type type;
+    // movie or ActorName id, null for collections
+    private String id;
+
+    public enum Type {
+        TITLE,
+        COLLECTION,
+        PERSON
+    }
+}
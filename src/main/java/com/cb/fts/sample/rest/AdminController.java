@@ -0,0 +1,179 @@
+package com.cb.fts.sample.rest;
+
+
+import com.cb.fts.sample.entities.vo.CacheStatistics;
+import com.cb.fts.sample.entities.vo.LoadStatus;
+import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.SearchComparison;
+import com.cb.fts.sample.entities.vo.SearchProfile;
+import com.cb.fts.sample.entities.vo.StaticRankRun;
+import com.cb.fts.sample.service.BoostQueryTemplates;
+import com.cb.fts.sample.service.CatalogLoader;
+import com.cb.fts.sample.service.FacetService;
+import com.cb.fts.sample.service.HitSnapshotCache;
+import com.cb.fts.sample.service.MovieService;
+import com.cb.fts.sample.service.SearchMode;
+import com.cb.fts.sample.service.SearchResultCache;
+import com.cb.fts.sample.service.SlowQueryLog;
+import com.cb.fts.sample.service.StaticRankJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+
+    @Autowired
+    private BoostQueryTemplates boostQueryTemplates;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private HitSnapshotCache hitSnapshotCache;
+
+    @Autowired
+    private FacetService facetService;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private SlowQueryLog slowQueryLog;
+
+    @Autowired
+    private CatalogLoader catalogLoader;
+
+    @Autowired
+    private StaticRankJob staticRankJob;
+
+    @RequestMapping(value = "/templates/reload", method = RequestMethod.POST)
+    public void reloadTemplates() {
+        boostQueryTemplates.reload();
+        searchResultCache.invalidateAll();
+        hitSnapshotCache.invalidateAll();
+    }
+
+    @RequestMapping(value = "/cache/search", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CacheStatistics searchCacheStats() {
+        return searchResultCache.stats();
+    }
+
+    @RequestMapping(value = "/cache/search", method = RequestMethod.DELETE)
+    public void invalidateSearchCache() {
+        searchResultCache.invalidateAll();
+        hitSnapshotCache.invalidateAll();
+        facetService.invalidateAll();
+    }
+
+    @RequestMapping(value = "/cache/facets", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CacheStatistics facetCacheStats() {
+        return facetService.stats();
+    }
+
+    @RequestMapping(value = "/cache/snapshots", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CacheStatistics snapshotCacheStats() {
+        return hitSnapshotCache.stats();
+    }
+
+    /**
+     * Runs both execution modes of the search, one after the other and without the result cache,
+     * using the monolithic ranking as the reference for the fan-out one. The first run warms the parser
+     * and facet caches, so repeat the call to compare steady-state latencies.
+     */
+    @RequestMapping(value = "/search/compare", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public SearchComparison compareSearchModes(@RequestParam("query") String query,
+                                               @RequestParam(value = "filters", required = false) String filters) {
+        long start = System.nanoTime();
+        List<String> monolithic = ids(movieService.searchUncached(query, filters, SearchMode.MONOLITHIC).join());
+        long monolithicNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<String> fanOut = ids(movieService.searchUncached(query, filters, SearchMode.FANOUT).join());
+        long fanOutNanos = System.nanoTime() - start;
+
+        Set<String> reference = new HashSet<>(monolithic);
+        int overlap = 0;
+        double dcg = 0;
+        double ideal = 0;
+        for (int i = 0; i < fanOut.size(); i++) {
+            if (reference.contains(fanOut.get(i))) {
+                overlap++;
+                dcg += 1 / log2(i + 2);
+            }
+        }
+        for (int i = 0; i < Math.min(monolithic.size(), fanOut.size()); i++) {
+            ideal += 1 / log2(i + 2);
+        }
+
+        return new SearchComparison(query, TimeUnit.NANOSECONDS.toMillis(monolithicNanos),
+                TimeUnit.NANOSECONDS.toMillis(fanOutNanos), monolithic, fanOut, overlap, ideal > 0 ? dcg / ideal : 0);
+    }
+
+    @RequestMapping(value = "/search/slow", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<SearchProfile> slowQueries() {
+        return slowQueryLog.entries();
+    }
+
+    @RequestMapping(value = "/search/slow", method = RequestMethod.DELETE)
+    public void clearSlowQueries() {
+        slowQueryLog.clear();
+    }
+
+    /**
+     * Starts a bulk load of a movie dump in the import directory of the server, see {@link CatalogLoader}.
+     */
+    @RequestMapping(value = "/catalog/load", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public LoadStatus loadCatalog(@RequestParam("path") String path) {
+        return catalogLoader.start(path);
+    }
+
+    @RequestMapping(value = "/catalog/load", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public LoadStatus catalogLoadStatus() {
+        return catalogLoader.status();
+    }
+
+    /**
+     * Recomputes weightedRating and staticRank in the background, see {@link StaticRankJob}.
+     */
+    @RequestMapping(value = "/static-rank/refresh", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public StaticRankRun refreshStaticRank() {
+        return staticRankJob.start();
+    }
+
+    @RequestMapping(value = "/static-rank/refresh", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public StaticRankRun staticRankStatus() {
+        return staticRankJob.status();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String conflict(IllegalStateException e) {
+        return e.getMessage();
+    }
+
+    private static List<String> ids(Result result) {
+        return result.getResults().stream().map(r -> r.getMovie().getId()).collect(Collectors.toList());
+    }
+
+    private static double log2(int value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+}
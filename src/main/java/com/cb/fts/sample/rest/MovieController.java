@@ -1,14 +1,23 @@
 package com.cb.fts.sample.rest;
 
 
+import com.cb.fts.sample.entities.Movie;
 import com.cb.fts.sample.entities.vo.CoverVo;
 import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.ResultPage;
+import com.cb.fts.sample.entities.vo.Suggestion;
 import com.cb.fts.sample.service.ImageService;
 import com.cb.fts.sample.service.MovieService;
+import com.cb.fts.sample.service.ResultProjection;
+import com.cb.fts.sample.service.SuggestionIndex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 @CrossOrigin( maxAge = 3600)
 @RestController
 @RequestMapping("/api/movie")
@@ -20,14 +29,61 @@ public class MovieController {
     @Autowired
     private ImageService imageService;
 
+    @Autowired
+    private SuggestionIndex suggestionIndex;
+
+    @Autowired
+    private ResultProjection resultProjection;
+
     @RequestMapping(value = "/search", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public Result search(@RequestParam("query") String query, @RequestParam(value = "filters", required = false) String filters ) {
-        return movieService.searchQuery(query, filters);
+    public CompletableFuture<?> search(@RequestParam("query") String query, @RequestParam(value = "filters", required = false) String filters,
+                                       @RequestParam(value = "profile", defaultValue = "false") boolean profile,
+                                       @RequestParam(value = "fields", required = false) String fields) {
+        if (fields == null) {
+            return movieService.searchQueryAsync(query, filters, profile);
+        }
+        ResultProjection.Projection projection = resultProjection.parse(fields);
+        return movieService.searchQueryAsync(query, filters, profile || projection.isProfiled(),
+                projection.getHydration()).thenApply(projection::apply);
+    }
+
+    @RequestMapping(value = "/searchPage", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<?> searchPage(@RequestParam(value = "query", required = false) String query,
+                                           @RequestParam(value = "filters", required = false) String filters,
+                                           @RequestParam(value = "cursor", required = false) String cursor,
+                                           @RequestParam(value = "size", defaultValue = "20") int size,
+                                           @RequestParam(value = "fields", required = false) String fields) {
+        if (cursor == null && query == null) {
+            throw new IllegalArgumentException("Either query or cursor is required");
+        }
+        if (fields == null) {
+            return movieService.searchPage(query, filters, cursor, size);
+        }
+        ResultProjection.Projection projection = resultProjection.parse(fields);
+        return movieService.searchPage(query, filters, cursor, size, projection.getHydration())
+                .thenApply(projection::apply);
+    }
+
+    @RequestMapping(value = "/suggest", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Suggestion> suggest(@RequestParam("query") String query,
+                                    @RequestParam(value = "size", defaultValue = "8") int size) {
+        return suggestionIndex.suggest(query, Math.min(size, 50));
+    }
+
+    @RequestMapping(value = "/getDetails", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Movie getDetails(@RequestParam("id") String id) {
+        return movieService.getMovie(id);
     }
 
     @RequestMapping(value = "/getCover", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
-    public CoverVo getCover(@RequestParam("movieName") String query) throws Exception {
-        return imageService.getImg(query);
+    public CompletableFuture<CoverVo> getCover(@RequestParam("movieName") String query) {
+        return imageService.getImgAsync(query);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String badRequest(IllegalArgumentException e) {
+        return e.getMessage();
     }
 
 }
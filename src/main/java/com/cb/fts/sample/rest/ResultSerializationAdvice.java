@@ -0,0 +1,75 @@
+package com.cb.fts.sample.rest;
+
+import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.SearchProfile;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.io.IOException;
+
+/**
+ * Times the serialization of profiled and slow searches where the response is written: their results and
+ * facets are written to the response stream first, then serializationMs is set in the profile, which is
+ * written last when it was requested.
+ */
+@ControllerAdvice(assignableTypes = MovieController.class)
+public class ResultSerializationAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return MappingJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (body instanceof Result && ((Result) body).getTimedProfile() != null) {
+            return new TimedResult((Result) body);
+        }
+        return body;
+    }
+
+    /**
+     * Written like {@link Result} itself.
+     */
+    private static final class TimedResult implements JsonSerializable {
+
+        private final Result result;
+
+        TimedResult(Result result) {
+            this.result = result;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            long start = System.nanoTime();
+            generator.writeStartObject();
+            provider.defaultSerializeField("results", result.getResults(), generator);
+            provider.defaultSerializeField("facets", result.getFacets(), generator);
+            SearchProfile timedProfile = result.getTimedProfile();
+            timedProfile.setSerializationMs((System.nanoTime() - start) / 1e6);
+            if (result.getProfile() != null) {
+                provider.defaultSerializeField("profile", result.getProfile(), generator);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer)
+                throws IOException {
+            // responses are never written with type information
+            serialize(generator, provider);
+        }
+    }
+}
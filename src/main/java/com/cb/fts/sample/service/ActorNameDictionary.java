@@ -0,0 +1,235 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.repositories.ActorNameRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * In-process set of every ActorName id, so the query parser can test person shingles
+ * without a KV round trip each.
+ *
+ * Ids are looked up by their 64-bit hash in an open addressing table next to their moviesCount,
+ * 16 bytes per slot at a load factor of at most 0.75, and a hash match is confirmed against the id
+ * itself, kept as UTF-8 in a single byte pool, so a collision never tags a non-name as a person.
+ * The table is rebuilt in the background and swapped atomically; until the first build finishes
+ * {@link #isLoaded()} is false.
+ */
+@Component
+public class ActorNameDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(ActorNameDictionary.class);
+
+    public static final int NOT_FOUND = -1;
+
+    private static final double MAX_LOAD = 0.75;
+
+    @Autowired
+    private ActorNameRepository actorNameRepository;
+
+    @Value("${couchflix.actor-dictionary.max-names:5000000}")
+    private int maxNames;
+
+    private volatile Table table;
+
+    public boolean isLoaded() {
+        return table != null;
+    }
+
+    public boolean contains(String actorNameId) {
+        return moviesCount(actorNameId) != NOT_FOUND;
+    }
+
+    /**
+     * @return the moviesCount of the actor or {@link #NOT_FOUND}
+     */
+    public int moviesCount(String actorNameId) {
+        Table current = table;
+        return current == null ? NOT_FOUND : current.get(hash(actorNameId), actorNameId);
+    }
+
+    public int size() {
+        Table current = table;
+        return current == null ? 0 : current.size();
+    }
+
+    public long memoryFootprintBytes() {
+        Table current = table;
+        return current == null ? 0 : current.footprint();
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.actor-dictionary.initial-delay-ms:0}",
+            fixedDelayString = "${couchflix.actor-dictionary.refresh-ms:3600000}")
+    public void refresh() {
+        try {
+            long start = System.currentTimeMillis();
+            Table loaded = load();
+            table = loaded;
+            log.info("Actor name dictionary loaded: {} names, {} KB, in {} ms", loaded.size(),
+                    loaded.footprint() / 1024, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not load the actor name dictionary, keeping the previous one", e);
+        }
+    }
+
+    private Table load() {
+        Bucket bucket = actorNameRepository.getCouchbaseOperations().getCouchbaseBucket();
+        // the most relevant names are kept when the catalog is larger than the configured bound
+        String statement = "SELECT META(a).id AS id, a.moviesCount FROM `" + bucket.name() + "` a "
+                + "WHERE a._class = '" + ActorName.class.getName() + "' "
+                + "ORDER BY a.moviesCount DESC LIMIT " + maxNames;
+
+        Builder builder = new Builder();
+        bucket.async()
+                .query(N1qlQuery.simple(statement))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .toBlocking()
+                .forEach(row -> {
+                    JsonObject value = row.value();
+                    Integer moviesCount = value.getInt("moviesCount");
+                    String id = value.getString("id");
+                    builder.add(hash(id), id, moviesCount == null ? 0 : moviesCount);
+                });
+        return builder.build();
+    }
+
+    static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53bd3a3L;
+        h ^= h >>> 33;
+        // zero marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    static final class Builder {
+
+        private long[] hashes = new long[1024];
+        private int[] counts = new int[1024];
+        // the ids one after another, the i-th from starts[i] to starts[i + 1]
+        private int[] starts = new int[1025];
+        private byte[] pool = new byte[16 * 1024];
+        private int size;
+
+        void add(long hash, String id, int moviesCount) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size + (size >> 1));
+                counts = Arrays.copyOf(counts, hashes.length);
+                starts = Arrays.copyOf(starts, hashes.length + 1);
+            }
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            int start = starts[size];
+            if (start + bytes.length > pool.length) {
+                pool = Arrays.copyOf(pool, Math.max(start + bytes.length, pool.length + (pool.length >> 1)));
+            }
+            System.arraycopy(bytes, 0, pool, start, bytes.length);
+            hashes[size] = hash;
+            counts[size] = moviesCount;
+            starts[size + 1] = start + bytes.length;
+            size++;
+        }
+
+        Table build() {
+            int capacity = Integer.highestOneBit((int) Math.ceil(Math.max(size, 1) / MAX_LOAD));
+            if (capacity * MAX_LOAD < size) {
+                capacity <<= 1;
+            }
+            Table table = new Table(capacity, Arrays.copyOf(starts, size + 1), Arrays.copyOf(pool, starts[size]));
+            for (int i = 0; i < size; i++) {
+                table.put(hashes[i], i, counts[i]);
+            }
+            return table;
+        }
+    }
+
+    static final class Table {
+
+        private final long[] keys;
+        private final int[] values;
+        // the index of the id of each slot in starts
+        private final int[] entries;
+        private final int[] starts;
+        private final byte[] pool;
+        private final int mask;
+        private int size;
+
+        Table(int capacity, int[] starts, byte[] pool) {
+            keys = new long[capacity];
+            values = new int[capacity];
+            entries = new int[capacity];
+            mask = capacity - 1;
+            this.starts = starts;
+            this.pool = pool;
+        }
+
+        void put(long key, int entry, int value) {
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key && sameId(entries[slot], pool, starts[entry], starts[entry + 1] - starts[entry])) {
+                    values[slot] = Math.max(values[slot], value);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            entries[slot] = entry;
+            size++;
+        }
+
+        int get(long key, String id) {
+            int slot = (int) key & mask;
+            byte[] bytes = null;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    if (bytes == null) {
+                        bytes = id.getBytes(StandardCharsets.UTF_8);
+                    }
+                    if (sameId(entries[slot], bytes, 0, bytes.length)) {
+                        return values[slot];
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private boolean sameId(int entry, byte[] id, int offset, int length) {
+            int start = starts[entry];
+            if (starts[entry + 1] - start != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (pool[start + i] != id[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long footprint() {
+            return (long) keys.length * (Long.BYTES + 2 * Integer.BYTES) + (long) starts.length * Integer.BYTES + pool.length;
+        }
+    }
+}
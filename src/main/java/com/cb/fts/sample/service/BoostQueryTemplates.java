@@ -0,0 +1,265 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.queries.AbstractFtsQuery;
+import com.couchbase.client.java.search.queries.BooleanFieldQuery;
+import com.couchbase.client.java.search.queries.DisjunctionQuery;
+import com.couchbase.client.java.search.queries.NumericRangeQuery;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The static boost clauses only depend on the current year, so they are built and exported
+ * to JSON once and spliced into every request as {@link PrecompiledQuery} instances.
+ * They are rebuilt when the year changes or when {@link #reload()} is called.
+ *
+ * The five boost disjunctions (20 clauses) can be replaced by {@link #boostStaticRank()}, a single
+ * disjunction on the staticRank field that {@link StaticRankJob} computes with {@link #staticRank}.
+ */
+@Component
+public class BoostQueryTemplates {
+
+    public static final String STATIC_RANK_FIELD = "staticRank";
+
+    private static final int STATIC_RANK_RANGES = 8;
+
+    private volatile Templates templates;
+
+    public AbstractFtsQuery boostReleaseYearQuery() {
+        return current().releaseYear;
+    }
+
+    public AbstractFtsQuery boostPopularity() {
+        return current().popularity;
+    }
+
+    public AbstractFtsQuery boostRuntime() {
+        return current().runtime;
+    }
+
+    public AbstractFtsQuery boostWeightedRating() {
+        return current().weightedRating;
+    }
+
+    public AbstractFtsQuery boostPromoted() {
+        return current().promoted;
+    }
+
+    public AbstractFtsQuery boostStaticRank() {
+        return current().staticRank;
+    }
+
+    public void reload() {
+        templates = new Templates(LocalDate.now().getYear());
+    }
+
+    private Templates current() {
+        int year = LocalDate.now().getYear();
+        Templates current = templates;
+        if (current == null || current.year != year) {
+            current = new Templates(year);
+            templates = current;
+        }
+        return current;
+    }
+
+    private static final class Templates {
+
+        private final int year;
+        private final PrecompiledQuery releaseYear;
+        private final PrecompiledQuery popularity;
+        private final PrecompiledQuery runtime;
+        private final PrecompiledQuery weightedRating;
+        private final PrecompiledQuery promoted;
+        private final PrecompiledQuery staticRank;
+
+        Templates(int year) {
+            this.year = year;
+            this.releaseYear = new PrecompiledQuery(buildReleaseYear(year));
+            this.popularity = new PrecompiledQuery(buildPopularity());
+            this.runtime = new PrecompiledQuery(buildRuntime());
+            this.weightedRating = new PrecompiledQuery(buildWeightedRating());
+            this.promoted = new PrecompiledQuery(buildPromoted());
+            this.staticRank = new PrecompiledQuery(buildStaticRank(year));
+        }
+    }
+
+    /**
+     * A query subtree exported once; its JSON is shared read-only by every request that uses it.
+     */
+    public static final class PrecompiledQuery extends AbstractFtsQuery {
+
+        private final JsonObject json;
+
+        public PrecompiledQuery(AbstractFtsQuery query) {
+            JsonObject exported = JsonObject.create();
+            query.injectParamsAndBoost(exported);
+            this.json = exported;
+        }
+
+        @Override
+        protected void injectParams(JsonObject input) {
+            for (String name : json.getNames()) {
+                input.put(name, json.get(name));
+            }
+        }
+    }
+
+    /**
+     * The prior that the boost clauses add to the score of a movie: for every field, the sum of the boosts
+     * of the ranges that contain its value, scaled by the fraction of the ranges matched, as the
+     * disjunctions are scored by FTS. Null values match no range.
+     */
+    public static double staticRank(int year, Number releaseYear, Number popularity, Number runtime,
+                                    Number weightedRating, Boolean promoted) {
+        return score(releaseYearTiers(year), releaseYear)
+                + score(POPULARITY, popularity)
+                + score(RUNTIME, runtime)
+                + score(WEIGHTED_RATING, weightedRating)
+                + (promoted == null ? 0 : (promoted ? PROMOTED_BOOST : NOT_PROMOTED_BOOST) / 2);
+    }
+
+    private static double score(List<Tier> tiers, Number value) {
+        if (value == null) {
+            return 0;
+        }
+        double sum = 0;
+        int matched = 0;
+        for (Tier tier : tiers) {
+            if (tier.contains(value.doubleValue())) {
+                sum += tier.boost;
+                matched++;
+            }
+        }
+        return sum * matched / tiers.size();
+    }
+
+    // min inclusive, max exclusive, as the FTS defaults of the range queries
+    private static final class Tier {
+
+        private final double min;
+        private final double max;
+        private final double boost;
+
+        Tier(double min, double max, double boost) {
+            this.min = min;
+            this.max = max;
+            this.boost = boost;
+        }
+
+        boolean contains(double value) {
+            return value >= min && value < max;
+        }
+    }
+
+    private static final List<Tier> POPULARITY = Arrays.asList(
+            new Tier(40, 1000, 1.25),
+            new Tier(30, 39.9999, 1.20),
+            new Tier(10, 29.9999, 1.10),
+            new Tier(4, 9.9999, 0.90),
+            new Tier(0, 3.9999, 0.80));
+
+    private static final List<Tier> RUNTIME = Arrays.asList(
+            new Tier(360, 5000, 1.25),
+            new Tier(100, 359, 1.17),
+            new Tier(40, 99, 0.90),
+            new Tier(0, 39, 0.75));
+
+    private static final List<Tier> WEIGHTED_RATING = Arrays.asList(
+            new Tier(7, 10, 1.25),
+            new Tier(5, 6.9999, 1.10),
+            new Tier(3, 4.999, 1),
+            new Tier(0, 2.999, 0.75));
+
+    private static final double PROMOTED_BOOST = 1.5;
+    private static final double NOT_PROMOTED_BOOST = 1;
+
+    private static List<Tier> releaseYearTiers(int year) {
+        return Arrays.asList(
+                new Tier(year - 4, year, 1.35),
+                new Tier(year - 10, year - 5, 1.15),
+                new Tier(year - 15, year - 9, 1),
+                new Tier(year - 25, year - 16, 0.92),
+                new Tier(0, year - 25, 0.85));
+    }
+
+    private static DisjunctionQuery buildRanges(String field, List<Tier> tiers) {
+        DisjunctionQuery disjunction = SearchQuery.disjuncts();
+        for (Tier tier : tiers) {
+            NumericRangeQuery rangeQuery = SearchQuery.numericRange().field(field).boost(tier.boost);
+            rangeQuery.max(tier.max);
+            rangeQuery.min(tier.min);
+            disjunction.or(rangeQuery);
+        }
+        return disjunction;
+    }
+
+    private static DisjunctionQuery buildReleaseYear(int year) {
+        return buildRanges("release_year", releaseYearTiers(year));
+    }
+
+    private static DisjunctionQuery buildPopularity() {
+        return buildRanges("popularity", POPULARITY);
+    }
+
+    private static DisjunctionQuery buildRuntime() {
+        return buildRanges("runtime", RUNTIME);
+    }
+
+    private static DisjunctionQuery buildWeightedRating() {
+        return buildRanges("weightedRating", WEIGHTED_RATING);
+    }
+
+    private static DisjunctionQuery buildPromoted() {
+        BooleanFieldQuery promotedQuery = SearchQuery.booleanField(true).field("promoted").boost(PROMOTED_BOOST);
+        BooleanFieldQuery notPromotedQuery = SearchQuery.booleanField(false).field("promoted").boost(NOT_PROMOTED_BOOST);
+        return SearchQuery.disjuncts(promotedQuery, notPromotedQuery);
+    }
+
+    /**
+     * Equal-width ranges between the lowest and the highest static rank of a movie with every field set;
+     * the first and last ranges are open. A single range matches, so its boost is scaled by the number
+     * of ranges to give the score of the midpoint, as {@link #staticRank} does for the clauses it replaces.
+     */
+    private static DisjunctionQuery buildStaticRank(int year) {
+        List<Tier> releaseYear = releaseYearTiers(year);
+        double min = rank(releaseYear, false) + rank(POPULARITY, false) + rank(RUNTIME, false)
+                + rank(WEIGHTED_RATING, false) + NOT_PROMOTED_BOOST / 2;
+        double max = rank(releaseYear, true) + rank(POPULARITY, true) + rank(RUNTIME, true)
+                + rank(WEIGHTED_RATING, true) + PROMOTED_BOOST / 2;
+        double width = (max - min) / STATIC_RANK_RANGES;
+
+        DisjunctionQuery disjunction = SearchQuery.disjuncts();
+        for (int i = 0; i < STATIC_RANK_RANGES; i++) {
+            NumericRangeQuery rangeQuery = SearchQuery.numericRange().field(STATIC_RANK_FIELD)
+                    .boost((min + (i + 0.5) * width) * STATIC_RANK_RANGES);
+            if (i > 0) {
+                rangeQuery.min(min + i * width);
+            }
+            if (i < STATIC_RANK_RANGES - 1) {
+                rangeQuery.max(min + (i + 1) * width);
+            }
+            disjunction.or(rangeQuery);
+        }
+        return disjunction;
+    }
+
+    /**
+     * The highest or lowest score of a value within the ranges, looking at the bounds of every range
+     * since they may overlap.
+     */
+    private static double rank(List<Tier> tiers, boolean highest) {
+        double rank = highest ? 0 : Double.MAX_VALUE;
+        for (Tier tier : tiers) {
+            for (double value : new double[]{tier.min, Math.nextDown(tier.max)}) {
+                double score = score(tiers, value);
+                rank = highest ? Math.max(rank, score) : Math.min(rank, score);
+            }
+        }
+        return rank;
+    }
+}
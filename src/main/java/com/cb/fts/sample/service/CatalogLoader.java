@@ -0,0 +1,349 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.LoadStatus;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.core.BackpressureException;
+import com.couchbase.client.core.RequestCancelledException;
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.error.TemporaryFailureException;
+import com.couchbase.client.java.util.retry.RetryBuilder;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Bulk loader of the movie catalog: a JSON array or newline-delimited JSON dump of movie documents
+ * (the shape of document-example.json), optionally gzipped, is upserted with its derived fields.
+ *
+ * The dump is parsed one document at a time, so memory only holds the batches in flight.
+ * Derived fields are computed and the documents serialized in batches of couchflix.loader.batch-size
+ * on the computation scheduler, at most couchflix.loader.parallelism batches at once. Batches are kept
+ * small because parsed documents are large object graphs: they should die in the young generation,
+ * only the serialized JSON waits for its upsert. Upserts go through the async bucket with at most
+ * couchflix.loader.max-in-flight outstanding requests, and temporary failures, backpressure and
+ * timeouts are retried with an exponential delay.
+ * Dumps are read from couchflix.loader.import-dir only. A single load runs at a time, its progress is read with {@link #status()}.
+ */
+@Component
+public class CatalogLoader {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogLoader.class);
+
+    private static final TypeReference<Map<String, Object>> DOCUMENT = new TypeReference<Map<String, Object>>() {};
+
+    // the cast members without a billing order come last
+    private static final Comparator<Object> BILLING_ORDER = Comparator.comparingDouble(actor -> {
+        Object order = actor instanceof Map ? ((Map<?, ?>) actor).get("order") : null;
+        return order instanceof Number ? ((Number) order).doubleValue() : Double.MAX_VALUE;
+    });
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Value("${couchflix.loader.import-dir:data}")
+    private String importDir;
+
+    @Value("${couchflix.loader.batch-size:100}")
+    private int batchSize;
+
+    @Value("${couchflix.loader.parallelism:4}")
+    private int parallelism;
+
+    @Value("${couchflix.loader.max-in-flight:256}")
+    private int maxInFlight;
+
+    @Value("${couchflix.loader.timeout-ms:2500}")
+    private long timeoutMs;
+
+    @Value("${couchflix.loader.retries:5}")
+    private int retries;
+
+    @Value("${couchflix.loader.cast-adjusted-size:5}")
+    private int castAdjustedSize;
+
+    @Value("${couchflix.loader.progress-every:50000}")
+    private long progressEvery;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicReference<Load> current = new AtomicReference<>();
+
+    /**
+     * Starts loading the file in the background.
+     *
+     * @param path the dump, relative to couchflix.loader.import-dir
+     * @throws IllegalArgumentException if the path leads out of the import directory
+     * @throws IllegalStateException    if a load is already running
+     */
+    public LoadStatus start(String path) {
+        Path file = resolve(path);
+        Load load = new Load(file.toString());
+        Load previous = current.get();
+        if ((previous != null && previous.running) || !current.compareAndSet(previous, load)) {
+            throw new IllegalStateException("A catalog load is already running");
+        }
+
+        InputStream input;
+        try {
+            input = new FileInputStream(file.toFile());
+            if (file.toString().endsWith(".gz")) {
+                input = new GZIPInputStream(input, 1 << 16);
+            }
+        } catch (IOException e) {
+            load.finish(e);
+            throw new UncheckedIOException(e);
+        }
+        InputStream source = input;
+        load(source, load)
+                .doOnTerminate(() -> close(source))
+                .subscribeOn(Schedulers.io())
+                .subscribe(count -> {}, load::finish, () -> load.finish(null));
+        return load.status();
+    }
+
+    Path resolve(String path) {
+        Path root = Paths.get(importDir).toAbsolutePath().normalize();
+        Path file = root.resolve(path).normalize();
+        boolean inside = file.startsWith(root);
+        try {
+            // symbolic links must not lead out of the directory either
+            inside = inside && (!Files.exists(file) || file.toRealPath().startsWith(root.toRealPath()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!inside) {
+            throw new IllegalArgumentException("The catalog dump must be in " + root + ": " + path);
+        }
+        return file;
+    }
+
+    /**
+     * The progress of the running load, or the outcome of the last one; null if nothing was loaded yet.
+     */
+    public LoadStatus status() {
+        Load load = current.get();
+        return load != null ? load.status() : null;
+    }
+
+    /**
+     * Derived fields of the movie documents: the FTS type field, release_year, weightedRating,
+     * staticRank and castAdjusted, the top-billed part of the cast by its "order".
+     */
+    public Map<String, Object> derive(Map<String, Object> movie) {
+        movie.put("_class", Movie.class.getName());
+
+        Object releaseDate = movie.get("release_date");
+        if (releaseDate instanceof String && ((String) releaseDate).length() >= 4) {
+            try {
+                movie.put("release_year", Integer.parseInt(((String) releaseDate).substring(0, 4)));
+            } catch (NumberFormatException e) {
+                movie.remove("release_year");
+            }
+        }
+
+        Object voteAverage = movie.get("vote_average");
+        Object voteCount = movie.get("vote_count");
+        if (voteAverage instanceof Number && voteCount instanceof Number) {
+            movie.put("weightedRating", ScoreCalc.weightedRating(((Number) voteAverage).doubleValue(),
+                    ((Number) voteCount).longValue()));
+        }
+
+        Object promoted = movie.get("promoted");
+        movie.put(BoostQueryTemplates.STATIC_RANK_FIELD, BoostQueryTemplates.staticRank(LocalDate.now().getYear(),
+                number(movie.get("release_year")), number(movie.get("popularity")), number(movie.get("runtime")),
+                number(movie.get("weightedRating")), promoted instanceof Boolean ? (Boolean) promoted : null));
+
+        Object cast = movie.get("cast");
+        if (cast instanceof List) {
+            List<Object> billed = new ArrayList<>((List<?>) cast);
+            billed.sort(BILLING_ORDER);
+            movie.put("castAdjusted", new ArrayList<>(billed.subList(0, Math.min(castAdjustedSize, billed.size()))));
+        }
+        return movie;
+    }
+
+    private static Number number(Object value) {
+        return value instanceof Number ? (Number) value : null;
+    }
+
+    private Observable<Long> load(InputStream input, Load load) {
+        AsyncBucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket().async();
+        return Observable.from(() -> new DocumentIterator(input))
+                .doOnNext(movie -> load.read.incrementAndGet())
+                .buffer(batchSize)
+                .flatMap(batch -> Observable.fromCallable(() -> toDocuments(batch, load))
+                        .subscribeOn(Schedulers.computation()), parallelism)
+                .flatMapIterable(documents -> documents)
+                .flatMap(document -> upsert(bucket, document)
+                        .doOnNext(upserted -> load.loaded(progressEvery))
+                        .onErrorResumeNext(e -> {
+                            load.failed.incrementAndGet();
+                            log.warn("Could not load movie {}: {}", document.id(), e.toString());
+                            return Observable.empty();
+                        }), maxInFlight)
+                .count()
+                .map(Integer::longValue);
+    }
+
+    private List<RawJsonDocument> toDocuments(List<Map<String, Object>> batch, Load load) throws JsonProcessingException {
+        List<RawJsonDocument> documents = new ArrayList<>(batch.size());
+        for (Map<String, Object> movie : batch) {
+            // the key is not part of the stored document, as with Spring Data
+            Object id = movie.remove("id");
+            if (id == null) {
+                load.skipped.incrementAndGet();
+                continue;
+            }
+            documents.add(RawJsonDocument.create(id.toString(), objectMapper.writeValueAsString(derive(movie))));
+        }
+        return documents;
+    }
+
+    private Observable<RawJsonDocument> upsert(AsyncBucket bucket, RawJsonDocument document) {
+        return Observable.defer(() -> bucket.upsert(document))
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .retryWhen(RetryBuilder
+                        .anyMatches(CatalogLoader::isRetryable)
+                        .delay(Delay.exponential(TimeUnit.MILLISECONDS, 1000, 10))
+                        .max(retries)
+                        .build());
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        return e instanceof TemporaryFailureException || e instanceof BackpressureException
+                || e instanceof RequestCancelledException || e instanceof TimeoutException;
+    }
+
+    private static void close(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            log.warn("Could not close the catalog dump", e);
+        }
+    }
+
+    /**
+     * Reads the documents of a JSON array, or of a sequence of root-level objects such as NDJSON.
+     */
+    private final class DocumentIterator implements Iterator<Map<String, Object>> {
+
+        private final JsonParser parser;
+        private Map<String, Object> next;
+
+        DocumentIterator(InputStream input) {
+            try {
+                parser = objectMapper.getFactory().createParser(input);
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_ARRAY) {
+                    token = parser.nextToken();
+                }
+                next = read(token);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map<String, Object> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map<String, Object> movie = next;
+            try {
+                next = read(parser.nextToken());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return movie;
+        }
+
+        private Map<String, Object> read(JsonToken token) throws IOException {
+            return token == JsonToken.START_OBJECT ? parser.readValueAs(DOCUMENT) : null;
+        }
+    }
+
+    private static final class Load {
+
+        private final String source;
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong loaded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean running = true;
+        private volatile long endNanos;
+        private volatile String error;
+
+        Load(String source) {
+            this.source = source;
+        }
+
+        void loaded(long progressEvery) {
+            long count = loaded.incrementAndGet();
+            if (progressEvery > 0 && count % progressEvery == 0) {
+                log.info("Catalog load: {} movies, {} docs/s", count, (long) docsPerSecond(System.nanoTime()));
+            }
+        }
+
+        void finish(Throwable e) {
+            endNanos = System.nanoTime();
+            running = false;
+            if (e != null) {
+                error = e.toString();
+                log.warn("Catalog load of {} failed after {} movies", source, loaded.get(), e);
+            } else {
+                log.info("Catalog load of {} finished: {} movies loaded, {} failed, {} skipped, {} docs/s",
+                        source, loaded.get(), failed.get(), skipped.get(), (long) docsPerSecond(endNanos));
+            }
+        }
+
+        LoadStatus status() {
+            long now = running ? System.nanoTime() : endNanos;
+            return new LoadStatus(source, running, startedAt, TimeUnit.NANOSECONDS.toMillis(now - startNanos),
+                    read.get(), skipped.get(), loaded.get(), failed.get(), docsPerSecond(now), error);
+        }
+
+        private double docsPerSecond(long now) {
+            long elapsed = now - startNanos;
+            return elapsed > 0 ? loaded.get() * 1e9 / elapsed : 0;
+        }
+    }
+}
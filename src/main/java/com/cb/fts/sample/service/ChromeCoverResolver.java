@@ -0,0 +1,126 @@
+package com.cb.fts.sample.service;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Resolves covers with a Google image search in a bounded pool of reusable headless Chrome sessions.
+ *
+ * Install chrome driver with:
+ * brew cask install chromedriver
+ */
+@Component
+@ConditionalOnProperty(name = "couchflix.cover.resolver", havingValue = "chrome", matchIfMissing = true)
+public class ChromeCoverResolver implements CoverResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(ChromeCoverResolver.class);
+
+    private static final String prefix = "https://www.google.com/imgres?imgurl=";
+
+    @Value("${couchflix.cover.chrome-driver-path:/usr/local/bin/chromedriver}")
+    private String chromeDriverPath;
+
+    @Value("${couchflix.cover.implicit-wait-ms:7000}")
+    private long implicitWaitMs;
+
+    @Value("${couchflix.cover.acquire-timeout-ms:10000}")
+    private long acquireTimeoutMs;
+
+    private final Semaphore sessions;
+    private final ConcurrentLinkedQueue<WebDriver> idle = new ConcurrentLinkedQueue<>();
+
+    public ChromeCoverResolver(@Value("${couchflix.cover.pool-size:2}") int poolSize) {
+        this.sessions = new Semaphore(poolSize);
+    }
+
+    @Override
+    public String resolve(String movieName) throws Exception {
+        if (!sessions.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("No browser session available");
+        }
+        WebDriver driver = null;
+        boolean healthy = false;
+        try {
+            driver = idle.poll();
+            if (driver == null) {
+                driver = createDriver();
+            }
+            String url = search(driver, movieName);
+            healthy = true;
+            return url;
+        } finally {
+            if (driver != null) {
+                if (healthy) {
+                    idle.offer(driver);
+                } else {
+                    quit(driver);
+                }
+            }
+            sessions.release();
+        }
+    }
+
+    private String search(WebDriver driver, String movieName) throws Exception {
+        String words = String.join(",", movieName.trim().split(" +"));
+        driver.get("https://www.google.com/search?hl=en&tbm=isch&q=" + words + "+movie&oq=star");
+
+        List<WebElement> elements = driver.findElements(By.tagName("a"));
+
+        for (WebElement element : elements) {
+
+            String href = element.getAttribute("href");
+            if (href != null && href.startsWith(prefix)) {
+                String url = URLDecoder.decode(href.replace(prefix, ""), "UTF-8");
+
+                if (url.indexOf("&imgrefurl")!= -1) {
+                    url = url.substring(0, url.indexOf("&imgrefurl"));
+                }
+                return url;
+            }
+        }
+        return null;
+    }
+
+    private WebDriver createDriver() {
+        ChromeOptions options = new ChromeOptions();
+        // setting headless mode to true.. so there isn't any ui
+        options.setHeadless(true);
+
+        System.setProperty("webdriver.chrome.driver", chromeDriverPath);
+        WebDriver driver = new ChromeDriver(options);
+        driver.manage().timeouts().implicitlyWait(implicitWaitMs, TimeUnit.MILLISECONDS);
+        return driver;
+    }
+
+    private static void quit(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            log.warn("Could not quit the browser session", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        WebDriver driver;
+        while ((driver = idle.poll()) != null) {
+            quit(driver);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.cb.fts.sample.service;
+
+/**
+ * Finds the URL of a cover image for a movie title.
+ */
+public interface CoverResolver {
+
+    /**
+     * @return the image URL, or null when no image was found
+     */
+    String resolve(String movieName) throws Exception;
+}
@@ -0,0 +1,122 @@
+package com.cb.fts.sample.service;
+
+/**
+ * A decay curve over a numeric field, as the decay functions of Elasticsearch: 1 within offset of
+ * the origin, then falling to decay at offset + scale from it.
+ *
+ * Specified as "&lt;gauss|exp|linear&gt; origin=.. scale=.. offset=.. decay=.. weight=.. side=..",
+ * where origin "now" is the year given to {@link #parse(String, int)}, side "below" or "above" only decays the values on that
+ * side of the origin, and weight is the share of the score the curve may take away.
+ */
+public final class DecayFunction {
+
+    public enum Shape {
+        GAUSS, EXP, LINEAR
+    }
+
+    public enum Side {
+        BOTH, BELOW, ABOVE
+    }
+
+    private final Shape shape;
+    private final double origin;
+    private final double offset;
+    private final double weight;
+    private final Side side;
+    // precomputed from scale and decay
+    private final double factor;
+
+    public DecayFunction(Shape shape, double origin, double scale, double offset, double decay, double weight, Side side) {
+        if (scale <= 0 || decay <= 0 || decay >= 1) {
+            throw new IllegalArgumentException("A decay function needs a positive scale and a decay in (0, 1)");
+        }
+        this.shape = shape;
+        this.origin = origin;
+        this.offset = offset;
+        this.weight = Math.max(0, Math.min(1, weight));
+        this.side = side;
+        switch (shape) {
+            case GAUSS:
+                // -1 / (2 sigma²)
+                this.factor = Math.log(decay) / (scale * scale);
+                break;
+            case EXP:
+                this.factor = Math.log(decay) / scale;
+                break;
+            default:
+                this.factor = scale / (1 - decay);
+        }
+    }
+
+    /**
+     * @param year the origin "now"
+     */
+    public static DecayFunction parse(String spec, int year) {
+        String[] tokens = spec.trim().split("\\s+");
+        Shape shape = Shape.valueOf(tokens[0].toUpperCase());
+        double origin = 0;
+        double scale = 1;
+        double offset = 0;
+        double decay = 0.5;
+        double weight = 1;
+        Side side = Side.BOTH;
+        for (int i = 1; i < tokens.length; i++) {
+            String[] pair = tokens[i].split("=", 2);
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected name=value in the decay function \"" + spec + "\"");
+            }
+            switch (pair[0]) {
+                case "origin":
+                    origin = "now".equals(pair[1]) ? year : Double.parseDouble(pair[1]);
+                    break;
+                case "scale":
+                    scale = Double.parseDouble(pair[1]);
+                    break;
+                case "offset":
+                    offset = Double.parseDouble(pair[1]);
+                    break;
+                case "decay":
+                    decay = Double.parseDouble(pair[1]);
+                    break;
+                case "weight":
+                    weight = Double.parseDouble(pair[1]);
+                    break;
+                case "side":
+                    side = Side.valueOf(pair[1].toUpperCase());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter " + pair[0] + " in the decay function \"" + spec + "\"");
+            }
+        }
+        return new DecayFunction(shape, origin, scale, offset, decay, weight, side);
+    }
+
+    /**
+     * The decay of the value, between 0 and 1; NaN (a missing value) decays fully.
+     */
+    public double decay(double value) {
+        if (Double.isNaN(value)) {
+            return 0;
+        }
+        double delta = value - origin;
+        if ((side == Side.BELOW && delta > 0) || (side == Side.ABOVE && delta < 0)) {
+            return 1;
+        }
+        double distance = Math.max(0, Math.abs(delta) - offset);
+        switch (shape) {
+            case GAUSS:
+                return Math.exp(factor * distance * distance);
+            case EXP:
+                return Math.exp(factor * distance);
+            default:
+                return Math.max(0, (factor - distance) / factor);
+        }
+    }
+
+    /**
+     * The multiplier of the score: 1 at the origin, 1 - weight when fully decayed.
+     */
+    public double multiplier(double value) {
+        return 1 - weight + weight * decay(value);
+    }
+}
@@ -1,42 +1,226 @@
 package com.cb.fts.sample.service;
 
-import lombok.Data;
+import lombok.Getter;
 import lombok.ToString;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
-@ToString
-@Data
+/**
+ * The query is normalized and tokenized once; recognized entities are removed from the
+ * remaining words by masking their tokens, without rewriting any string. Tokens are separated by
+ * spaces and punctuation ("sci-fi/horror" is "sci-fi" and "horror"); hyphens, apostrophes and dots
+ * inside a word are kept, so "jean-pierre" stays one token of a name.
+ *
+ * The parser {@link #freeze() freezes} an instance before it is cached and shared by concurrent
+ * requests: its entities can no longer change, and modifying it throws IllegalStateException.
+ */
+@ToString(of = {"originalQuery", "entities"})
+@Getter
 public class EntityExtractor {
 
+    private final String originalQuery;
+    @Getter(lombok.AccessLevel.NONE)
+    private final String[] tokens;
+    @Getter(lombok.AccessLevel.NONE)
+    private final int[] tokenStarts;
+    private Map<EntityType, List<String>> entities = new EnumMap<>(EntityType.class);
+
+    @Getter(lombok.AccessLevel.NONE)
+    private final boolean[] removed;
+    @Getter(lombok.AccessLevel.NONE)
     private String words;
-    private String originalQuery;
-    private Map<EntityType, ArrayList<String>> entities = new HashMap<>();
+    @Getter(lombok.AccessLevel.NONE)
+    private boolean frozen;
+    // the words were checked against the spelling dictionaries, so they need no fuzzy matching
+    private boolean spellChecked;
 
     public EntityExtractor(String words) {
 
-        words =  words.replaceAll(" +", " ");
-        this.words = words.toLowerCase().trim();
-        this.originalQuery = words.toLowerCase().trim();
+        this.originalQuery = normalize(words);
+
+        List<Integer> startList = new ArrayList<>();
+        List<String> tokenList = tokenize(originalQuery, startList);
+        this.tokens = tokenList.toArray(new String[0]);
+        this.tokenStarts = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokenStarts[i] = startList.get(i);
+        }
+        this.removed = new boolean[tokens.length];
+        this.words = originalQuery;
+    }
+
+    private static List<String> tokenize(String text, List<Integer> starts) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || isSeparator(text, i)) {
+                if (start >= 0) {
+                    tokens.add(text.substring(start, i));
+                    if (starts != null) {
+                        starts.add(start);
+                    }
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isSeparator(String text, int i) {
+        char c = text.charAt(i);
+        if (Character.isLetterOrDigit(c)) {
+            return false;
+        }
+        boolean joiner = c == '-' || c == '\'' || c == '.';
+        return !joiner || i == 0 || i == text.length() - 1
+                || !Character.isLetterOrDigit(text.charAt(i - 1)) || !Character.isLetterOrDigit(text.charAt(i + 1));
+    }
+
+    /**
+     * Makes the entities read-only, before the instance is shared.
+     */
+    public EntityExtractor freeze() {
+        if (!frozen) {
+            Map<EntityType, List<String>> copy = new EnumMap<>(EntityType.class);
+            for (Map.Entry<EntityType, List<String>> entry : entities.entrySet()) {
+                copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            }
+            entities = Collections.unmodifiableMap(copy);
+            frozen = true;
+        }
+        return this;
+    }
+
+    public String[] getTokens() {
+        return tokens.clone();
     }
 
-    public void addEntity(EntityType type, String text ){
+    public int getTokenCount() {
+        return tokens.length;
+    }
 
-        Pattern p = Pattern.compile("\\b" + text.toLowerCase() + "\\b");//replace ignores case
-        this.words = p.matcher(words).replaceAll("");
+    public String getToken(int index) {
+        return tokens[index];
+    }
 
-        if(entities.get(type) == null) {
-            entities.put(type, new ArrayList<>(Arrays.asList(text)));
-        } else {
+    public int getTokenStart(int index) {
+        return tokenStarts[index];
+    }
+
+    /**
+     * Lowercase, trimmed and with every run of whitespace collapsed into a single space.
+     */
+    public static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The tokens that were not recognized as an entity, joined by single spaces.
+     */
+    public String getWords() {
+        return words;
+    }
+
+    public boolean isRemoved(int token) {
+        return removed[token];
+    }
+
+    /**
+     * Records the entity and removes every whole-token occurrence of it from the words.
+     */
+    public void addEntity(EntityType type, String text) {
+        checkMutable();
+        String[] entityTokens = tokenize(normalize(text), null).toArray(new String[0]);
+        if (entityTokens.length == 0) {
+            return;
+        }
+        for (int i = 0; i + entityTokens.length <= tokens.length; i++) {
+            if (matches(entityTokens, i)) {
+                mask(i, i + entityTokens.length);
+            }
+        }
+        entities.computeIfAbsent(type, k -> new ArrayList<>()).add(text);
+    }
+
+    /**
+     * Records the entity found at tokens [from, to) and removes only those tokens from the words.
+     */
+    public void addEntity(EntityType type, String text, int from, int to) {
+        checkMutable();
+        mask(from, to);
+        entities.computeIfAbsent(type, k -> new ArrayList<>()).add(text);
+    }
+
+    /**
+     * Records an entity without removing it from the words that are matched against the text fields.
+     */
+    public void tagEntity(EntityType type, String text) {
+        checkMutable();
+        entities.computeIfAbsent(type, k -> new ArrayList<>());
+        if (!entities.get(type).contains(text)) {
             entities.get(type).add(text);
         }
     }
 
+    public void spellChecked() {
+        checkMutable();
+        spellChecked = true;
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("The parse result of \"" + originalQuery + "\" is shared and read-only");
+        }
+    }
+
+    private boolean matches(String[] entityTokens, int from) {
+        for (int j = 0; j < entityTokens.length; j++) {
+            if (!tokens[from + j].equals(entityTokens[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mask(int from, int to) {
+        for (int i = from; i < to; i++) {
+            removed[i] = true;
+        }
+        StringBuilder remaining = new StringBuilder(originalQuery.length());
+        for (int i = 0; i < tokens.length; i++) {
+            if (!removed[i]) {
+                if (remaining.length() > 0) {
+                    remaining.append(' ');
+                }
+                remaining.append(tokens[i]);
+            }
+        }
+        words = remaining.toString();
+    }
+
     public enum EntityType {
         PERSON,
         ORGANIZATION,
-        GENRES
+        GENRES,
+        COLLECTION,
+        LANGUAGE,
+        COUNTRY
     }
 
 }
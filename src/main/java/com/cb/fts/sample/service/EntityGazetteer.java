@@ -0,0 +1,99 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.*;
+
+/**
+ * Entity vocabularies of the query parser: the fixed genre list plus the collection names,
+ * spoken languages and production countries found in the dataset, compiled into a single {@link Gazetteer}.
+ */
+@Component
+public class EntityGazetteer {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityGazetteer.class);
+
+    public static final List<String> GENRE_NAMES = Arrays.asList("comedy", "crime", "drama"
+            , "science fiction", "romance", "horror", "thriller", "action"
+            , "adventure", "fantasy", "mystery", "animation", "family", "foreign"
+            , "documentary", "music", "history", "western", "tv movie");
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    private volatile Gazetteer gazetteer = Gazetteer.build(genres());
+
+    public List<Gazetteer.Match> findLongest(String lowercaseText) {
+        return gazetteer.findLongest(lowercaseText);
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.gazetteer.initial-delay-ms:0}",
+            fixedDelayString = "${couchflix.gazetteer.refresh-ms:3600000}")
+    public void refresh() {
+        try {
+            long start = System.currentTimeMillis();
+            Bucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket();
+            String from = " FROM `" + bucket.name() + "` m ";
+            String where = " WHERE m._class = '" + Movie.class.getName() + "' AND ";
+
+            Map<String, List<EntityExtractor.EntityType>> vocabulary = genres();
+            load(bucket, "SELECT DISTINCT LOWER(m.collection.name) AS name" + from
+                    + where + "m.collection.name IS VALUED", COLLECTION, vocabulary);
+            load(bucket, "SELECT DISTINCT LOWER(l.name) AS name" + from + "UNNEST m.spoken_languages l"
+                    + where + "l.name IS VALUED", LANGUAGE, vocabulary);
+            load(bucket, "SELECT DISTINCT LOWER(c.name) AS name" + from + "UNNEST m.production_countries c"
+                    + where + "c.name IS VALUED", COUNTRY, vocabulary);
+
+            Gazetteer loaded = Gazetteer.build(vocabulary);
+            gazetteer = loaded;
+            log.info("Entity gazetteer loaded: {} terms in {} ms", loaded.size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not load the entity vocabularies, keeping the previous gazetteer", e);
+        }
+    }
+
+    private static void load(Bucket bucket, String statement, EntityExtractor.EntityType type,
+                             Map<String, List<EntityExtractor.EntityType>> vocabulary) {
+        bucket.async()
+                .query(N1qlQuery.simple(statement))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .toBlocking()
+                .forEach(row -> {
+                    String name = row.value().getString("name");
+                    if (name != null && !name.trim().isEmpty()) {
+                        add(vocabulary, name.trim(), type);
+                    }
+                });
+    }
+
+    private static Map<String, List<EntityExtractor.EntityType>> genres() {
+        Map<String, List<EntityExtractor.EntityType>> vocabulary = new HashMap<>();
+        for (String genre : GENRE_NAMES) {
+            add(vocabulary, genre, GENRES);
+        }
+        return vocabulary;
+    }
+
+    private static void add(Map<String, List<EntityExtractor.EntityType>> vocabulary, String term,
+                            EntityExtractor.EntityType type) {
+        List<EntityExtractor.EntityType> types = vocabulary.computeIfAbsent(term, k -> new ArrayList<>(1));
+        if (!types.contains(type)) {
+            types.add(type);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.CacheStatistics;
+import com.cb.fts.sample.entities.vo.Facet;
+import com.cb.fts.sample.entities.vo.FacetItem;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.facet.NumericRangeFacet;
+import com.couchbase.client.java.search.facet.SearchFacet;
+import com.couchbase.client.java.search.queries.AbstractFtsQuery;
+import com.couchbase.client.java.search.queries.NumericRangeQuery;
+import com.couchbase.client.java.search.result.facets.FacetResult;
+import com.couchbase.client.java.search.result.facets.NumericRange;
+import com.couchbase.client.java.search.result.facets.NumericRangeFacetResult;
+import com.couchbase.client.java.search.result.facets.TermFacetResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Drill-down facets of the search page. They are counted by a separate unscored query
+ * (no boosts, no highlighting, no hits) that runs next to the ranking query, and are cached
+ * per phrase and canonical filter set since they change far less often than the ranking.
+ */
+@Component
+public class FacetService {
+
+    public static final String GENRES = "genres";
+    public static final String COLLECTION = "collection";
+    public static final String LANGUAGE = "language";
+    public static final String YEAR = "year";
+
+    // keyword fields of the movies_shingle index, so multi-word values are counted as a whole
+    public static final String GENRES_FIELD = "genres.name_keyword";
+    public static final String COLLECTION_FIELD = "collection.name_keyword";
+    public static final String LANGUAGE_FIELD = "original_language";
+    public static final String YEAR_FIELD = "release_year";
+
+    private static final List<YearRange> YEAR_RANGES = Arrays.asList(
+            new YearRange("before 1960", null, 1960d),
+            new YearRange("1960s", 1960d, 1970d),
+            new YearRange("1970s", 1970d, 1980d),
+            new YearRange("1980s", 1980d, 1990d),
+            new YearRange("1990s", 1990d, 2000d),
+            new YearRange("2000s", 2000d, 2010d),
+            new YearRange("2010s", 2010d, 2020d),
+            new YearRange("2020s", 2020d, null));
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Value("${couchflix.facets.size:10}")
+    private int facetSize;
+
+    @Value("${couchflix.facets.cache.ttl-ms:600000}")
+    private long cacheTtlMs;
+
+    @Value("${couchflix.facets.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    private Cache<String, List<Facet>> facets;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        facets = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, facets, "facets");
+    }
+
+    /**
+     * @param key   {@link SearchResultCache#key(String, Map)} of the search
+     * @param match the text query and filters of the search, without boosts
+     */
+    public Observable<List<Facet>> facets(String indexName, String key, AbstractFtsQuery match) {
+        List<Facet> cached = facets.getIfPresent(key);
+        if (cached != null) {
+            return Observable.just(cached);
+        }
+
+        return facets(key, movieRepository.getCouchbaseOperations().getCouchbaseBucket().async()
+                .query(buildQuery(indexName, match))
+                .flatMap(result -> result.facets().toMap(FacetResult::name)));
+    }
+
+    /**
+     * Caches the facets counted by another engine, e.g. the {@link InMemorySearchIndex}.
+     *
+     * @param counted the facet results of {@link #buildQuery}
+     */
+    public Observable<List<Facet>> facets(String key, Observable<Map<String, FacetResult>> counted) {
+        List<Facet> cached = facets.getIfPresent(key);
+        if (cached != null) {
+            return Observable.just(cached);
+        }
+        return counted
+                .map(FacetService::toFacets)
+                .doOnNext(value -> facets.put(key, value));
+    }
+
+    /**
+     * The unscored facet counting query of the match.
+     */
+    public SearchQuery buildQuery(String indexName, AbstractFtsQuery match) {
+        SearchQuery facetQuery = new SearchQuery(indexName, match).limit(0);
+        facetQuery.addFacet(GENRES, SearchFacet.term(GENRES_FIELD, facetSize));
+        facetQuery.addFacet(COLLECTION, SearchFacet.term(COLLECTION_FIELD, facetSize));
+        facetQuery.addFacet(LANGUAGE, SearchFacet.term(LANGUAGE_FIELD, facetSize));
+        NumericRangeFacet years = SearchFacet.numeric(YEAR_FIELD, YEAR_RANGES.size());
+        for (YearRange range : YEAR_RANGES) {
+            years.addRange(range.name, range.min, range.max);
+        }
+        facetQuery.addFacet(YEAR, years);
+        return facetQuery;
+    }
+
+    /**
+     * The release year filter of a "year" facet value, or null if the name is not one of the ranges.
+     */
+    public static NumericRangeQuery yearRange(String name) {
+        for (YearRange range : YEAR_RANGES) {
+            if (range.name.equals(name)) {
+                NumericRangeQuery query = SearchQuery.numericRange().field(YEAR_FIELD);
+                if (range.min != null) {
+                    query.min(range.min, true);
+                }
+                if (range.max != null) {
+                    query.max(range.max, false);
+                }
+                return query;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Term facets and non-empty numeric ranges sorted by their lower bound;
+     * facets of any other kind are ignored.
+     */
+    public static List<Facet> toFacets(Map<String, FacetResult> facetResults) {
+        if (facetResults == null || facetResults.isEmpty()) {
+            return null;
+        }
+        List<Facet> result = new ArrayList<>();
+        for (Map.Entry<String, FacetResult> entry : facetResults.entrySet()) {
+            List<FacetItem> items;
+            if (entry.getValue() instanceof TermFacetResult) {
+                items = ((TermFacetResult) entry.getValue()).terms().stream()
+                        .map(FacetItem::new).collect(Collectors.toList());
+            } else if (entry.getValue() instanceof NumericRangeFacetResult) {
+                items = ((NumericRangeFacetResult) entry.getValue()).numericRanges().stream()
+                        .filter(range -> range.count() > 0)
+                        .sorted(Comparator.comparing(NumericRange::min, Comparator.nullsFirst(Comparator.naturalOrder())))
+                        .map(FacetItem::new).collect(Collectors.toList());
+            } else {
+                continue;
+            }
+            result.add(new Facet(entry.getKey(), items));
+        }
+        return result;
+    }
+
+    public void invalidateAll() {
+        facets.invalidateAll();
+    }
+
+    public CacheStatistics stats() {
+        return new CacheStatistics("facets", facets.estimatedSize(), facets.stats());
+    }
+
+    private static final class YearRange {
+
+        private final String name;
+        private final Double min;
+        private final Double max;
+
+        YearRange(String name, Double min, Double max) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.cb.fts.sample.service;
+
+/**
+ * When the text clauses of search12 also match with an edit distance of 1, see couchflix.search.fuzziness.
+ */
+public enum FuzzyMode {
+    /** Every text clause is an exact match or a fuzzy one. */
+    ALWAYS,
+    /** The exact matches run first, the fuzzy query only when they find too few hits or a low top score. */
+    ADAPTIVE
+}
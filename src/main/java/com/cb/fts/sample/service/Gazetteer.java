@@ -0,0 +1,216 @@
+package com.cb.fts.sample.service;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over a lowercase vocabulary of entity names.
+ *
+ * All entities of a query are found in one linear pass, so the cost of {@link #findAll(String)}
+ * depends on the length of the query and not on the size of the vocabulary. Transitions are
+ * flattened into sorted primitive arrays once the automaton is built.
+ */
+public final class Gazetteer {
+
+    private static final int NONE = -1;
+
+    // transitions of state s are edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1])
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    // first entry ending in the state and the nearest state on the fail chain that has entries
+    private final int[] entryOf;
+    private final int[] outputLink;
+
+    private final String[] terms;
+    private final EntityExtractor.EntityType[] types;
+    private final int[] nextEntry;
+
+    private Gazetteer(Map<String, List<EntityExtractor.EntityType>> vocabulary) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        List<Integer> stateEntries = new ArrayList<>();
+        stateEntries.add(NONE);
+
+        List<String> termList = new ArrayList<>();
+        List<EntityExtractor.EntityType> typeList = new ArrayList<>();
+        List<Integer> nextList = new ArrayList<>();
+
+        for (Map.Entry<String, List<EntityExtractor.EntityType>> entry : vocabulary.entrySet()) {
+            String term = entry.getKey();
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                Integer next = trie.get(state).get(term.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    stateEntries.add(NONE);
+                    trie.get(state).put(term.charAt(i), next);
+                }
+                state = next;
+            }
+            for (EntityExtractor.EntityType type : entry.getValue()) {
+                termList.add(term);
+                typeList.add(type);
+                nextList.add(stateEntries.get(state));
+                stateEntries.set(state, termList.size() - 1);
+            }
+        }
+
+        int states = trie.size();
+        int edges = 0;
+        edgeStart = new int[states + 1];
+        for (int s = 0; s < states; s++) {
+            edgeStart[s] = edges;
+            edges += trie.get(s).size();
+        }
+        edgeStart[states] = edges;
+        edgeChars = new char[edges];
+        edgeTargets = new int[edges];
+        for (int s = 0; s < states; s++) {
+            int e = edgeStart[s];
+            for (Map.Entry<Character, Integer> edge : trie.get(s).entrySet()) {
+                edgeChars[e] = edge.getKey();
+                edgeTargets[e] = edge.getValue();
+                e++;
+            }
+        }
+
+        entryOf = new int[states];
+        for (int s = 0; s < states; s++) {
+            entryOf[s] = stateEntries.get(s);
+        }
+        terms = termList.toArray(new String[0]);
+        types = typeList.toArray(new EntityExtractor.EntityType[0]);
+        nextEntry = new int[nextList.size()];
+        for (int i = 0; i < nextEntry.length; i++) {
+            nextEntry[i] = nextList.get(i);
+        }
+
+        fail = new int[states];
+        outputLink = new int[states];
+        Arrays.fill(outputLink, NONE);
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int e = edgeStart[0]; e < edgeStart[1]; e++) {
+            queue[tail++] = edgeTargets[e];
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+                int child = edgeTargets[e];
+                int f = fail[state];
+                int target = next(f, edgeChars[e]);
+                while (target == NONE && f != 0) {
+                    f = fail[f];
+                    target = next(f, edgeChars[e]);
+                }
+                fail[child] = target == NONE || target == child ? 0 : target;
+                outputLink[child] = entryOf[fail[child]] != NONE ? fail[child] : outputLink[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * @param vocabulary lowercase terms, the same term may be registered for several entity types
+     */
+    public static Gazetteer build(Map<String, List<EntityExtractor.EntityType>> vocabulary) {
+        return new Gazetteer(vocabulary);
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Every vocabulary entry that occurs in the lowercase text as whole words.
+     */
+    public List<Match> findAll(String text) {
+        List<Match> matches = new ArrayList<>();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int target = next(state, c);
+            while (target == NONE && state != 0) {
+                state = fail[state];
+                target = next(state, c);
+            }
+            state = target == NONE ? 0 : target;
+
+            for (int s = entryOf[state] != NONE ? state : outputLink[state]; s != NONE; s = outputLink[s]) {
+                int end = i + 1;
+                int start = end - terms[entryOf[s]].length();
+                if (isBoundary(text, start - 1) && isBoundary(text, end)) {
+                    for (int entry = entryOf[s]; entry != NONE; entry = nextEntry[entry]) {
+                        matches.add(new Match(start, end, terms[entry], types[entry]));
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The leftmost-longest matches of {@link #findAll(String)}: a match overlapping one that starts before it,
+     * or at the same position and is longer, is dropped, so "science fiction" does not also match "fiction".
+     * The entity types of a kept term are all returned.
+     */
+    public List<Match> findLongest(String text) {
+        List<Match> matches = findAll(text);
+        matches.sort(Comparator.comparingInt(Match::getStart).thenComparingInt(match -> match.start - match.end));
+        List<Match> longest = new ArrayList<>(matches.size());
+        int start = NONE;
+        int end = 0;
+        for (Match match : matches) {
+            if (match.start >= end) {
+                start = match.start;
+                end = match.end;
+                longest.add(match);
+            } else if (match.start == start && match.end == end) {
+                longest.add(match);
+            }
+        }
+        return longest;
+    }
+
+    private int next(int state, char c) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (edgeChars[mid] < c) {
+                low = mid + 1;
+            } else if (edgeChars[mid] > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NONE;
+    }
+
+    private static boolean isBoundary(String text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static final class Match {
+
+        private final int start;
+        private final int end;
+        private final String term;
+        private final EntityExtractor.EntityType type;
+    }
+}
@@ -0,0 +1,19 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.Facet;
+import com.cb.fts.sample.entities.vo.QueryStats;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Ranked hits and facets of one execution of a search, without the movies.
+ */
+@Getter
+@AllArgsConstructor
+public class HitSnapshot {
+
+    private final List<QueryStats> hits;
+    private final List<Facet> facets;
+}
@@ -0,0 +1,84 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.CacheStatistics;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived top-N hit snapshots of paginated searches, keyed like {@link SearchResultCache}.
+ *
+ * The pending future is cached, so concurrent first pages of the same search share one FTS query.
+ * Pages hydrated ahead of time are kept by cursor until the client asks for them.
+ */
+@Component
+public class HitSnapshotCache {
+
+    @Value("${couchflix.pagination.snapshot-ttl-ms:300000}")
+    private long ttlMs;
+
+    @Value("${couchflix.pagination.max-snapshots:1000}")
+    private long maxSnapshots;
+
+    private Cache<String, CompletableFuture<HitSnapshot>> snapshots;
+    private Cache<String, CompletableFuture<Map<String, Movie>>> prefetched;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        snapshots = Caffeine.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSnapshots)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, snapshots, "snapshots");
+        prefetched = Caffeine.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSnapshots)
+                .build();
+    }
+
+    public CompletableFuture<HitSnapshot> get(String key, Supplier<CompletableFuture<HitSnapshot>> search) {
+        CompletableFuture<HitSnapshot> snapshot = snapshots.get(key, k -> search.get());
+        // failed searches are not kept
+        snapshot.whenComplete((value, e) -> {
+            if (e != null) {
+                snapshots.asMap().remove(key, snapshot);
+            }
+        });
+        return snapshot;
+    }
+
+    public void putPrefetched(String cursor, CompletableFuture<Map<String, Movie>> movies) {
+        prefetched.put(cursor, movies);
+    }
+
+    /**
+     * The movies hydrated ahead of time for the cursor, or null; an entry is handed out only once.
+     */
+    public CompletableFuture<Map<String, Movie>> takePrefetched(String cursor) {
+        return prefetched.asMap().remove(cursor);
+    }
+
+    public void invalidateAll() {
+        snapshots.invalidateAll();
+        prefetched.invalidateAll();
+    }
+
+    public CacheStatistics stats() {
+        return new CacheStatistics("snapshots", snapshots.estimatedSize(), snapshots.stats());
+    }
+}
@@ -1,67 +1,166 @@
 package com.cb.fts.sample.service;
 
 import com.cb.fts.sample.entities.vo.CoverVo;
-import org.openqa.selenium.By;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import rx.Emitter;
+import rx.Observable;
 
-import java.net.URLDecoder;
-import java.util.Arrays;
-import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 /**
- * Install chrome driver with:
- * brew cask install chromedriver
+ * Cover URLs are resolved once per movie and stored in the bucket as "cover::&lt;movie name&gt;" documents,
+ * or "cover::#&lt;SHA-256 of the name&gt;" for names longer than 60 characters. Concurrent requests for the
+ * same movie share a single lookup, from the read of the cover document to its resolution, which runs on
+ * a bounded executor instead of the servlet thread.
  */
 @Component
 public class ImageService {
 
-    private static final String prefix = "https://www.google.com/imgres?imgurl=";
-    private static final String chromeDriverPath = "/usr/local/bin/chromedriver";
+    private static final Logger log = LoggerFactory.getLogger(ImageService.class);
 
-    public CoverVo getImg(String words) throws Exception {
+    private static final String DEFAULT_COVER = "default.jpg";
+    private static final String KEY_PREFIX = "cover::";
+    private static final int MAX_NAME_LENGTH = 60;
 
-        words = Arrays.asList(words.split(" ")).stream().collect(Collectors.joining(","));
+    @Autowired
+    private CoverResolver coverResolver;
 
-        try {
-            ChromeOptions options = new ChromeOptions();
-            // setting headless mode to true.. so there isn't any ui
-            options.setHeadless(true);
+    @Autowired
+    private MovieRepository movieRepository;
 
-            System.setProperty("webdriver.chrome.driver", chromeDriverPath);
-            // Create a new instance of the Chrome driver
-            WebDriver driver = new ChromeDriver(options);
-            driver.get("https://www.google.com/search?hl=en&tbm=isch&q=" + words + "+movie&oq=star");
-            driver.manage().timeouts().implicitlyWait(7, TimeUnit.SECONDS);
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
 
-            List<WebElement> elements = driver.findElements(By.tagName("a"));
+    @Value("${couchflix.cover.pool-size:2}")
+    private int poolSize;
 
-            for (WebElement element : elements) {
+    @Value("${couchflix.cover.queue-size:100}")
+    private int queueSize;
 
-                String href = element.getAttribute("href");
-                if (href != null && href.startsWith(prefix)) {
-                    String url = URLDecoder.decode(element.getAttribute("href").replace(prefix, ""), "UTF-8");
+    @Value("${couchflix.cover.expiry-seconds:0}")
+    private int expirySeconds;
 
-                    if (url.indexOf("&imgrefurl")!= -1) {
-                        url = url.substring(0, url.indexOf("&imgrefurl"));
-                    }
+    @Value("${couchflix.cover.not-found-expiry-seconds:86400}")
+    private int notFoundExpirySeconds;
+
+    private final SingleFlight<String, CoverVo> lookups = new SingleFlight<>(() -> pipelineMetrics.coalesced("cover"));
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public CoverVo getImg(String words) throws Exception {
+        return getImgAsync(words).get();
+    }
+
+    public CompletableFuture<CoverVo> getImgAsync(String words) {
+        String key = key(EntityExtractor.normalize(words));
+        long start = System.nanoTime();
+
+        CompletableFuture<CoverVo> cover = new CompletableFuture<>();
+        lookups.execute(key, () -> lookup(key, words, start))
+                .subscribe(cover::complete, e -> {
+                    log.warn("Could not resolve the cover of {}", words, e);
+                    cover.complete(new CoverVo(DEFAULT_COVER));
+                });
+        return cover;
+    }
 
-                    CoverVo coverVo = new CoverVo(url);
-                    driver.close();
-                    return coverVo;
-                }
+    /**
+     * Document keys are limited to 250 bytes, longer names are keyed by their hash.
+     */
+    static String key(String name) {
+        if (name.length() <= MAX_NAME_LENGTH) {
+            return KEY_PREFIX + name;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(KEY_PREFIX.length() + 1 + digest.length * 2).append(KEY_PREFIX).append('#');
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Observable<CoverVo> lookup(String key, String words, long start) {
+        return bucket().async().get(key)
+                .map(doc -> {
+                    pipelineMetrics.cover("cache", start);
+                    return new CoverVo(doc.content().getString("url"));
+                })
+                .onErrorResumeNext(e -> {
+                    log.warn("Could not read the cached cover {}", key, e);
+                    return Observable.empty();
+                })
+                .switchIfEmpty(Observable.defer(() -> resolve(key, words, start)));
+    }
+
+    private Observable<CoverVo> resolve(String key, String words, long start) {
+        return Observable.create(emitter -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        emitter.onNext(resolveAndStore(key, words));
+                        emitter.onCompleted();
+                    } catch (Exception e) {
+                        emitter.onError(e);
+                    } finally {
+                        pipelineMetrics.cover("resolver", start);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the queue is full, answer with the default cover instead of piling up requests
+                pipelineMetrics.cover("rejected", start);
+                emitter.onNext(new CoverVo(DEFAULT_COVER));
+                emitter.onCompleted();
             }
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    private CoverVo resolveAndStore(String key, String words) throws Exception {
+        String url = coverResolver.resolve(words);
+        CoverVo coverVo = new CoverVo(url != null ? url : DEFAULT_COVER);
 
-            return new CoverVo("default.jpg");
+        try {
+            int expiry = url != null ? expirySeconds : notFoundExpirySeconds;
+            bucket().upsert(JsonDocument.create(key, expiry, JsonObject.create().put("url", coverVo.getUrl())));
         } catch (Exception e) {
-            e.printStackTrace();
-            return new CoverVo("default.jpg");
+            log.warn("Could not store the cover of {}", words, e);
         }
+        return coverVo;
+    }
+
+    private Bucket bucket() {
+        return movieRepository.getCouchbaseOperations().getCouchbaseBucket();
     }
 
 }
@@ -0,0 +1,157 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process stand-in for the movies_shingle FTS index, used when couchflix.search.engine is
+ * MEMORY or FAILOVER. The movies are read from couchflix.memory.dataset, a JSON array of movie
+ * documents with their key in an "id" field, or from the bucket with N1QL when no file is set.
+ *
+ * The index is rebuilt in the background and swapped atomically; until the first build finishes
+ * {@link #isLoaded()} is false and searches fail, which lets FAILOVER report the FTS error instead.
+ */
+@Component
+public class InMemorySearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemorySearchIndex.class);
+
+    private static final TypeReference<Map<String, Object>> DOCUMENT = new TypeReference<Map<String, Object>>() {};
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Value("${couchflix.search.engine:COUCHBASE}")
+    private SearchEngine searchEngine;
+
+    @Value("${couchflix.memory.dataset:}")
+    private String dataset;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile MovieIndex index;
+
+    public boolean isLoaded() {
+        return index != null;
+    }
+
+    public int size() {
+        MovieIndex current = index;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Evaluates the query as the movies_shingle index would; hits are ranked, highlighted and
+     * faceted, but carry no explanation or locations.
+     */
+    public SearchQueryResult search(SearchQuery searchQuery) {
+        return current().search(searchQuery.indexName(), searchQuery.export());
+    }
+
+    /**
+     * The movies of the results list, with the fields of the PARTIAL hydration; unknown ids are left out.
+     */
+    public Map<String, Movie> movies(List<String> ids) {
+        MovieIndex current = index;
+        return current == null ? Collections.emptyMap() : current.movies(ids);
+    }
+
+    public Movie getMovie(String id) {
+        MovieIndex current = index;
+        return current == null ? null : current.getMovie(id);
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.memory.initial-delay-ms:0}",
+            fixedDelayString = "${couchflix.memory.refresh-ms:3600000}")
+    public void refresh() {
+        if (searchEngine == SearchEngine.COUCHBASE) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            MovieIndex loaded;
+            if (dataset.isEmpty()) {
+                loaded = loadFromBucket();
+            } else {
+                try (InputStream input = new FileInputStream(dataset)) {
+                    loaded = read(input);
+                }
+            }
+            index = loaded;
+            log.info("In-memory search index loaded: {} movies in {} ms", loaded.size(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not load the in-memory search index, keeping the previous one", e);
+        }
+    }
+
+    /**
+     * Replaces the index with the movies of a JSON array, for fixtures that run without a cluster.
+     */
+    public void load(InputStream input) throws IOException {
+        index = read(input);
+    }
+
+    private MovieIndex current() {
+        MovieIndex current = index;
+        if (current == null) {
+            throw new IllegalStateException("The in-memory search index is not loaded");
+        }
+        return current;
+    }
+
+    private MovieIndex read(InputStream input) throws IOException {
+        MovieIndex.Builder builder = new MovieIndex.Builder();
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of movie documents");
+            }
+            // one document in memory at a time
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Object> document = parser.readValueAs(DOCUMENT);
+                Object type = document.get("_class");
+                if (type == null || Movie.class.getName().equals(type)) {
+                    Object id = document.get("id");
+                    builder.add(id != null ? id.toString() : null, document);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private MovieIndex loadFromBucket() {
+        Bucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket();
+        String statement = "SELECT META(m).id AS id, m.* FROM `" + bucket.name() + "` m "
+                + "WHERE m._class = '" + Movie.class.getName() + "'";
+
+        MovieIndex.Builder builder = new MovieIndex.Builder();
+        bucket.async()
+                .query(N1qlQuery.simple(statement))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .toBlocking()
+                .forEach(row -> builder.add(row.value().getString("id"), row.value().toMap()));
+        return builder.build();
+    }
+}
@@ -0,0 +1,216 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.core.message.kv.subdoc.multi.Lookup;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.document.RawJsonDocument;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.repository.annotation.Field;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.couchbase.core.convert.translation.TranslationService;
+import org.springframework.data.couchbase.core.mapping.CouchbaseDocument;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the movies behind a page of FTS hits with a single parallel multi-get
+ * on the async bucket, so hydration costs about one KV round trip instead of one per hit.
+ *
+ * In PARTIAL mode only the configured paths (plus the first cast entries) are fetched
+ * with sub-document lookups and mapped into a slim {@link Movie}, which is all the results list needs;
+ * the attributes outside the paths stay null. {@link #modeFor} tells which mode a response needs for the
+ * movie attributes it writes.
+ *
+ * Concurrent searches that hit the same movie in the same mode share one fetch of it.
+ */
+@Component
+public class MovieHydrator {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieHydrator.class);
+
+    // a single sub-document lookup accepts at most 16 paths
+    private static final int MAX_LOOKUP_PATHS = 16;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Value("${couchflix.hydration.timeout-ms:2500}")
+    private long timeoutMs;
+
+    @Value("${couchflix.hydration.mode:FULL}")
+    private HydrationMode mode;
+
+    @Value("${couchflix.hydration.paths:title,posterPath,overview,release_date,release_year,vote_average,adult,genres}")
+    private String[] paths;
+
+    @Value("${couchflix.hydration.cast-limit:3}")
+    private int castLimit;
+
+    private String[] lookupPaths;
+
+    // the Movie attributes a PARTIAL movie has in full
+    private final Set<String> partialAttributes = new HashSet<>();
+
+    private final SingleFlight<String, Movie> fetches = new SingleFlight<>(() -> pipelineMetrics.coalesced("hydration"));
+
+    @PostConstruct
+    public void init() {
+        List<String> specs = new ArrayList<>();
+        for (String path : paths) {
+            if (!path.trim().isEmpty() && specs.size() < MAX_LOOKUP_PATHS) {
+                specs.add(path.trim());
+            }
+        }
+        for (int i = 0; i < castLimit && specs.size() < MAX_LOOKUP_PATHS; i++) {
+            specs.add("cast[" + i + "]");
+        }
+        lookupPaths = specs.toArray(new String[0]);
+
+        Map<String, String> attributes = new HashMap<>();
+        for (java.lang.reflect.Field field : Movie.class.getDeclaredFields()) {
+            Field document = field.getAnnotation(Field.class);
+            attributes.put(document != null && !document.value().isEmpty() ? document.value() : field.getName(),
+                    field.getName());
+        }
+        partialAttributes.add("id");
+        for (String spec : specs) {
+            // a nested path only fetches part of its attribute, and the cast is cut at cast-limit
+            String attribute = attributes.get(spec);
+            if (attribute != null && !spec.startsWith("cast[")) {
+                partialAttributes.add(attribute);
+            }
+        }
+    }
+
+    public HydrationMode getMode() {
+        return mode;
+    }
+
+    /**
+     * The configured mode, or FULL when some of the given {@link Movie} attributes are not fetched by the
+     * PARTIAL sub-document lookup.
+     */
+    public HydrationMode modeFor(Collection<String> attributes) {
+        return mode == HydrationMode.PARTIAL && partialAttributes.containsAll(attributes) ? HydrationMode.PARTIAL
+                : HydrationMode.FULL;
+    }
+
+    /**
+     * Missing, expired or unreadable documents are simply absent from the returned map,
+     * the caller keeps the FTS rank order by iterating its own list of ids.
+     */
+    public Observable<Map<String, Movie>> hydrateAsync(List<String> ids) {
+        return hydrateAsync(ids, mode);
+    }
+
+    public Observable<Map<String, Movie>> hydrateAsync(List<String> ids, HydrationMode mode) {
+        return hydrateAsync(ids, mode, null);
+    }
+
+    /**
+     * @param profile records the arrival of each movie, may be null
+     */
+    public Observable<Map<String, Movie>> hydrateAsync(List<String> ids, HydrationMode mode, QueryProfile profile) {
+        if (ids.isEmpty()) {
+            return Observable.just(new HashMap<>());
+        }
+        AsyncBucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket().async();
+
+        return Observable.from(ids)
+                .distinct()
+                .flatMap(id -> {
+                    long start = System.nanoTime();
+                    Observable<Movie> movie = fetches.execute(mode + ":" + id, () -> fetch(bucket, id, mode))
+                            .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                            .onErrorResumeNext(e -> {
+                                if (!(e instanceof DocumentDoesNotExistException)) {
+                                    log.warn("Could not hydrate movie {}: {}", id, e.toString());
+                                }
+                                return Observable.empty();
+                            });
+                    return profile != null ? movie.doOnNext(m -> profile.hit(id, start)) : movie;
+                })
+                .toMap(Movie::getId, movie -> movie, HashMap::new);
+    }
+
+    public Map<String, Movie> hydrate(List<String> ids) {
+        return hydrateAsync(ids).toBlocking().single();
+    }
+
+    private Observable<Movie> fetch(AsyncBucket bucket, String id, HydrationMode mode) {
+        if (mode == HydrationMode.PARTIAL) {
+            return bucket.lookupIn(id).get(lookupPaths).execute().map(this::toSlimMovie);
+        }
+        return bucket.get(id, RawJsonDocument.class).map(doc -> toMovie(doc.id(), doc.content()));
+    }
+
+    private Movie toSlimMovie(DocumentFragment<Lookup> fragment) {
+        JsonObject content = JsonObject.create();
+        JsonArray cast = JsonArray.create();
+
+        for (String path : lookupPaths) {
+            if (!fragment.exists(path)) {
+                continue;
+            }
+            if (path.startsWith("cast[")) {
+                cast.add(fragment.content(path));
+            } else {
+                put(content, path, fragment.content(path));
+            }
+        }
+        if (cast.size() > 0) {
+            content.put("cast", cast);
+        }
+        return toMovie(fragment.id(), content.toString());
+    }
+
+    private static void put(JsonObject target, String path, Object value) {
+        String[] parts = path.split("\\.");
+        JsonObject current = target;
+        for (int i = 0; i < parts.length - 1; i++) {
+            JsonObject child = current.getObject(parts[i]);
+            if (child == null) {
+                child = JsonObject.create();
+                current.put(parts[i], child);
+            }
+            current = child;
+        }
+        current.put(parts[parts.length - 1], value);
+    }
+
+    private Movie toMovie(String id, String json) {
+        CouchbaseDocument converted = new CouchbaseDocument(id);
+        translationService.decode(json, converted);
+        Movie movie = movieRepository.getCouchbaseOperations().getConverter().read(Movie.class, converted);
+        movie.setId(id);
+        return movie;
+    }
+
+    public enum HydrationMode {
+        FULL,
+        PARTIAL
+    }
+}
@@ -0,0 +1,1091 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Actor;
+import com.cb.fts.sample.entities.Genre;
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.MovieCollection;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.facets.DefaultNumericRangeFacetResult;
+import com.couchbase.client.java.search.result.facets.DefaultTermFacetResult;
+import com.couchbase.client.java.search.result.facets.FacetResult;
+import com.couchbase.client.java.search.result.facets.NumericRange;
+import com.couchbase.client.java.search.result.facets.TermRange;
+import com.couchbase.client.java.search.result.hits.DefaultHitLocations;
+import com.couchbase.client.java.search.result.impl.DefaultSearchMetrics;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryResult;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+import com.couchbase.client.java.search.result.impl.DefaultSearchStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over the movie documents with the fields, analyzers and scoring model of the
+ * movies_shingle FTS index. It evaluates the JSON that {@link com.couchbase.client.java.search.SearchQuery#export()}
+ * sends to FTS, so the queries, field boosts and numeric range boosts of {@link MovieServiceImpl} are used as is;
+ * query strings are rewritten into the same queries by {@link QueryStringParser}.
+ *
+ * Every text field keeps its terms in a sorted array with primitive posting lists of doc ordinals and
+ * term frequencies. A term within one edit of a query term shares either the first or the second half
+ * of it, so fuzzy candidates are two binary-searched ranges: one in the terms and one in the reversed terms.
+ *
+ * Scores follow the tf-idf model of bleve: boost * idf² * sqrt(tf) / sqrt(field length) per term,
+ * summed by conjunctions and scaled by the fraction of matching children in disjunctions.
+ * Numeric ranges, boolean fields and match_all contribute their boost.
+ */
+final class MovieIndex {
+
+    static final String NAME = "in-memory";
+
+    // the fields of indexes/movies_shingle.json
+    private static final List<TextField> TEXT_FIELDS = Arrays.asList(
+            new TextField("title", "title", TextAnalyzer.TITLES),
+            new TextField("original_title", "original_title", TextAnalyzer.TITLES),
+            new TextField("collection.name", "collection.name", TextAnalyzer.TITLES),
+            new TextField("overview", "overview", TextAnalyzer.NAMES),
+            new TextField("cast.name", "cast.name", TextAnalyzer.NAMES),
+            new TextField("cast.character", "cast.character", TextAnalyzer.OVERVIEW),
+            new TextField("castAdjusted.name", "castAdjusted.name", TextAnalyzer.NAMES),
+            // castAdjusted is a dynamic mapping, so its other fields use the default analyzer
+            new TextField("castAdjusted.character", "castAdjusted.character", TextAnalyzer.STANDARD),
+            new TextField("crew.name", "crew.name", TextAnalyzer.NAMES),
+            new TextField("crew.job", "crew.job", TextAnalyzer.STANDARD),
+            new TextField("genres.name", "genres.name", TextAnalyzer.STANDARD),
+            new TextField(FacetService.GENRES_FIELD, "genres.name", TextAnalyzer.KEYWORD),
+            new TextField(FacetService.COLLECTION_FIELD, "collection.name", TextAnalyzer.KEYWORD),
+            new TextField(FacetService.LANGUAGE_FIELD, "original_language", TextAnalyzer.KEYWORD));
+    // the text fields included in _all, which the query string searches when a clause names no field
+    private static final String[] ALL_FIELDS = {"title", "original_title", "collection.name", "overview", "cast.name",
+            "cast.character", "castAdjusted.name", "crew.name", "crew.job", "genres.name"};
+    private static final String[] NUMERIC_FIELDS = {"popularity", "release_year", "runtime", "weightedRating", "staticRank"};
+    private static final String[] BOOLEAN_FIELDS = {"promoted"};
+    private static final String[] HIGHLIGHT_FIELDS = {"title", "original_title", "collection.name", "overview"};
+
+    private static final int CAST_LIMIT = 3;
+
+    private final String[] ids;
+    private final Movie[] movies;
+    private final Map<String, Integer> ordinals;
+    private final Map<String, FieldIndex> fields;
+    // NaN when the document has no value
+    private final Map<String, double[]> numbers;
+    // -1 when the document has no value
+    private final Map<String, byte[]> booleans;
+
+    private MovieIndex(Builder builder) {
+        this.ids = builder.ids.toArray(new String[0]);
+        this.movies = builder.movies.toArray(new Movie[0]);
+        this.ordinals = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            ordinals.put(ids[i], i);
+        }
+        this.fields = new HashMap<>();
+        for (TextField field : TEXT_FIELDS) {
+            fields.put(field.name, new FieldIndex(field.analyzer, builder.postings.get(field.name), ids.length));
+        }
+        this.numbers = new HashMap<>();
+        for (String field : NUMERIC_FIELDS) {
+            numbers.put(field, builder.numbers.get(field).toArray());
+        }
+        this.booleans = new HashMap<>();
+        for (String field : BOOLEAN_FIELDS) {
+            booleans.put(field, builder.booleans.get(field).toArray());
+        }
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    Movie getMovie(String id) {
+        Integer doc = ordinals.get(id);
+        return doc != null ? movies[doc] : null;
+    }
+
+    Map<String, Movie> movies(List<String> ids) {
+        Map<String, Movie> found = new HashMap<>(ids.size() * 2);
+        for (String id : ids) {
+            Movie movie = getMovie(id);
+            if (movie != null) {
+                found.put(id, movie);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param request the exported search request: query, size, from, highlight and facets
+     */
+    SearchQueryResult search(String indexName, JsonObject request) {
+        long start = System.nanoTime();
+        Map<String, Set<String>> matchedTerms = new HashMap<>();
+        Hits hits = evaluate(request.getObject("query"), matchedTerms);
+
+        int from = intValue(request.get("from"), 0);
+        int size = intValue(request.get("size"), 10);
+        boolean highlight = request.containsKey("highlight");
+        JsonArray storedFields = request.getArray("fields");
+        int[] best = top(hits, from + size);
+        List<SearchQueryRow> rows = new ArrayList<>();
+        for (int rank = from; rank < best.length; rank++) {
+            int i = best[rank];
+            rows.add(new DefaultSearchQueryRow(indexName, ids[hits.docs[i]], hits.scores[i], null,
+                    new DefaultHitLocations(),
+                    highlight ? fragments(movies[hits.docs[i]], matchedTerms) : new HashMap<>(),
+                    storedFields != null ? fields(hits.docs[i], storedFields) : new HashMap<>()));
+        }
+
+        double maxScore = 0;
+        for (int i = 0; i < hits.size; i++) {
+            maxScore = Math.max(maxScore, hits.scores[i]);
+        }
+        Map<String, FacetResult> facets = facets(request.getObject("facets"), hits);
+        return new DefaultSearchQueryResult(new DefaultSearchStatus(1, 0, 1), rows, null, facets,
+                new DefaultSearchMetrics(System.nanoTime() - start, hits.size, maxScore));
+    }
+
+    private Hits evaluate(JsonObject query, Map<String, Set<String>> matchedTerms) {
+        if (query == null) {
+            return Hits.EMPTY;
+        }
+        double boost = doubleValue(query.get("boost"), 1);
+
+        if (query.containsKey("query")) {
+            return evaluate(QueryStringParser.parse(query.getString("query")), matchedTerms).boost(boost);
+        }
+        if (query.containsKey("must") || query.containsKey("should") || query.containsKey("must_not")) {
+            return booleanQuery(query, boost, matchedTerms);
+        }
+        if (query.containsKey("conjuncts")) {
+            List<Hits> children = new ArrayList<>();
+            for (Object child : query.getArray("conjuncts")) {
+                children.add(evaluate((JsonObject) child, matchedTerms));
+            }
+            return intersect(children, boost);
+        }
+        if (query.containsKey("disjuncts")) {
+            List<Hits> children = new ArrayList<>();
+            for (Object child : query.getArray("disjuncts")) {
+                children.add(evaluate((JsonObject) child, matchedTerms));
+            }
+            return union(children, intValue(query.get("min"), 0), boost, true);
+        }
+        if (query.containsKey("match_all")) {
+            return Hits.all(ids.length, boost);
+        }
+        if (query.containsKey("match_none")) {
+            return Hits.EMPTY;
+        }
+        if (query.containsKey("match") || query.containsKey("term")) {
+            String field = query.getString("field");
+            if (field == null || "_all".equals(field)) {
+                List<Hits> children = new ArrayList<>();
+                for (String included : ALL_FIELDS) {
+                    children.add(match(query, included, boost, matchedTerms));
+                }
+                return union(children, 0, 1, false);
+            }
+            return match(query, field, boost, matchedTerms);
+        }
+        if (query.containsKey("bool")) {
+            byte[] values = booleans.get(query.getString("field"));
+            return values != null ? bool(values, query.getBoolean("bool"), boost) : Hits.EMPTY;
+        }
+        if (query.containsKey("field") && (query.containsKey("min") || query.containsKey("max"))) {
+            double[] values = numbers.get(query.getString("field"));
+            return values != null ? range(values, query, boost) : Hits.EMPTY;
+        }
+        throw new IllegalArgumentException("Query not supported by the in-memory index: " + query);
+    }
+
+    private Hits match(JsonObject query, String field, double boost, Map<String, Set<String>> matchedTerms) {
+        FieldIndex index = fields.get(field);
+        if (index == null) {
+            return Hits.EMPTY;
+        }
+        int fuzziness = intValue(query.get("fuzziness"), 0);
+        int prefixLength = intValue(query.get("prefix_length"), 0);
+        List<String> terms = query.containsKey("match")
+                ? index.analyzer.analyze(query.getString("match"))
+                : Collections.singletonList(query.getString("term"));
+
+        List<Hits> children = new ArrayList<>();
+        for (String term : terms) {
+            children.add(term(index, field, term, fuzziness, prefixLength, matchedTerms));
+        }
+        if ("and".equals(query.getString("operator"))) {
+            return intersect(children, boost);
+        }
+        return children.size() == 1 ? children.get(0).boost(boost) : union(children, 0, boost, true);
+    }
+
+    // documents matching every must clause, or any should clause without them, and no must_not clause;
+    // the should clauses add their scores to the must matches
+    private Hits booleanQuery(JsonObject query, double boost, Map<String, Set<String>> matchedTerms) {
+        Hits must = query.containsKey("must") ? evaluate(query.getObject("must"), matchedTerms) : null;
+        Hits should = query.containsKey("should") ? evaluate(query.getObject("should"), matchedTerms) : null;
+        Hits hits;
+        if (must != null && should != null) {
+            hits = intValue(query.getObject("should").get("min"), 0) > 0
+                    ? intersect(Arrays.asList(must, should), 1) : addScores(must, should);
+        } else if (must != null) {
+            hits = must;
+        } else if (should != null) {
+            hits = should;
+        } else {
+            hits = Hits.all(ids.length, 1);
+        }
+        if (query.containsKey("must_not")) {
+            hits = exclude(hits, evaluate(query.getObject("must_not"), matchedTerms));
+        }
+        return hits.boost(boost);
+    }
+
+    private Hits term(FieldIndex index, String field, String term, int fuzziness, int prefixLength,
+                      Map<String, Set<String>> matchedTerms) {
+        int[] ords = fuzziness > 0 ? index.fuzzy(term, fuzziness, prefixLength) : index.exact(term);
+        if (ords.length == 0) {
+            return Hits.EMPTY;
+        }
+        Set<String> matched = matchedTerms.computeIfAbsent(field, k -> new HashSet<>());
+        List<Hits> expansions = new ArrayList<>(ords.length);
+        for (int ord : ords) {
+            matched.add(index.terms[ord]);
+            expansions.add(index.score(ord, ids.length));
+        }
+        // like bleve, a fuzzy term is a disjunction of the terms it expands to
+        return expansions.size() == 1 ? expansions.get(0) : union(expansions, 0, 1, true);
+    }
+
+    private Hits bool(byte[] values, boolean value, double boost) {
+        IntList docs = new IntList();
+        for (int doc = 0; doc < values.length; doc++) {
+            if (values[doc] == (value ? 1 : 0)) {
+                docs.add(doc);
+            }
+        }
+        return Hits.constant(docs.toArray(), boost);
+    }
+
+    private Hits range(double[] values, JsonObject query, double boost) {
+        Double min = query.containsKey("min") ? doubleValue(query.get("min"), 0) : null;
+        Double max = query.containsKey("max") ? doubleValue(query.get("max"), 0) : null;
+        // the defaults of bleve
+        boolean inclusiveMin = !Boolean.FALSE.equals(query.getBoolean("inclusive_min"));
+        boolean inclusiveMax = Boolean.TRUE.equals(query.getBoolean("inclusive_max"));
+
+        IntList docs = new IntList();
+        for (int doc = 0; doc < values.length; doc++) {
+            double value = values[doc];
+            if (Double.isNaN(value)
+                    || (min != null && (inclusiveMin ? value < min : value <= min))
+                    || (max != null && (inclusiveMax ? value > max : value >= max))) {
+                continue;
+            }
+            docs.add(doc);
+        }
+        return Hits.constant(docs.toArray(), boost);
+    }
+
+    private static Hits intersect(List<Hits> children, double boost) {
+        if (children.isEmpty()) {
+            return Hits.EMPTY;
+        }
+        List<Hits> sorted = new ArrayList<>(children);
+        sorted.sort((a, b) -> Integer.compare(a.size, b.size));
+
+        Hits current = sorted.get(0);
+        for (int c = 1; c < sorted.size() && current.size > 0; c++) {
+            Hits other = sorted.get(c);
+            int[] docs = new int[current.size];
+            double[] scores = new double[current.size];
+            int n = 0;
+            int from = 0;
+            for (int i = 0; i < current.size; i++) {
+                int j = Arrays.binarySearch(other.docs, from, other.size, current.docs[i]);
+                if (j >= 0) {
+                    docs[n] = current.docs[i];
+                    scores[n++] = current.scores[i] + other.scores[j];
+                    from = j + 1;
+                } else {
+                    from = -j - 1;
+                }
+            }
+            current = new Hits(docs, scores, n);
+        }
+        return current.boost(boost);
+    }
+
+    // the hits with the scores of the optional hits added where they match too
+    private static Hits addScores(Hits hits, Hits optional) {
+        double[] scores = Arrays.copyOf(hits.scores, hits.size);
+        int j = 0;
+        for (int i = 0; i < hits.size && j < optional.size; i++) {
+            while (j < optional.size && optional.docs[j] < hits.docs[i]) {
+                j++;
+            }
+            if (j < optional.size && optional.docs[j] == hits.docs[i]) {
+                scores[i] += optional.scores[j];
+            }
+        }
+        return new Hits(hits.docs, scores, hits.size);
+    }
+
+    private static Hits exclude(Hits hits, Hits excluded) {
+        int[] docs = new int[hits.size];
+        double[] scores = new double[hits.size];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < hits.size; i++) {
+            while (j < excluded.size && excluded.docs[j] < hits.docs[i]) {
+                j++;
+            }
+            if (j >= excluded.size || excluded.docs[j] != hits.docs[i]) {
+                docs[n] = hits.docs[i];
+                scores[n++] = hits.scores[i];
+            }
+        }
+        return new Hits(docs, scores, n);
+    }
+
+    /**
+     * @param min   minimum number of matching children, 0 means at least one
+     * @param coord scale the scores by the fraction of matching children
+     */
+    private static Hits union(List<Hits> children, int min, double boost, boolean coord) {
+        int[] docs = new int[0];
+        double[] scores = new double[0];
+        int[] counts = new int[0];
+        int size = 0;
+
+        for (Hits child : children) {
+            int[] mergedDocs = new int[size + child.size];
+            double[] mergedScores = new double[size + child.size];
+            int[] mergedCounts = new int[size + child.size];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < child.size) {
+                if (j >= child.size || (i < size && docs[i] < child.docs[j])) {
+                    mergedDocs[n] = docs[i];
+                    mergedScores[n] = scores[i];
+                    mergedCounts[n++] = counts[i++];
+                } else if (i >= size || child.docs[j] < docs[i]) {
+                    mergedDocs[n] = child.docs[j];
+                    mergedScores[n] = child.scores[j++];
+                    mergedCounts[n++] = 1;
+                } else {
+                    mergedDocs[n] = docs[i];
+                    mergedScores[n] = scores[i] + child.scores[j++];
+                    mergedCounts[n++] = counts[i++] + 1;
+                }
+            }
+            docs = mergedDocs;
+            scores = mergedScores;
+            counts = mergedCounts;
+            size = n;
+        }
+
+        int required = Math.max(1, min);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] >= required) {
+                docs[n] = docs[i];
+                scores[n++] = scores[i] * boost * (coord ? (double) counts[i] / children.size() : 1);
+            }
+        }
+        return new Hits(docs, scores, n);
+    }
+
+    /**
+     * Positions in the hits of the best k scores, best first; ties go to the lower doc ordinal.
+     */
+    private static int[] top(Hits hits, int k) {
+        k = Math.min(k, hits.size);
+        int[] heap = new int[k];
+        int n = 0;
+        for (int i = 0; i < hits.size && k > 0; i++) {
+            if (n < k) {
+                heap[n] = i;
+                for (int c = n++; c > 0 && better(hits, heap[(c - 1) / 2], heap[c]); c = (c - 1) / 2) {
+                    swap(heap, c, (c - 1) / 2);
+                }
+            } else if (better(hits, i, heap[0])) {
+                heap[0] = i;
+                for (int p = 0; ; ) {
+                    int worst = p;
+                    for (int c = 2 * p + 1; c <= 2 * p + 2 && c < n; c++) {
+                        if (better(hits, heap[worst], heap[c])) {
+                            worst = c;
+                        }
+                    }
+                    if (worst == p) {
+                        break;
+                    }
+                    swap(heap, p, worst);
+                    p = worst;
+                }
+            }
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = heap[i];
+        }
+        Arrays.sort(order, (a, b) -> better(hits, a, b) ? -1 : better(hits, b, a) ? 1 : 0);
+        int[] best = new int[n];
+        for (int i = 0; i < n; i++) {
+            best[i] = order[i];
+        }
+        return best;
+    }
+
+    private static boolean better(Hits hits, int a, int b) {
+        return hits.scores[a] > hits.scores[b] || (hits.scores[a] == hits.scores[b] && hits.docs[a] < hits.docs[b]);
+    }
+
+    private static void swap(int[] values, int a, int b) {
+        int tmp = values[a];
+        values[a] = values[b];
+        values[b] = tmp;
+    }
+
+    private Map<String, FacetResult> facets(JsonObject requested, Hits hits) {
+        Map<String, FacetResult> results = new LinkedHashMap<>();
+        if (requested == null) {
+            return results;
+        }
+        for (String name : requested.getNames()) {
+            JsonObject facet = requested.getObject(name);
+            String field = facet.getString("field");
+            int size = intValue(facet.get("size"), 10);
+            if (facet.containsKey("numeric_ranges")) {
+                double[] values = numbers.get(field);
+                if (values != null) {
+                    results.put(name, numericFacet(name, field, facet.getArray("numeric_ranges"), values, hits));
+                }
+            } else if (!facet.containsKey("date_ranges")) {
+                FieldIndex index = fields.get(field);
+                if (index != null && index.docTerms != null) {
+                    results.put(name, termFacet(name, field, size, index, hits));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static FacetResult termFacet(String name, String field, int size, FieldIndex index, Hits hits) {
+        int[] counts = new int[index.terms.length];
+        long total = 0;
+        long missing = 0;
+        for (int i = 0; i < hits.size; i++) {
+            int[] terms = index.docTerms[hits.docs[i]];
+            if (terms.length == 0) {
+                missing++;
+            }
+            for (int ord : terms) {
+                counts[ord]++;
+                total++;
+            }
+        }
+
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[b], counts[a]) : Integer.compare(a, b));
+        List<TermRange> terms = new ArrayList<>();
+        long listed = 0;
+        for (int i = 0; i < order.length && terms.size() < size && counts[order[i]] > 0; i++) {
+            terms.add(new TermRange(index.terms[order[i]], counts[order[i]]));
+            listed += counts[order[i]];
+        }
+        return new DefaultTermFacetResult(name, field, total, missing, total - listed, terms);
+    }
+
+    private static FacetResult numericFacet(String name, String field, JsonArray ranges, double[] values, Hits hits) {
+        List<NumericRange> counted = new ArrayList<>();
+        long total = 0;
+        long missing = 0;
+        for (int i = 0; i < hits.size; i++) {
+            if (Double.isNaN(values[hits.docs[i]])) {
+                missing++;
+            }
+        }
+        for (Object item : ranges) {
+            JsonObject range = (JsonObject) item;
+            Double min = range.containsKey("min") ? doubleValue(range.get("min"), 0) : null;
+            Double max = range.containsKey("max") ? doubleValue(range.get("max"), 0) : null;
+            long count = 0;
+            for (int i = 0; i < hits.size; i++) {
+                double value = values[hits.docs[i]];
+                if (!Double.isNaN(value) && (min == null || value >= min) && (max == null || value < max)) {
+                    count++;
+                }
+            }
+            total += count;
+            counted.add(new NumericRange(range.getString("name"), min, max, count));
+        }
+        return new DefaultNumericRangeFacetResult(name, field, total, missing, 0, counted);
+    }
+
+    /**
+     * The numeric and boolean fields of the document that were requested, as strings like the FTS service returns them.
+     */
+    private Map<String, String> fields(int doc, JsonArray names) {
+        Map<String, String> fields = new HashMap<>();
+        for (Object name : names) {
+            double[] values = numbers.get(name);
+            byte[] flags = booleans.get(name);
+            if (values != null && !Double.isNaN(values[doc])) {
+                fields.put((String) name, Double.toString(values[doc]));
+            } else if (flags != null && flags[doc] >= 0) {
+                fields.put((String) name, Boolean.toString(flags[doc] == 1));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * The stored text of the highlighted fields with the matched tokens, or token pairs for shingles,
+     * wrapped in &lt;mark&gt; like the default FTS highlighter.
+     */
+    private static Map<String, List<String>> fragments(Movie movie, Map<String, Set<String>> matchedTerms) {
+        Map<String, List<String>> fragments = new HashMap<>();
+        for (String field : HIGHLIGHT_FIELDS) {
+            Set<String> terms = matchedTerms.get(field);
+            String text = storedText(movie, field);
+            if (terms == null || text == null) {
+                continue;
+            }
+            String fragment = highlight(text, terms);
+            if (fragment != null) {
+                fragments.put(field, Collections.singletonList(fragment));
+            }
+        }
+        return fragments;
+    }
+
+    private static String highlight(String text, Set<String> terms) {
+        List<int[]> spans = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && TextAnalyzer.isWordChar(text, i)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                spans.add(new int[]{start, i});
+                start = -1;
+            }
+        }
+
+        boolean[] marked = new boolean[spans.size()];
+        boolean any = false;
+        for (int i = 0; i < spans.size(); i++) {
+            String token = token(text, spans.get(i));
+            if (terms.contains(token)) {
+                marked[i] = true;
+                any = true;
+            }
+            if (i + 1 < spans.size() && terms.contains(token + token(text, spans.get(i + 1)))) {
+                marked[i] = true;
+                marked[i + 1] = true;
+                any = true;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+
+        StringBuilder fragment = new StringBuilder(text.length() + 16);
+        int last = 0;
+        for (int i = 0; i < spans.size(); i++) {
+            if (marked[i]) {
+                int[] span = spans.get(i);
+                fragment.append(text, last, span[0]).append("<mark>").append(text, span[0], span[1]).append("</mark>");
+                last = span[1];
+            }
+        }
+        return fragment.append(text.substring(last)).toString();
+    }
+
+    private static String token(String text, int[] span) {
+        return text.substring(span[0], span[1]).toLowerCase();
+    }
+
+    private static String storedText(Movie movie, String field) {
+        switch (field) {
+            case "title":
+                return movie.getTitle();
+            case "original_title":
+                return movie.getOriginalTitle();
+            case "collection.name":
+                return movie.getCollection() != null ? movie.getCollection().getName() : null;
+            case "overview":
+                return movie.getOverview();
+            default:
+                return null;
+        }
+    }
+
+    private static int intValue(Object value, int defaultValue) {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    private static double doubleValue(Object value, double defaultValue) {
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+    }
+
+    /**
+     * Collects the movie documents, in the shape they are stored in the bucket, before the index is built.
+     */
+    static final class Builder {
+
+        private final List<String> ids = new ArrayList<>();
+        private final List<Movie> movies = new ArrayList<>();
+        private final Map<String, Map<String, IntList>> postings = new HashMap<>();
+        private final Map<String, DoubleList> numbers = new HashMap<>();
+        private final Map<String, ByteList> booleans = new HashMap<>();
+        private final Set<String> seen = new HashSet<>();
+
+        Builder() {
+            for (TextField field : TEXT_FIELDS) {
+                postings.put(field.name, new HashMap<>());
+            }
+            for (String field : NUMERIC_FIELDS) {
+                numbers.put(field, new DoubleList());
+            }
+            for (String field : BOOLEAN_FIELDS) {
+                booleans.put(field, new ByteList());
+            }
+        }
+
+        /**
+         * Documents with an id that was already added are ignored.
+         */
+        Builder add(String id, Map<String, Object> document) {
+            if (id == null || !seen.add(id)) {
+                return this;
+            }
+            int doc = ids.size();
+            ids.add(id);
+            movies.add(toMovie(id, document));
+
+            for (TextField field : TEXT_FIELDS) {
+                Map<String, Integer> frequencies = new HashMap<>();
+                int length = 0;
+                for (Object value : values(document, field.path)) {
+                    for (String term : field.analyzer.analyze(value.toString())) {
+                        frequencies.merge(term, 1, Integer::sum);
+                        length++;
+                    }
+                }
+                Map<String, IntList> fieldPostings = postings.get(field.name);
+                for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                    IntList list = fieldPostings.computeIfAbsent(entry.getKey(), k -> new IntList());
+                    list.add(doc);
+                    list.add(entry.getValue());
+                }
+                // the field length is kept as a posting of the empty term, which no analyzer produces
+                if (length > 0) {
+                    IntList lengths = fieldPostings.computeIfAbsent("", k -> new IntList());
+                    lengths.add(doc);
+                    lengths.add(length);
+                }
+            }
+            for (String field : NUMERIC_FIELDS) {
+                List<Object> values = values(document, field);
+                numbers.get(field).add(values.isEmpty() ? Double.NaN : toDouble(values.get(0)));
+            }
+            for (String field : BOOLEAN_FIELDS) {
+                List<Object> values = values(document, field);
+                booleans.get(field).add(values.isEmpty() || !(values.get(0) instanceof Boolean) ? (byte) -1
+                        : (Boolean) values.get(0) ? (byte) 1 : (byte) 0);
+            }
+            return this;
+        }
+
+        MovieIndex build() {
+            return new MovieIndex(this);
+        }
+
+        /**
+         * The slim movie of the results list, with the same paths as the PARTIAL hydration.
+         */
+        private static Movie toMovie(String id, Map<String, Object> document) {
+            Movie movie = new Movie();
+            movie.setId(id);
+            movie.setTitle(string(document.get("title")));
+            movie.setOriginalTitle(string(document.get("original_title")));
+            movie.setOverview(string(document.get("overview")));
+            movie.setPosterPath(string(document.get("posterPath")));
+            movie.setReleaseDate(string(document.get("release_date")));
+            movie.setOriginalLanguage(string(document.get("original_language")));
+            movie.setAdult(document.get("adult") instanceof Boolean ? (Boolean) document.get("adult") : null);
+            movie.setPromoted(document.get("promoted") instanceof Boolean ? (Boolean) document.get("promoted") : null);
+
+            double year = toDouble(document.get("release_year"));
+            movie.setReleaseYear(Double.isNaN(year) ? null : (int) year);
+            double voteAverage = toDouble(document.get("vote_average"));
+            movie.setVoteAverage(Double.isNaN(voteAverage) ? null : voteAverage);
+            double popularity = toDouble(document.get("popularity"));
+            movie.setPopularity(Double.isNaN(popularity) ? null : popularity);
+            double runtime = toDouble(document.get("runtime"));
+            movie.setRuntime(Double.isNaN(runtime) ? null : (long) runtime);
+            double weightedRating = toDouble(document.get("weightedRating"));
+            movie.setWeightedRating(Double.isNaN(weightedRating) ? null : weightedRating);
+
+            List<Genre> genres = new ArrayList<>();
+            for (Object name : values(document, "genres.name")) {
+                genres.add(new Genre(null, name.toString()));
+            }
+            movie.setGenres(genres);
+
+            Object collection = document.get("collection");
+            if (collection instanceof Map) {
+                MovieCollection movieCollection = new MovieCollection();
+                movieCollection.setName(string(((Map<?, ?>) collection).get("name")));
+                movie.setCollection(movieCollection);
+            }
+
+            Object cast = document.get("cast");
+            if (cast instanceof List) {
+                List<Actor> actors = new ArrayList<>();
+                for (Object entry : (List<?>) cast) {
+                    if (actors.size() == CAST_LIMIT) {
+                        break;
+                    }
+                    if (entry instanceof Map) {
+                        Actor actor = new Actor();
+                        actor.setName(string(((Map<?, ?>) entry).get("name")));
+                        actor.setCharacter(string(((Map<?, ?>) entry).get("character")));
+                        actors.add(actor);
+                    }
+                }
+                movie.setCast(actors);
+            }
+            return movie;
+        }
+
+        /**
+         * The leaf values at a dotted path, arrays are flattened at any level.
+         */
+        private static List<Object> values(Map<String, Object> document, String path) {
+            List<Object> values = new ArrayList<>();
+            collect(document, path.split("\\."), 0, values);
+            return values;
+        }
+
+        private static void collect(Object node, String[] path, int depth, List<Object> values) {
+            if (node instanceof List) {
+                for (Object element : (List<?>) node) {
+                    collect(element, path, depth, values);
+                }
+            } else if (depth == path.length) {
+                if (node != null) {
+                    values.add(node);
+                }
+            } else if (node instanceof Map) {
+                collect(((Map<?, ?>) node).get(path[depth]), path, depth + 1, values);
+            }
+        }
+
+        private static String string(Object value) {
+            return value != null ? value.toString() : null;
+        }
+
+        private static double toDouble(Object value) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (NumberFormatException e) {
+                    return Double.NaN;
+                }
+            }
+            return Double.NaN;
+        }
+    }
+
+    private static final class TextField {
+
+        private final String name;
+        private final String path;
+        private final TextAnalyzer analyzer;
+
+        TextField(String name, String path, TextAnalyzer analyzer) {
+            this.name = name;
+            this.path = path;
+            this.analyzer = analyzer;
+        }
+    }
+
+    private static final class FieldIndex {
+
+        private final TextAnalyzer analyzer;
+        private final String[] terms;
+        private final int[][] docs;
+        private final int[][] frequencies;
+        // 1 / sqrt(number of tokens of the document in the field)
+        private final float[] norms;
+        private final String[] reversedTerms;
+        private final int[] reversedOrds;
+        // term ordinals of each document, kept for the keyword fields only as they are the facet fields
+        private final int[][] docTerms;
+
+        FieldIndex(TextAnalyzer analyzer, Map<String, IntList> postings, int documents) {
+            this.analyzer = analyzer;
+            this.norms = new float[documents];
+            IntList lengths = postings.remove("");
+            if (lengths != null) {
+                for (int i = 0; i < lengths.size; i += 2) {
+                    norms[lengths.values[i]] = (float) (1 / Math.sqrt(lengths.values[i + 1]));
+                }
+            }
+
+            this.terms = postings.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            this.docs = new int[terms.length][];
+            this.frequencies = new int[terms.length][];
+            for (int ord = 0; ord < terms.length; ord++) {
+                IntList list = postings.get(terms[ord]);
+                docs[ord] = new int[list.size / 2];
+                frequencies[ord] = new int[list.size / 2];
+                for (int i = 0; i < list.size; i += 2) {
+                    docs[ord][i / 2] = list.values[i];
+                    frequencies[ord][i / 2] = list.values[i + 1];
+                }
+            }
+
+            Integer[] order = new Integer[terms.length];
+            String[] reversed = new String[terms.length];
+            for (int ord = 0; ord < terms.length; ord++) {
+                order[ord] = ord;
+                reversed[ord] = new StringBuilder(terms[ord]).reverse().toString();
+            }
+            Arrays.sort(order, (a, b) -> reversed[a].compareTo(reversed[b]));
+            this.reversedTerms = new String[terms.length];
+            this.reversedOrds = new int[terms.length];
+            for (int i = 0; i < order.length; i++) {
+                reversedTerms[i] = reversed[order[i]];
+                reversedOrds[i] = order[i];
+            }
+
+            if (analyzer == TextAnalyzer.KEYWORD) {
+                IntList[] perDoc = new IntList[documents];
+                for (int ord = 0; ord < terms.length; ord++) {
+                    for (int doc : docs[ord]) {
+                        if (perDoc[doc] == null) {
+                            perDoc[doc] = new IntList();
+                        }
+                        perDoc[doc].add(ord);
+                    }
+                }
+                this.docTerms = new int[documents][];
+                for (int doc = 0; doc < documents; doc++) {
+                    docTerms[doc] = perDoc[doc] != null ? perDoc[doc].toArray() : new int[0];
+                }
+            } else {
+                this.docTerms = null;
+            }
+        }
+
+        int[] exact(String term) {
+            int ord = Arrays.binarySearch(terms, term);
+            return ord >= 0 ? new int[]{ord} : new int[0];
+        }
+
+        /**
+         * Ordinals of the terms within the edit distance of the term that share its first prefixLength characters.
+         */
+        int[] fuzzy(String term, int fuzziness, int prefixLength) {
+            IntList candidates = new IntList();
+            int length = term.length();
+            if (fuzziness == 1 && length >= 3) {
+                // with a single edit, the half that does not contain it is unchanged
+                int half = (length + 1) / 2;
+                String prefix = term.substring(0, half);
+                for (int i = lowerBound(terms, prefix), end = lowerBound(terms, prefix + Character.MAX_VALUE); i < end; i++) {
+                    candidates.add(i);
+                }
+                String suffix = new StringBuilder(term.substring(half)).reverse().toString();
+                for (int i = lowerBound(reversedTerms, suffix), end = lowerBound(reversedTerms, suffix + Character.MAX_VALUE); i < end; i++) {
+                    candidates.add(reversedOrds[i]);
+                }
+            } else {
+                for (int ord = 0; ord < terms.length; ord++) {
+                    if (Math.abs(terms[ord].length() - length) <= fuzziness) {
+                        candidates.add(ord);
+                    }
+                }
+            }
+
+            int[] sorted = candidates.toArray();
+            Arrays.sort(sorted);
+            IntList matches = new IntList();
+            for (int i = 0; i < sorted.length; i++) {
+                if (i > 0 && sorted[i] == sorted[i - 1]) {
+                    continue;
+                }
+                String candidate = terms[sorted[i]];
+                if (candidate.regionMatches(0, term, 0, Math.min(prefixLength, length))
+                        && withinDistance(term, candidate, fuzziness)) {
+                    matches.add(sorted[i]);
+                }
+            }
+            return matches.toArray();
+        }
+
+        Hits score(int ord, int documents) {
+            int[] postings = docs[ord];
+            double idf = 1 + Math.log(documents / (postings.length + 1d));
+            double[] scores = new double[postings.length];
+            for (int i = 0; i < postings.length; i++) {
+                scores[i] = idf * idf * Math.sqrt(frequencies[ord][i]) * norms[postings[i]];
+            }
+            return new Hits(postings, scores, postings.length);
+        }
+
+        private static int lowerBound(String[] sorted, String key) {
+            int i = Arrays.binarySearch(sorted, key);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        /**
+         * Levenshtein distance of at most max, computed on a band of the matrix.
+         */
+        private static boolean withinDistance(String a, String b, int max) {
+            if (Math.abs(a.length() - b.length()) > max) {
+                return false;
+            }
+            int[] previous = new int[b.length() + 1];
+            int[] current = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= a.length(); i++) {
+                current[0] = i;
+                int rowMin = current[0];
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                    rowMin = Math.min(rowMin, current[j]);
+                }
+                if (rowMin > max) {
+                    return false;
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[b.length()] <= max;
+        }
+    }
+
+    /**
+     * Matching documents in ascending ordinal order with their scores.
+     */
+    private static final class Hits {
+
+        static final Hits EMPTY = new Hits(new int[0], new double[0], 0);
+
+        final int[] docs;
+        final double[] scores;
+        final int size;
+
+        Hits(int[] docs, double[] scores, int size) {
+            this.docs = docs;
+            this.scores = scores;
+            this.size = size;
+        }
+
+        static Hits all(int documents, double boost) {
+            int[] docs = new int[documents];
+            for (int i = 0; i < documents; i++) {
+                docs[i] = i;
+            }
+            return constant(docs, boost);
+        }
+
+        static Hits constant(int[] docs, double score) {
+            double[] scores = new double[docs.length];
+            Arrays.fill(scores, score);
+            return new Hits(docs, scores, docs.length);
+        }
+
+        Hits boost(double boost) {
+            if (boost == 1) {
+                return this;
+            }
+            double[] boosted = new double[size];
+            for (int i = 0; i < size; i++) {
+                boosted[i] = scores[i] * boost;
+            }
+            return new Hits(docs, boosted, size);
+        }
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class DoubleList {
+
+        private double[] values = new double[1024];
+        private int size;
+
+        void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        double[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class ByteList {
+
+        private byte[] values = new byte[1024];
+        private int size;
+
+        void add(byte value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -4,13 +4,23 @@ import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.cb.fts.sample.entities.ActorName;
 import com.cb.fts.sample.repositories.ActorNameRepository;
+import com.couchbase.client.java.AsyncBucket;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import javax.annotation.PostConstruct;
 
 /**
  * A probabilistic parser is potentially a better option here
@@ -19,81 +29,236 @@ import org.springframework.stereotype.Component;
 @Component
 public class MovieQueryParser {
 
+    private static final String ACTOR_NAME_PREFIX = "actorName-";
+
     @Autowired
     private ActorNameRepository actorNameRepository;
 
-    private static final List<String> categories = Arrays.asList("comedy", "crime", "drama"
-            , "science fiction", "romance", "horror", "thriller", "action"
-            , "adventure", "fantasy", "mystery", "animation", "family", "foreign"
-            , "documentary", "music", "history", "western", "tv movie");
+    @Autowired
+    private ActorNameDictionary actorNameDictionary;
+
+    @Autowired
+    private EntityGazetteer entityGazetteer;
+
+    @Autowired
+    private SpellingCorrector spellingCorrector;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${couchflix.parser.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    @Value("${couchflix.parser.cache.ttl-ms:600000}")
+    private long cacheTtlMs;
 
+    private Cache<String, EntityExtractor> parsedQueries;
+
+    // concurrent parses of queries naming the same person read the actorName document once
+    private final SingleFlight<String, Integer> actorLookups = new SingleFlight<>(() -> pipelineMetrics.coalesced("actor"));
+
+    @PostConstruct
+    public void init() {
+        parsedQueries = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtlMs, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, parsedQueries, "parsedQueries");
+    }
+
+    /**
+     * Identical normalized queries share one parse result, the returned extractor is frozen.
+     */
     public EntityExtractor parse(String words) {
-        EntityExtractor entityExtractor = new EntityExtractor(words);
+        return parsedQueries.get(EntityExtractor.normalize(words), this::doParse);
+    }
+
+    /**
+     * Same result as {@link #parse(String)}; while the actor dictionary is not loaded the moviesCount
+     * of the shingles is read with concurrent KV lookups on the async bucket instead of one blocking read each.
+     */
+    public Observable<EntityExtractor> parseAsync(String words) {
+        return parseAsync(words, null);
+    }
+
+    /**
+     * @param profile records each KV lookup, may be null
+     */
+    public Observable<EntityExtractor> parseAsync(String words, QueryProfile profile) {
+        String normalizedQuery = EntityExtractor.normalize(words);
+        EntityExtractor cached = parsedQueries.getIfPresent(normalizedQuery);
+        if (cached != null) {
+            return Observable.just(cached);
+        }
+        if (actorNameDictionary.isLoaded()) {
+            return Observable.fromCallable(() -> parse(normalizedQuery));
+        }
+
+        EntityExtractor entityExtractor = correct(normalizedQuery);
+        extractCategories(entityExtractor);
+        AsyncBucket bucket = actorNameRepository.getCouchbaseOperations().getCouchbaseBucket().async();
+        List<Integer> shingles = getShingles(entityExtractor);
+        return Observable.from(shingles)
+                .concatMapEager(shingle -> {
+                    String id = getActorNameId(entityExtractor, shingle);
+                    long start = System.nanoTime();
+                    return actorLookups.execute(id, () -> pipelineMetrics.actorLookup(bucket.get(id)
+                            .map(document -> {
+                                Integer moviesCount = document.content().getInt("moviesCount");
+                                return moviesCount == null ? 0 : moviesCount;
+                            })
+                            .defaultIfEmpty(ActorNameDictionary.NOT_FOUND)))
+                            .doOnNext(moviesCount -> {
+                                if (profile != null) {
+                                    profile.lookup(id, start);
+                                }
+                            });
+                })
+                .toList()
+                .map(counts -> {
+                    addPersons(entityExtractor, shingles, counts);
+                    entityExtractor.freeze();
+                    parsedQueries.put(normalizedQuery, entityExtractor);
+                    return entityExtractor;
+                });
+    }
+
+    /**
+     * Misspelled words and names are corrected first, so a corrected name is found like a well-spelled one.
+     */
+    private EntityExtractor doParse(String normalizedQuery) {
+        EntityExtractor entityExtractor = correct(normalizedQuery);
 
         extractCategories(entityExtractor);
         extractEntities(entityExtractor);
+        return entityExtractor.freeze();
+    }
+
+    private EntityExtractor correct(String normalizedQuery) {
+        EntityExtractor entityExtractor = new EntityExtractor(spellingCorrector.correct(normalizedQuery));
+        if (spellingCorrector.isLoaded()) {
+            entityExtractor.spellChecked();
+        }
         return entityExtractor;
     }
 
 
     private void extractEntities(EntityExtractor entityExtractor) {
 
-        List<String> shingles = getShingles(entityExtractor.getWords());
-
-        for(String shingle: shingles) {
-            Optional<ActorName> actorName = actorNameRepository.findById(getActorNameId(shingle));
-            if(actorName.isPresent()) {
-                entityExtractor.addEntity(EntityExtractor.EntityType.PERSON, shingle);
-            }
-
+        List<Integer> shingles = getShingles(entityExtractor);
+        boolean loaded = actorNameDictionary.isLoaded();
+        List<Integer> counts = new ArrayList<>(shingles.size());
+        for(Integer shingle: shingles) {
+            String id = getActorNameId(entityExtractor, shingle);
+            counts.add(loaded ? actorNameDictionary.moviesCount(id) : findMoviesCount(id));
         }
-
+        addPersons(entityExtractor, shingles, counts);
     }
 
+    private int findMoviesCount(String id) {
+        return actorLookups.execute(id, () -> Observable.fromCallable(() -> actorNameRepository.findById(id)
+                .map(ActorName::getMoviesCount)
+                .orElse(ActorNameDictionary.NOT_FOUND)))
+                .toBlocking().single();
+    }
 
-    private static void extractCategories(EntityExtractor entityExtractor) {
+    /**
+     * Overlapping shingles ("tom hanks meg" -> "tom hanks", "hanks meg") are ambiguous, the name with
+     * more movies wins, whether the counts come from the dictionary or from the actorName documents.
+     *
+     * @param counts moviesCount of each shingle, {@link ActorNameDictionary#NOT_FOUND} if it names no actor
+     */
+    private static void addPersons(EntityExtractor entityExtractor, List<Integer> shingles, List<Integer> counts) {
+        List<Integer> found = new ArrayList<>();
+        for (int i = 0; i < shingles.size(); i++) {
+            if (counts.get(i) != ActorNameDictionary.NOT_FOUND) {
+                found.add(i);
+            }
+        }
+        Integer[] order = found.toArray(new Integer[0]);
+        Arrays.sort(order, (a, b) -> Integer.compare(counts.get(b), counts.get(a)));
 
-        for(String category: categories) {
-            if(entityExtractor.getWords().toLowerCase().matches("(?s).*\\b"+category.toLowerCase()+"\\b.*")) {
-                entityExtractor.addEntity(EntityExtractor.EntityType.GENRES, category );
+        boolean[] taken = new boolean[entityExtractor.getTokenCount()];
+        for (Integer i : order) {
+            int position = shingles.get(i);
+            if (!taken[position] && !taken[position + 1]) {
+                taken[position] = true;
+                taken[position + 1] = true;
+                addPerson(entityExtractor, position);
             }
         }
     }
 
-
-    private static List<String> getShingles(String words) {
-        String[] w = words.split(" ");
+    private static void addPerson(EntityExtractor entityExtractor, int position) {
+        entityExtractor.addEntity(EntityExtractor.EntityType.PERSON,
+                entityExtractor.getToken(position) + " " + entityExtractor.getToken(position + 1), position, position + 2);
+    }
 
 
-        if(w.length == 0 || w.length == 1 ) {
-            return new ArrayList<>();
+    private void extractCategories(EntityExtractor entityExtractor) {
 
-        } else if(w.length == 2) {
-            return  Arrays.asList(w[0]+ " " + w[1]);
-        } else {
-            List<String> shingles = new ArrayList<>();
+        List<Gazetteer.Match> matches = entityGazetteer.findLongest(entityExtractor.getOriginalQuery());
+        Set<String> genres = new LinkedHashSet<>();
+        for (Gazetteer.Match match : matches) {
+            if (match.getType() == EntityExtractor.EntityType.GENRES) {
+                genres.add(match.getTerm());
+            } else {
+                entityExtractor.tagEntity(match.getType(), match.getTerm());
+            }
+        }
+        // genres become filters, so they are removed from the words
+        for (String genre : genres) {
+            entityExtractor.addEntity(EntityExtractor.EntityType.GENRES, genre);
+        }
+    }
 
-            for (int i = 0; i < w.length - 1; i++) {
 
-                shingles.add(w[i] +" "+w[i+1]);
+    /**
+     * Positions of the adjacent token pairs that are still part of the words.
+     */
+    private static List<Integer> getShingles(EntityExtractor entityExtractor) {
+        List<Integer> shingles = new ArrayList<>();
+        for (int i = 0; i < entityExtractor.getTokenCount() - 1; i++) {
+            if (!entityExtractor.isRemoved(i) && !entityExtractor.isRemoved(i + 1)) {
+                shingles.add(i);
             }
-
-            return shingles;
         }
+        return shingles;
     }
 
 
-    private static String getActorNameId(String name) {
-        String prefix = "actorName-";
+    private static String getActorNameId(EntityExtractor entityExtractor, int position) {
+        String first = toAscii(entityExtractor.getToken(position));
+        String second = toAscii(entityExtractor.getToken(position + 1));
+
+        StringBuilder id = new StringBuilder(ACTOR_NAME_PREFIX.length() + first.length() + second.length() + 1);
+        id.append(ACTOR_NAME_PREFIX).append(first);
+        if (!first.isEmpty() && !second.isEmpty()) {
+            id.append('-');
+        }
+        return id.append(second).toString();
+    }
 
-        String newName = Normalizer
-                .normalize(name.toLowerCase(), Normalizer.Form.NFD)
-                .replaceAll("[^\\p{ASCII}]", "");
+    private static String toAscii(String token) {
+        boolean ascii = true;
+        for (int i = 0; i < token.length() && ascii; i++) {
+            ascii = token.charAt(i) < 128;
+        }
+        if (ascii) {
+            return token;
+        }
 
-        return prefix+Arrays.asList(newName.split(" "))
-                .stream()
-                .map(e-> e.trim())
-                .filter(e->!e.isEmpty())
-                .collect(Collectors.joining("-"));
+        String decomposed = Normalizer.normalize(token, Normalizer.Form.NFD);
+        StringBuilder stripped = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            if (decomposed.charAt(i) < 128) {
+                stripped.append(decomposed.charAt(i));
+            }
+        }
+        return stripped.toString();
     }
 }
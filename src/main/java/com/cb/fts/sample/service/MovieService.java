@@ -1,9 +1,50 @@
 package com.cb.fts.sample.service;
 
+import com.cb.fts.sample.entities.Movie;
 import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.ResultPage;
+
+import java.util.concurrent.CompletableFuture;
 
 public interface MovieService {
 
     Result searchQuery(String query, String genres);
 
+    /**
+     * Parses, searches and hydrates on the async bucket without holding the calling thread. The future
+     * completes exceptionally when the search fails.
+     */
+    CompletableFuture<Result> searchQueryAsync(String query, String genres);
+
+    /**
+     * @param profile bypasses the result cache and returns the timing breakdown of every stage
+     *                in {@link Result#getProfile()}
+     */
+    CompletableFuture<Result> searchQueryAsync(String query, String genres, boolean profile);
+
+    /**
+     * @param hydration how the movies of the results are read, see {@link MovieHydrator#modeFor}
+     */
+    CompletableFuture<Result> searchQueryAsync(String query, String genres, boolean profile,
+                                               MovieHydrator.HydrationMode hydration);
+
+    /**
+     * Runs the search with the given execution mode, bypassing the result cache.
+     */
+    CompletableFuture<Result> searchUncached(String query, String genres, SearchMode mode);
+
+    /**
+     * One page of a search. The first page runs the query for the top hits and keeps them in a
+     * short-lived snapshot; the cursor of the following pages is served from that snapshot.
+     *
+     * @param cursor null for the first page, otherwise the "next" cursor of the previous page,
+     *               in which case query, genres and size are taken from the cursor
+     */
+    CompletableFuture<ResultPage> searchPage(String query, String genres, String cursor, int size);
+
+    CompletableFuture<ResultPage> searchPage(String query, String genres, String cursor, int size,
+                                             MovieHydrator.HydrationMode hydration);
+
+    Movie getMovie(String id);
+
 }
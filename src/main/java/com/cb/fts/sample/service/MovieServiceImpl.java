@@ -1,5 +1,6 @@
 package com.cb.fts.sample.service;
 
+import com.cb.fts.sample.entities.Movie;
 import com.cb.fts.sample.entities.vo.*;
 import com.cb.fts.sample.repositories.MovieRepository;
 import com.couchbase.client.java.search.SearchQuery;
@@ -7,14 +8,17 @@ import com.couchbase.client.java.search.facet.SearchFacet;
 import com.couchbase.client.java.search.queries.*;
 import com.couchbase.client.java.search.result.SearchQueryResult;
 import com.couchbase.client.java.search.result.SearchQueryRow;
-import com.couchbase.client.java.search.result.facets.FacetResult;
-import com.couchbase.client.java.search.result.facets.TermFacetResult;
-import com.couchbase.client.java.search.result.facets.TermRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import rx.Observable;
 
-import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.cb.fts.sample.service.EntityExtractor.EntityType.GENRES;
@@ -23,44 +27,314 @@ import static com.cb.fts.sample.service.EntityExtractor.EntityType.PERSON;
 @Service
 public class MovieServiceImpl implements MovieService {
 
+    private static final Logger log = LoggerFactory.getLogger(MovieServiceImpl.class);
+
+    private static final String SHINGLE_INDEX = "movies_shingle";
+    // the hits returned by search12 and search13
+    private static final int SEARCH_SIZE = 20;
+    private static final String SNAPSHOT = "snapshot";
+
+    // facets of the exact-only query, cached apart from those of the fuzzy one
+    private static final String EXACT_KEY = "|exact";
+
     @Autowired
     private MovieRepository movieRepository;
 
     @Autowired
     private MovieQueryParser movieQueryParser;
 
+    @Autowired
+    private MovieHydrator movieHydrator;
+
+    @Autowired
+    private BoostQueryTemplates boostQueryTemplates;
+
+    @Autowired
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    private HitSnapshotCache hitSnapshotCache;
+
+    @Autowired
+    private FacetService facetService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private SlowQueryLog slowQueryLog;
+
+    @Autowired
+    private InMemorySearchIndex inMemorySearchIndex;
+
+    @Autowired
+    private Rescorer rescorer;
+
+    private final SingleFlight<String, Result> searches = new SingleFlight<>(() -> pipelineMetrics.coalesced("search"));
+
+    @Value("${couchflix.pagination.snapshot-size:200}")
+    private int snapshotSize;
+
+    @Value("${couchflix.pagination.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${couchflix.pagination.prefetch:true}")
+    private boolean prefetchNextPage;
+
+    @Value("${couchflix.search.mode:MONOLITHIC}")
+    private SearchMode searchMode;
+
+    @Value("${couchflix.search.engine:COUCHBASE}")
+    private SearchEngine searchEngine;
+
+    @Value("${couchflix.search.fuzziness:ALWAYS}")
+    private FuzzyMode fuzzyMode;
+
+    @Value("${couchflix.search.fuzzy.min-hits:5}")
+    private int fuzzyMinHits;
+
+    @Value("${couchflix.search.fuzzy.min-score:0}")
+    private double fuzzyMinScore;
+
+    @Value("${couchflix.search.static-rank:false}")
+    private boolean staticRank;
+
+    @Value("${couchflix.search.rescore:false}")
+    private boolean rescore;
+
+    @Value("${couchflix.rescore.window:200}")
+    private int rescoreWindow;
+
+    @Value("${couchflix.search.fanout.branch-limit:40}")
+    private int branchLimit;
+
+    @Value("${couchflix.search.fanout.branch-timeout-ms:800}")
+    private long branchTimeoutMs;
+
+    @Value("${couchflix.search.fanout.fusion:RRF}")
+    private RankFusion.Method fusionMethod;
+
     @Override
     public Result searchQuery(String phrase, String filters) {
+        return searchQueryAsync(phrase, filters).join();
+    }
+
+    @Override
+    public CompletableFuture<Result> searchQueryAsync(String phrase, String filters) {
+        return searchQueryAsync(phrase, filters, false);
+    }
+
+    @Override
+    public CompletableFuture<Result> searchQueryAsync(String phrase, String filters, boolean profile) {
+        return searchQueryAsync(phrase, filters, profile, movieHydrator.getMode());
+    }
+
+    @Override
+    public CompletableFuture<Result> searchQueryAsync(String phrase, String filters, boolean profile,
+                                                      MovieHydrator.HydrationMode hydration) {
         Map<String,List<String>> facets = getFilters(filters);
-        //return search11(phrase, facets);
-        return search12(phrase, facets);
+        String key = hydrationKey(SearchResultCache.key(phrase, facets), hydration);
+        String variant = variant(searchMode);
+        if (!profile) {
+            Result cached = searchResultCache.getIfPresent(key);
+            pipelineMetrics.cache(variant, SHINGLE_INDEX, cached != null);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        //search11 has no async variant
+        Supplier<Observable<Result>> search = () -> {
+            long start = System.nanoTime();
+            QueryProfile queryProfile = new QueryProfile(variant);
+            return searchAsync(phrase, facets, searchMode, hydration, queryProfile)
+                    .map(result -> {
+                        pipelineMetrics.searched(variant, SHINGLE_INDEX, start, result);
+                        // a fan-out result missing a branch is served, but the next search tries again
+                        if (!queryProfile.isDegraded()) {
+                            searchResultCache.put(key, result);
+                        }
+                        return profile(phrase, filters, result, queryProfile, profile);
+                    })
+                    .doOnError(e -> {
+                        pipelineMetrics.searchFailed(variant, SHINGLE_INDEX, start);
+                        log.warn("Search failed for \"{}\"", phrase, e);
+                    });
+        };
+        // identical searches arriving before the first one is cached share its execution,
+        // profiled searches run on their own to time every stage
+        return toFuture(profile ? search.get() : searches.execute(key, search));
+    }
+
+    @Override
+    public CompletableFuture<Result> searchUncached(String phrase, String filters, SearchMode mode) {
+        return toFuture(searchAsync(phrase, getFilters(filters), mode, movieHydrator.getMode(),
+                new QueryProfile(variant(mode))));
+    }
+
+    private Observable<Result> searchAsync(String phrase, Map<String, List<String>> facets, SearchMode mode,
+                                           MovieHydrator.HydrationMode hydration, QueryProfile profile) {
+        return mode == SearchMode.FANOUT ? search13Async(phrase, facets, hydration, profile)
+                : search12Async(phrase, facets, hydration, profile);
+    }
+
+    /**
+     * Results hydrated in another mode than the configured one are cached apart.
+     */
+    private String hydrationKey(String key, MovieHydrator.HydrationMode hydration) {
+        return hydration == movieHydrator.getMode() ? key : key + "|" + hydration;
+    }
+
+    private static String variant(SearchMode mode) {
+        return mode == SearchMode.FANOUT ? "search13" : "search12";
+    }
+
+    /**
+     * Searches slower than couchflix.profiling.slow-threshold-ms go to the slow query log. The time it
+     * takes to serialize their result is set in the profile when the response is written.
+     */
+    private Result profile(String phrase, String filters, Result result, QueryProfile queryProfile, boolean profile) {
+        boolean slow = slowQueryLog.isSlow(queryProfile.elapsedNanos());
+        if (!profile && !slow) {
+            return result;
+        }
+
+        SearchProfile searchProfile = queryProfile.toProfile(phrase, filters);
+        if (slow) {
+            slowQueryLog.add(searchProfile);
+        }
+        Result profiled = new Result(result.getResults(), result.getFacets(), profile ? searchProfile : null);
+        profiled.setTimedProfile(searchProfile);
+        return profiled;
+    }
+
+    @Override
+    public CompletableFuture<ResultPage> searchPage(String phrase, String filters, String cursor, int size) {
+        return searchPage(phrase, filters, cursor, size, movieHydrator.getMode());
+    }
+
+    @Override
+    public CompletableFuture<ResultPage> searchPage(String phrase, String filters, String cursor, int size,
+                                                    MovieHydrator.HydrationMode hydration) {
+        PageCursor page = cursor != null ? PageCursor.decode(cursor, maxPageSize)
+                : new PageCursor(phrase, filters, 0, Math.max(1, Math.min(size, maxPageSize)));
+        Map<String,List<String>> facets = getFilters(page.getFilters());
+        String key = SearchResultCache.key(page.getPhrase(), facets);
+
+        return hitSnapshotCache.get(key, () -> toFuture(searchSnapshot(page.getPhrase(), facets)))
+                .thenCompose(snapshot -> {
+                    List<QueryStats> hits = slice(snapshot, page);
+                    CompletableFuture<Map<String, Movie>> movies = cursor != null
+                            ? hitSnapshotCache.takePrefetched(hydrationKey(cursor, hydration)) : null;
+                    if (movies == null) {
+                        movies = toFuture(hydrateAsync(statsIds(hits), hydration, new QueryProfile(SNAPSHOT)));
+                    }
+
+                    String next = null;
+                    if (page.getOffset() + page.getSize() < snapshot.getHits().size()) {
+                        PageCursor nextPage = page.next();
+                        next = nextPage.encode();
+                        if (prefetchNextPage) {
+                            hitSnapshotCache.putPrefetched(hydrationKey(next, hydration), toFuture(hydrateAsync(
+                                    statsIds(slice(snapshot, nextPage)), hydration, new QueryProfile(SNAPSHOT))));
+                        }
+                    }
+
+                    String nextCursor = next;
+                    return movies.thenApply(hydrated -> {
+                        List<SearchResult> results = new ArrayList<>();
+                        for (QueryStats stats : hits) {
+                            Movie movie = hydrated.get(stats.getId());
+                            if (movie != null) {
+                                results.add(new SearchResult(movie, stats));
+                            }
+                        }
+                        return new ResultPage(results, snapshot.getFacets(), snapshot.getHits().size(), nextCursor);
+                    });
+                });
+    }
+
+    /**
+     * Runs the scoring query once for the top couchflix.pagination.snapshot-size hits, keeping only
+     * their ids, scores and fragments.
+     */
+    private Observable<HitSnapshot> searchSnapshot(String words, Map<String, List<String>> facets) {
+        QueryProfile profile = new QueryProfile(SNAPSHOT);
+        return parseAsync(words, profile)
+                .flatMap(entityExtractor -> searchPage12(words, facets, entityExtractor, snapshotSize, profile))
+                .map(page -> {
+                    List<QueryStats> hits = new ArrayList<>(page.hits.size());
+                    for (SearchQueryRow row : page.hits) {
+                        hits.add(new QueryStats(hits.size() + 1, row));
+                    }
+                    return new HitSnapshot(hits, page.facets);
+                });
+    }
+
+    /**
+     * @throws IllegalArgumentException if the page starts beyond the snapshot
+     */
+    private static List<QueryStats> slice(HitSnapshot snapshot, PageCursor page) {
+        List<QueryStats> hits = snapshot.getHits();
+        if (page.getOffset() > hits.size()) {
+            throw new IllegalArgumentException("Invalid cursor: offset " + page.getOffset()
+                    + " is beyond the " + hits.size() + " hits of the search");
+        }
+        int from = page.getOffset();
+        return hits.subList(from, Math.min(from + page.getSize(), hits.size()));
+    }
+
+    private static List<String> statsIds(List<QueryStats> hits) {
+        return hits.stream().map(QueryStats::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    public Movie getMovie(String id) {
+        if (searchEngine == SearchEngine.MEMORY) {
+            return inMemorySearchIndex.getMovie(id);
+        }
+        try {
+            return movieRepository.findById(id).orElse(null);
+        } catch (RuntimeException e) {
+            if (searchEngine != SearchEngine.FAILOVER) {
+                throw e;
+            }
+            log.warn("Reading movie {} from the in-memory index: {}", id, e.toString());
+            return inMemorySearchIndex.getMovie(id);
+        }
     }
 
     private Result search1(String word){
+        return getSearchResults(execute(buildSearch1(word)));
+    }
+
+    SearchQuery buildSearch1(String word){
         String indexName = "movies_all_index";
         QueryStringQuery simpleQuery = SearchQuery.queryString(word);
 
         SearchQuery query = new SearchQuery(indexName, simpleQuery).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
     private Result search2(String word){
+        return getSearchResults(execute(buildSearch2(word)));
+    }
+
+    SearchQuery buildSearch2(String word){
         String indexName = "movies_all_index";
         DisjunctionQuery title = getDisjunction(word, "title");
 
         SearchQuery query = new SearchQuery(indexName, title).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
     private Result search3(String word){
+        return getSearchResults(execute(buildSearch3(word)));
+    }
+
+    SearchQuery buildSearch3(String word){
         String indexName = "movies_all_index";
         DisjunctionQuery title = getDisjunction(word, "title");
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -69,13 +343,14 @@ public class MovieServiceImpl implements MovieService {
         DisjunctionQuery fts = SearchQuery.disjuncts(title, overview, originalTitle);
 
         SearchQuery query = new SearchQuery(indexName, fts).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
     private Result search4(String word){
+        return getSearchResults(execute(buildSearch4(word)));
+    }
+
+    SearchQuery buildSearch4(String word){
         String indexName = "movies_shingle";
         DisjunctionQuery title = getDisjunction(word, "title");
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -84,13 +359,14 @@ public class MovieServiceImpl implements MovieService {
         DisjunctionQuery fts = SearchQuery.disjuncts(title, overview, originalTitle);
 
         SearchQuery query = new SearchQuery(indexName, fts).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
     private Result search5(String word){
+        return getSearchResults(execute(buildSearch5(word)));
+    }
+
+    SearchQuery buildSearch5(String word){
         String indexName = "movies_shingle";
         DisjunctionQuery title = getDisjunction(word, "title", 1.4);
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -98,18 +374,18 @@ public class MovieServiceImpl implements MovieService {
 
         DisjunctionQuery fts = SearchQuery.disjuncts(title, overview, originalTitle);
 
-        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(fts, boostReleaseYearQuery());
+        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(fts, boostQueryTemplates.boostReleaseYearQuery());
 
         SearchQuery query = new SearchQuery(indexName, conjunctionQuery).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
-
     private Result search8(String word){
+        return getSearchResults(execute(buildSearch8(word)));
+    }
+
+    SearchQuery buildSearch8(String word){
         String indexName = "movies_shingle";
         DisjunctionQuery title = getDisjunction(word, "title", 1.4);
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -118,22 +394,23 @@ public class MovieServiceImpl implements MovieService {
         DisjunctionQuery fts = SearchQuery.disjuncts(title, overview, originalTitle);
 
         ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(fts,
-                boostReleaseYearQuery(),
-                boostPopularity(),
-                boostPromoted(),
-                boostRuntime(),
-                boostWeightedRating()
+                boostQueryTemplates.boostReleaseYearQuery(),
+                boostQueryTemplates.boostPopularity(),
+                boostQueryTemplates.boostPromoted(),
+                boostQueryTemplates.boostRuntime(),
+                boostQueryTemplates.boostWeightedRating()
         );
 
         SearchQuery query = new SearchQuery(indexName, conjunctionQuery).highlight().limit(30);
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
     private Result search9(String word, Map<String, List<String>> facets){
+        return getSearchResults(execute(buildSearch9(word, facets)));
+    }
+
+    SearchQuery buildSearch9(String word, Map<String, List<String>> facets){
         String indexName = "movies_shingle";
         DisjunctionQuery title = getDisjunction(word, "title", 1.4);
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -142,11 +419,11 @@ public class MovieServiceImpl implements MovieService {
         DisjunctionQuery fts = SearchQuery.disjuncts(title, overview, originalTitle);
 
         ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(fts,
-                boostReleaseYearQuery(),
-                boostPopularity(),
-                boostPromoted(),
-                boostRuntime(),
-                boostWeightedRating()
+                boostQueryTemplates.boostReleaseYearQuery(),
+                boostQueryTemplates.boostPopularity(),
+                boostQueryTemplates.boostPromoted(),
+                boostQueryTemplates.boostRuntime(),
+                boostQueryTemplates.boostWeightedRating()
         );
 
         if(!facets.isEmpty()) {
@@ -155,14 +432,15 @@ public class MovieServiceImpl implements MovieService {
 
         SearchQuery query = new SearchQuery(indexName, conjunctionQuery).highlight().limit(30);
         query.addFacet("genres", SearchFacet.term("genres.name", 10));
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
     private Result search10(String word, Map<String, List<String>> facets){
+        return getSearchResults(execute(buildSearch10(word, facets)));
+    }
+
+    SearchQuery buildSearch10(String word, Map<String, List<String>> facets){
         String indexName = "movies_shingle";
         DisjunctionQuery title = getDisjunction(word, "title", 1.4);
         DisjunctionQuery overview = getDisjunction(word, "overview");
@@ -173,11 +451,11 @@ public class MovieServiceImpl implements MovieService {
                 );
 
         ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(fts,
-                boostReleaseYearQuery(),
-                boostPopularity(),
-                boostPromoted(),
-                boostRuntime(),
-                boostWeightedRating()
+                boostQueryTemplates.boostReleaseYearQuery(),
+                boostQueryTemplates.boostPopularity(),
+                boostQueryTemplates.boostPromoted(),
+                boostQueryTemplates.boostRuntime(),
+                boostQueryTemplates.boostWeightedRating()
         );
 
         if(!facets.isEmpty()) {
@@ -186,18 +464,16 @@ public class MovieServiceImpl implements MovieService {
 
         SearchQuery query = new SearchQuery(indexName, conjunctionQuery).highlight().limit(30);
         query.addFacet("genres", SearchFacet.term("genres.name", 10));
-        SearchQueryResult result = movieRepository.getCouchbaseOperations()
-                .getCouchbaseBucket()
-                .query(query);
-        return  getSearchResults(result);
+        return query;
     }
 
 
-
     private Result search11(String words, Map<String, List<String>> facets){
-        String indexName = "movies_shingle";
+        return getSearchResults(execute(buildSearch11(words, facets, movieQueryParser.parse(words))));
+    }
 
-        EntityExtractor entityExtractor = movieQueryParser.parse(words);
+    SearchQuery buildSearch11(String words, Map<String, List<String>> facets, EntityExtractor entityExtractor){
+        String indexName = "movies_shingle";
 
         DisjunctionQuery ftsQuery = new DisjunctionQuery();
         if(entityExtractor.getWords().trim().length() >0) {
@@ -213,12 +489,12 @@ public class MovieServiceImpl implements MovieService {
         }
 
 
-        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(ftsQuery,
-                boostReleaseYearQuery(),
-                boostRuntime(),
-                boostPromoted(),
-                boostWeightedRating(),
-                boostPopularity());
+        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(orMatchAll(ftsQuery),
+                boostQueryTemplates.boostReleaseYearQuery(),
+                boostQueryTemplates.boostRuntime(),
+                boostQueryTemplates.boostPromoted(),
+                boostQueryTemplates.boostWeightedRating(),
+                boostQueryTemplates.boostPopularity());
 
         if(entityExtractor.getEntities().containsKey(GENRES)) {
             addFilters(conjunctionQuery, "genres.name", entityExtractor.getEntities().get(GENRES));
@@ -228,94 +504,243 @@ public class MovieServiceImpl implements MovieService {
             conjunctionQuery = addFacetFilters(conjunctionQuery, facets);
         }
 
-
-        System.out.println("===================================================");
-        System.out.println(entityExtractor);
-        System.out.println("===================================================");
+        log.debug("Parsed query: {}", entityExtractor);
 
         SearchQuery searchQuery =  new SearchQuery(indexName, conjunctionQuery).highlight().limit(20);
         searchQuery.addFacet("genres",  SearchFacet.term("genres.name", 10));
-        SearchQueryResult result = movieRepository.getCouchbaseOperations().getCouchbaseBucket().query(searchQuery);
-        return getSearchResults(result);
+        return searchQuery;
     }
 
 
-
     private Result search12(String words, Map<String, List<String>> facets){
-        String indexName = "movies_shingle";
-
-        EntityExtractor entityExtractor = movieQueryParser.parse(words);
+        return search12Async(words, facets, movieHydrator.getMode(), new QueryProfile("search12")).toBlocking().single();
+    }
 
-        DisjunctionQuery ftsQuery = new DisjunctionQuery();
-        if(entityExtractor.getWords().trim().length() >0) {
-            ftsQuery.or(getDisjunction(entityExtractor.getWords(), "title", 1.4));
-            ftsQuery.or( getDisjunction(entityExtractor.getWords(), "originalTitle", 1.15));
-            ftsQuery.or(getDisjunction(entityExtractor.getWords(), "collection.name", 1.1));
-            ftsQuery.or( getDisjunction(entityExtractor.getWords(), "overview"));
-        }
+    /**
+     * The ranking query and the facet counting query run concurrently, then the hits are hydrated.
+     */
+    private Observable<Result> search12Async(String words, Map<String, List<String>> facets,
+                                             MovieHydrator.HydrationMode hydration, QueryProfile profile){
+        return parseAsync(words, profile)
+                .flatMap(entityExtractor -> searchPage12(words, facets, entityExtractor, SEARCH_SIZE, profile))
+                .flatMap(page -> hydrateAsync(ids(page.hits), hydration, profile)
+                        .map(hydrated -> toResult(page, hydrated, profile)));
+    }
 
-        DisjunctionQuery actors = getActorsDisjunctionAdjusted(words, entityExtractor);
-        if(actors!= null) {
-            ftsQuery.or(actors);
+    /**
+     * The hits and facets of search12. With couchflix.search.fuzziness=ADAPTIVE the exact matches run
+     * first, and the fuzzy query replaces them only when they return fewer than couchflix.search.fuzzy.min-hits
+     * hits or a top score under couchflix.search.fuzzy.min-score; the decision is counted in
+     * {@link PipelineMetrics#fuzziness}. The facets are only counted for the query that was kept, so a
+     * fuzzy fallback costs three FTS requests instead of four. Queries checked by the spelling corrector
+     * only run the exact matches, in both modes.
+     */
+    private Observable<SearchPage> searchPage12(String words, Map<String, List<String>> facets,
+                                                EntityExtractor entityExtractor, int limit, QueryProfile profile) {
+        String key = SearchResultCache.key(words, facets);
+        Observable<SearchPage> fuzzy = Observable.defer(() -> Observable.zip(
+                rankedHitsAsync(buildSearch12(words, facets, entityExtractor, true), limit, profile),
+                facetsAsync(key, buildFacetQuery12(words, facets, entityExtractor, true), profile),
+                SearchPage::new));
+        if (!hasText(entityExtractor)) {
+            return fuzzy;
         }
-
-
-        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(ftsQuery,
-                boostReleaseYearQuery(),
-                boostRuntime(),
-                boostPromoted(),
-                boostWeightedRating(),
-                boostPopularity());
-
-        if(entityExtractor.getEntities().containsKey(GENRES)) {
-            addFilters(conjunctionQuery, "genres.name", entityExtractor.getEntities().get(GENRES));
+        if (entityExtractor.isSpellChecked()) {
+            pipelineMetrics.fuzziness(profile.getVariant(), SHINGLE_INDEX, "spell-checked");
+            return Observable.zip(
+                    rankedHitsAsync(buildSearch12(words, facets, entityExtractor, false), limit, profile),
+                    facetsAsync(key + EXACT_KEY, buildFacetQuery12(words, facets, entityExtractor, false), profile),
+                    SearchPage::new);
         }
-
-        if(!facets.isEmpty()) {
-            conjunctionQuery = addFacetFilters(conjunctionQuery, facets);
+        if (fuzzyMode == FuzzyMode.ALWAYS) {
+            return fuzzy;
         }
+        return rankedHitsAsync(buildSearch12(words, facets, entityExtractor, false), limit, profile)
+                .flatMap(exact -> {
+                    String decision = exact.isEmpty() || exact.size() < Math.min(fuzzyMinHits, limit) ? "few-hits"
+                            : exact.get(0).score() < fuzzyMinScore ? "low-score" : "exact";
+                    pipelineMetrics.fuzziness(profile.getVariant(), SHINGLE_INDEX, decision);
+                    if (!"exact".equals(decision)) {
+                        return fuzzy;
+                    }
+                    return facetsAsync(key + EXACT_KEY, buildFacetQuery12(words, facets, entityExtractor, false), profile)
+                            .map(counted -> new SearchPage(exact, counted));
+                });
+    }
 
+    /**
+     * Whether the query has words or people to match, the only clauses that can be fuzzy.
+     */
+    private static boolean hasText(EntityExtractor entityExtractor) {
+        return !entityExtractor.getWords().trim().isEmpty() || entityExtractor.getEntities().containsKey(PERSON);
+    }
 
-        System.out.println("===================================================");
-        System.out.println(entityExtractor);
-        System.out.println("===================================================");
-
-        SearchQuery searchQuery =  new SearchQuery(indexName, conjunctionQuery).highlight().limit(20);
-        searchQuery.addFacet("genres",  SearchFacet.term("genres.name", 10));
-        SearchQueryResult result = movieRepository.getCouchbaseOperations().getCouchbaseBucket().query(searchQuery);
-        return getSearchResults(result);
+    /**
+     * Fan-out variant of search12: the title/collection, overview and people clauses run as independent
+     * searches with a small limit each, next to the facet query. A branch that fails or exceeds
+     * couchflix.search.fanout.branch-timeout-ms is dropped, the others are fused, and the result is
+     * marked degraded so it is not cached.
+     */
+    private Observable<Result> search13Async(String words, Map<String, List<String>> facets,
+                                             MovieHydrator.HydrationMode hydration, QueryProfile profile){
+        String key = SearchResultCache.key(words, facets);
+        return parseAsync(words, profile)
+                .flatMap(entityExtractor -> {
+                    List<Observable<List<SearchQueryRow>>> branches = new ArrayList<>();
+                    List<Double> weights = new ArrayList<>();
+
+                    if(entityExtractor.getWords().trim().length() >0) {
+                        DisjunctionQuery titles = SearchQuery.disjuncts(
+                                getDisjunction(entityExtractor.getWords(), "title", 1.4),
+                                getDisjunction(entityExtractor.getWords(), "originalTitle", 1.15),
+                                getDisjunction(entityExtractor.getWords(), "collection.name", 1.1));
+                        branches.add(branch("title", buildBranch13(titles, facets, entityExtractor), profile));
+                        weights.add(1.2);
+
+                        branches.add(branch("overview", buildBranch13(getDisjunction(entityExtractor.getWords(), "overview"),
+                                facets, entityExtractor), profile));
+                        weights.add(0.8);
+                    }
+
+                    DisjunctionQuery actors = getActorsDisjunctionAdjusted(words, entityExtractor);
+                    if(actors != null) {
+                        branches.add(branch("people", buildBranch13(actors, facets, entityExtractor), profile));
+                        weights.add(1.0);
+                    }
+
+                    Observable<List<Facet>> facetList = facetsAsync(key,
+                            buildFacetQuery12(words, facets, entityExtractor), profile);
+                    if(branches.isEmpty()) {
+                        branches.add(branch("all", buildBranch13(SearchQuery.matchAll(), facets, entityExtractor), profile));
+                        weights.add(1.0);
+                    }
+
+                    double[] branchWeights = weights.stream().mapToDouble(Double::doubleValue).toArray();
+                    // the branches run concurrently, their rankings are collected in branch order
+                    Observable<List<SearchQueryRow>> fused = Observable.concatEager(branches)
+                            .toList()
+                            .map(rankings -> RankFusion.fuse(rankings, branchWeights, fusionMethod, SEARCH_SIZE));
+                    return Observable.zip(fused, facetList, SearchPage::new);
+                })
+                .flatMap(page -> hydrateAsync(ids(page.hits), hydration, profile)
+                        .map(hydrated -> toResult(page, hydrated, profile)));
     }
 
+    SearchQuery buildBranch13(AbstractFtsQuery textQuery, Map<String, List<String>> facets, EntityExtractor entityExtractor){
+        ConjunctionQuery conjunctionQuery = withBoosts12(textQuery);
+        addFilters12(conjunctionQuery, facets, entityExtractor);
+        return new SearchQuery(SHINGLE_INDEX, conjunctionQuery).highlight().limit(branchLimit);
+    }
 
+    private Observable<List<SearchQueryRow>> branch(String name, SearchQuery searchQuery, QueryProfile profile) {
+        return rankedHitsAsync(searchQuery, branchLimit, profile)
+                .timeout(branchTimeoutMs, TimeUnit.MILLISECONDS)
+                .onErrorReturn(e -> {
+                    log.warn("Dropping the {} branch of the search: {}", name, e.toString());
+                    profile.degraded();
+                    return new ArrayList<>();
+                });
+    }
 
+    SearchQuery buildSearch12(String words, Map<String, List<String>> facets, EntityExtractor entityExtractor){
+        return buildSearch12(words, facets, entityExtractor, true);
+    }
 
+    SearchQuery buildSearch12(String words, Map<String, List<String>> facets, EntityExtractor entityExtractor, boolean fuzzy){
 
+        ConjunctionQuery conjunctionQuery = withBoosts12(buildTextQuery12(words, entityExtractor, fuzzy));
+        addFilters12(conjunctionQuery, facets, entityExtractor);
 
+        log.debug("Parsed query: {}", entityExtractor);
 
+        return new SearchQuery(SHINGLE_INDEX, conjunctionQuery).highlight().limit(SEARCH_SIZE);
+    }
 
+    /**
+     * The static boosts of the movies, either as range disjunctions on each field or, with
+     * couchflix.search.static-rank, as a single one on the precomputed staticRank. With
+     * couchflix.search.rescore the FTS service only scores the text, see {@link #rankedHitsAsync}.
+     */
+    private ConjunctionQuery withBoosts12(AbstractFtsQuery textQuery){
+        if(rescore) {
+            return SearchQuery.conjuncts(textQuery);
+        }
+        if(staticRank) {
+            return SearchQuery.conjuncts(textQuery, boostQueryTemplates.boostStaticRank());
+        }
+        return SearchQuery.conjuncts(textQuery,
+                boostQueryTemplates.boostReleaseYearQuery(),
+                boostQueryTemplates.boostRuntime(),
+                boostQueryTemplates.boostPromoted(),
+                boostQueryTemplates.boostWeightedRating(),
+                boostQueryTemplates.boostPopularity());
+    }
 
+    /**
+     * Same matches as {@link #buildSearch12}, without the boosts that only affect the ranking.
+     */
+    ConjunctionQuery buildFacetQuery12(String words, Map<String, List<String>> facets, EntityExtractor entityExtractor){
+        return buildFacetQuery12(words, facets, entityExtractor, true);
+    }
 
-    private DisjunctionQuery boostPromoted() {
-        BooleanFieldQuery promotedQuery = SearchQuery.booleanField(true).field("promoted").boost(1.5);
-        BooleanFieldQuery notPromotedQuery = SearchQuery.booleanField(false).field("promoted").boost(1);
-        return SearchQuery.disjuncts(promotedQuery, notPromotedQuery);
+    ConjunctionQuery buildFacetQuery12(String words, Map<String, List<String>> facets, EntityExtractor entityExtractor, boolean fuzzy){
+        ConjunctionQuery conjunctionQuery = SearchQuery.conjuncts(buildTextQuery12(words, entityExtractor, fuzzy));
+        addFilters12(conjunctionQuery, facets, entityExtractor);
+        return conjunctionQuery;
     }
 
+    private AbstractFtsQuery buildTextQuery12(String words, EntityExtractor entityExtractor, boolean fuzzy){
+        DisjunctionQuery ftsQuery = new DisjunctionQuery();
+        if(entityExtractor.getWords().trim().length() >0) {
+            ftsQuery.or(getDisjunction(entityExtractor.getWords(), "title", 1.4, fuzzy));
+            ftsQuery.or( getDisjunction(entityExtractor.getWords(), "originalTitle", 1.15, fuzzy));
+            ftsQuery.or(getDisjunction(entityExtractor.getWords(), "collection.name", 1.1, fuzzy));
+            ftsQuery.or( getDisjunction(entityExtractor.getWords(), "overview", 1, fuzzy));
+        }
 
+        DisjunctionQuery actors = getActorsDisjunctionAdjusted(words, entityExtractor, fuzzy);
+        if(actors!= null) {
+            ftsQuery.or(actors);
+        }
+        return orMatchAll(ftsQuery);
+    }
 
+    /**
+     * Queries made only of filters ("comedy family") leave no text clause, the FTS service rejects
+     * an empty disjunction so every movie matches and the boosts rank them.
+     */
+    private static AbstractFtsQuery orMatchAll(DisjunctionQuery ftsQuery){
+        return ftsQuery.childQueries().isEmpty() ? SearchQuery.matchAll() : ftsQuery;
+    }
 
+    private void addFilters12(ConjunctionQuery conjunctionQuery, Map<String, List<String>> facets, EntityExtractor entityExtractor){
+        if(entityExtractor.getEntities().containsKey(GENRES)) {
+            addFilters(conjunctionQuery, "genres.name", entityExtractor.getEntities().get(GENRES));
+        }
 
+        if(!facets.isEmpty()) {
+            addFacetFilters(conjunctionQuery, facets);
+        }
+    }
 
 
     private ConjunctionQuery addFacetFilters(ConjunctionQuery conjunctionQuery , Map<String, List<String>> facets) {
 
         for(Map.Entry<String, List<String>> entry: facets.entrySet()) {
-            if("genres".equals(entry.getKey())) {
-                addFilters(conjunctionQuery, "genres.name", entry.getValue());
-            } else if("collection".equals(entry.getKey())) {
-                addFilters(conjunctionQuery, "collection.name", entry.getValue());
-            } else if("year".equals(entry.getKey())) {
-                addFilters(conjunctionQuery, "release_year", entry.getValue());
+            if(FacetService.GENRES.equals(entry.getKey())) {
+                addFilters(conjunctionQuery, FacetService.GENRES_FIELD, entry.getValue());
+            } else if(FacetService.COLLECTION.equals(entry.getKey())) {
+                addFilters(conjunctionQuery, FacetService.COLLECTION_FIELD, entry.getValue());
+            } else if(FacetService.LANGUAGE.equals(entry.getKey())) {
+                addFilters(conjunctionQuery, FacetService.LANGUAGE_FIELD, entry.getValue());
+            } else if(FacetService.YEAR.equals(entry.getKey())) {
+                // values are either facet ranges ("1990s") or single years
+                DisjunctionQuery years = SearchQuery.disjuncts();
+                for(String value : entry.getValue()) {
+                    NumericRangeQuery range = FacetService.yearRange(value);
+                    years.or(range != null ? range : SearchQuery.term(value).field("release_year"));
+                }
+                conjunctionQuery.and(years);
             }
         }
         return conjunctionQuery;
@@ -373,15 +798,19 @@ public class MovieServiceImpl implements MovieService {
     }
 
     private DisjunctionQuery getActorsDisjunctionAdjusted(String words, EntityExtractor entityExtractor) {
+        return getActorsDisjunctionAdjusted(words, entityExtractor, true);
+    }
+
+    private DisjunctionQuery getActorsDisjunctionAdjusted(String words, EntityExtractor entityExtractor, boolean fuzzy) {
 
         if(entityExtractor != null && entityExtractor.getEntities().keySet().contains(PERSON)) {
             List<String> names = entityExtractor.getEntities().get(PERSON);
             if(names.size() ==1) {
-                return getDisjunction(names.get(0), "castAdjusted.name", 1.5 );
+                return getDisjunction(names.get(0), "castAdjusted.name", 1.5, fuzzy);
             } else {
                 DisjunctionQuery dq = new DisjunctionQuery();
                 for(String name: names){
-                    dq.or(getDisjunction(name, "castAdjusted.name", 1.5 ));
+                    dq.or(getDisjunction(name, "castAdjusted.name", 1.5, fuzzy));
                 }
                 return dq;
             }
@@ -389,7 +818,7 @@ public class MovieServiceImpl implements MovieService {
             if (entityExtractor.getWords().trim().isEmpty()) {
                 return null;
             }
-            DisjunctionQuery castQuery = getDisjunction(words, "castAdjusted.name", 1.15);
+            DisjunctionQuery castQuery = getDisjunction(words, "castAdjusted.name", 1.15, fuzzy);
             MatchQuery character = SearchQuery.match(words).field("castAdjusted.character");
             return SearchQuery.disjuncts(castQuery, character);
         }
@@ -418,154 +847,217 @@ public class MovieServiceImpl implements MovieService {
         }
     }
 
-    private DisjunctionQuery boostPopularity() {
-        NumericRangeQuery rangeQuery = SearchQuery.numericRange().field("popularity").boost(1.25);
-        rangeQuery.max(1000);
-        rangeQuery.min(40);
-
-        NumericRangeQuery rangeQuery2 = SearchQuery.numericRange().field("popularity").boost(1.20);
-        rangeQuery2.max(39.9999);
-        rangeQuery2.min(30);
-
-        NumericRangeQuery rangeQuery3 = SearchQuery.numericRange().field("popularity").boost(1.10);
-        rangeQuery3.max(29.9999);
-        rangeQuery3.min(10);
-
-        NumericRangeQuery rangeQuery4 = SearchQuery.numericRange().field("popularity").boost(0.90);
-        rangeQuery4.max(9.9999);
-        rangeQuery4.min(4);
 
-        NumericRangeQuery rangeQuery5 = SearchQuery.numericRange().field("popularity").boost(0.80);
-        rangeQuery5.max(3.9999);
-        rangeQuery5.min(0);
-
-        DisjunctionQuery yearDisjunction = SearchQuery.disjuncts(rangeQuery, rangeQuery2, rangeQuery3, rangeQuery4, rangeQuery5 );
-        return yearDisjunction;
+    private DisjunctionQuery getDisjunction(String words, String field) {
+        MatchQuery query = SearchQuery.match(words).field(field);
+        MatchQuery queryFuzzy = SearchQuery.match(words).field(field).fuzziness(1);
+        return SearchQuery.disjuncts(query, queryFuzzy);
     }
 
-    private DisjunctionQuery boostReleaseYearQuery() {
-
-        LocalDateTime now = LocalDateTime.now();
-        NumericRangeQuery rangeQuery = SearchQuery.numericRange().field("release_year").boost(1.35);
-        rangeQuery.max(now.getYear());
-        rangeQuery.min(now.getYear()-4);
 
-        NumericRangeQuery penalizationQuery = SearchQuery.numericRange().field("release_year").boost(1.15);
-        penalizationQuery.max(now.getYear()-5);
-        penalizationQuery.min(now.getYear()-10);
-
-        NumericRangeQuery penalization1Query = SearchQuery.numericRange().field("release_year").boost(1);
-        penalization1Query.max(now.getYear()-9);
-        penalization1Query.min(now.getYear()-15);
-
-        NumericRangeQuery penalization2Query = SearchQuery.numericRange().field("release_year").boost(0.92);
-        penalization2Query.max(now.getYear()-16);
-        penalization2Query.min(now.getYear()-25);
-
-        NumericRangeQuery penalization3Query = SearchQuery.numericRange().field("release_year").boost(0.85);
-        penalization3Query.max(now.getYear()-25);
-        penalization3Query.min(0);
-
-        DisjunctionQuery yearDisjunction = SearchQuery.disjuncts(rangeQuery, penalizationQuery, penalization1Query, penalization2Query, penalization3Query );
+    private DisjunctionQuery getDisjunction(String words, String field, double boost) {
+        MatchQuery query = SearchQuery.match(words).boost(boost).field(field);
+        MatchQuery queryFuzzy = SearchQuery.match(words).boost(boost).field(field)
+                .fuzziness(1);
 
-        return yearDisjunction;
+        return SearchQuery.disjuncts(query, queryFuzzy);
     }
 
-    private DisjunctionQuery boostRuntime() {
-
-        NumericRangeQuery runtime1 = SearchQuery.numericRange().field("runtime").boost(1.25);
-        runtime1.max(5000);
-        runtime1.min(360);
-
-        NumericRangeQuery runtime2 = SearchQuery.numericRange().field("runtime").boost(1.17);
-        runtime2.max(359);
-        runtime2.min(100);
-
-        NumericRangeQuery runtime3 = SearchQuery.numericRange().field("runtime").boost(0.90);
-        runtime3.max(99);
-        runtime3.min(40);
-
-        NumericRangeQuery runtime4 = SearchQuery.numericRange().field("runtime").boost(0.75);
-        runtime4.max(39);
-        runtime4.min(0);
+    /**
+     * The exact match alone when not fuzzy; a boost of 1 is left out of the query like in the overloads above.
+     */
+    private DisjunctionQuery getDisjunction(String words, String field, double boost, boolean fuzzy) {
+        if(fuzzy) {
+            return boost == 1 ? getDisjunction(words, field) : getDisjunction(words, field, boost);
+        }
+        MatchQuery query = SearchQuery.match(words).field(field);
+        if(boost != 1) {
+            query.boost(boost);
+        }
+        return SearchQuery.disjuncts(query);
+    }
 
-        DisjunctionQuery runtimeDisjunction = SearchQuery.disjuncts(runtime1, runtime2, runtime3, runtime4 );
 
-        return runtimeDisjunction;
+    private SearchQueryResult execute(SearchQuery searchQuery) {
+        if (searchEngine == SearchEngine.MEMORY) {
+            return inMemorySearchIndex.search(searchQuery);
+        }
+        try {
+            return movieRepository.getCouchbaseOperations().getCouchbaseBucket().query(searchQuery);
+        } catch (RuntimeException e) {
+            if (searchEngine != SearchEngine.FAILOVER) {
+                throw e;
+            }
+            log.warn("Running {} on the in-memory index: {}", searchQuery.indexName(), e.toString());
+            return inMemorySearchIndex.search(searchQuery);
+        }
     }
 
-    private DisjunctionQuery boostWeightedRating() {
-
-        NumericRangeQuery weightedRating1 = SearchQuery.numericRange().field("weightedRating").boost(1.25);
-        weightedRating1.max(10);
-        weightedRating1.min(7);
+    Result getSearchResults(SearchQueryResult result){
 
-        NumericRangeQuery weightedRating2 = SearchQuery.numericRange().field("weightedRating").boost(1.10);
-        weightedRating2.max(6.9999);
-        weightedRating2.min(5);
+        if (result == null || !result.errors().isEmpty()) {
+            return toResult(new ArrayList<>(), new HashMap<>(), result != null ? FacetService.toFacets(result.facets()) : null);
+        }
+        List<SearchQueryRow> rows = result.hits();
+        return toResult(rows, movieHydrator.hydrate(ids(rows)), FacetService.toFacets(result.facets()));
+    }
 
-        NumericRangeQuery weightedRating3 = SearchQuery.numericRange().field("weightedRating").boost(1);
-        weightedRating3.max(4.999);
-        weightedRating3.min(3);
+    /**
+     * Runs the query on the async bucket without blocking a thread, or on the in-memory index
+     * depending on couchflix.search.engine.
+     * Errors reported by the FTS service terminate the observable, unless the engine is FAILOVER.
+     */
+    private Observable<List<SearchQueryRow>> hitsAsync(SearchQuery searchQuery, QueryProfile profile) {
+        if (searchEngine == SearchEngine.MEMORY) {
+            return memoryHitsAsync(searchQuery, profile);
+        }
+        Observable<List<SearchQueryRow>> hits = ftsHitsAsync(searchQuery, profile);
+        if (searchEngine == SearchEngine.FAILOVER) {
+            return hits.onErrorResumeNext(e -> {
+                log.warn("Running {} on the in-memory index: {}", searchQuery.indexName(), e.toString());
+                return memoryHitsAsync(searchQuery, profile);
+            });
+        }
+        return hits;
+    }
 
-        NumericRangeQuery weightedRating4 = SearchQuery.numericRange().field("weightedRating").boost(0.75);
-        weightedRating4.max(2.999);
-        weightedRating4.min(0);
+    /**
+     * The top hits of the query. With couchflix.search.rescore, the FTS service returns a window of
+     * couchflix.rescore.window text-relevance hits with the stored fields of the {@link Rescorer},
+     * which ranks them with its decay curves.
+     */
+    private Observable<List<SearchQueryRow>> rankedHitsAsync(SearchQuery searchQuery, int limit, QueryProfile profile) {
+        if (!rescore) {
+            return hitsAsync(searchQuery.limit(limit), profile);
+        }
+        return hitsAsync(searchQuery.limit(Math.max(rescoreWindow, limit)).fields(Rescorer.FIELDS), profile)
+                .flatMap(rows -> stage(PipelineMetrics.RESCORE, searchQuery.indexName(), profile,
+                        Observable.fromCallable(() -> rescorer.rescore(rows, limit))));
+    }
 
+    private Observable<List<SearchQueryRow>> memoryHitsAsync(SearchQuery searchQuery, QueryProfile profile) {
+        return stage(PipelineMetrics.FTS, MovieIndex.NAME, profile, Observable.fromCallable(() -> {
+            long start = System.nanoTime();
+            SearchQueryResult result = inMemorySearchIndex.search(searchQuery);
+            profile.fts(searchQuery, result.metrics(), start);
+            return result.hits();
+        }));
+    }
 
-        DisjunctionQuery runtimeDisjunction = SearchQuery.disjuncts(weightedRating1, weightedRating2, weightedRating3, weightedRating4 );
+    private Observable<List<SearchQueryRow>> ftsHitsAsync(SearchQuery searchQuery, QueryProfile profile) {
+        return stage(PipelineMetrics.FTS, searchQuery.indexName(), profile, Observable.defer(() -> {
+            long start = System.nanoTime();
+            return movieRepository.getCouchbaseOperations().getCouchbaseBucket().async()
+                    .query(searchQuery)
+                    .flatMap(result -> Observable.zip(result.hits().toList(), result.metrics().defaultIfEmpty(null),
+                            (rows, metrics) -> {
+                                if (metrics != null) {
+                                    profile.fts(searchQuery, metrics, start);
+                                }
+                                return rows;
+                            }));
+        }));
+    }
 
-        return runtimeDisjunction;
+    private Observable<EntityExtractor> parseAsync(String words, QueryProfile profile) {
+        return stage(PipelineMetrics.PARSE, SHINGLE_INDEX, profile, movieQueryParser.parseAsync(words, profile));
     }
 
+    private Observable<List<Facet>> facetsAsync(String key, AbstractFtsQuery match, QueryProfile profile) {
+        if (searchEngine == SearchEngine.MEMORY) {
+            return stage(PipelineMetrics.FACETS, MovieIndex.NAME, profile, memoryFacetsAsync(key, match));
+        }
+        Observable<List<Facet>> facets = facetService.facets(SHINGLE_INDEX, key, match);
+        if (searchEngine == SearchEngine.FAILOVER) {
+            facets = facets.onErrorResumeNext(e -> memoryFacetsAsync(key, match));
+        }
+        return stage(PipelineMetrics.FACETS, SHINGLE_INDEX, profile, facets);
+    }
 
-    private DisjunctionQuery getDisjunction(String words, String field) {
-        MatchQuery query = SearchQuery.match(words).field(field);
-        MatchQuery queryFuzzy = SearchQuery.match(words).field(field).fuzziness(1);
-        return SearchQuery.disjuncts(query, queryFuzzy);
+    private Observable<List<Facet>> memoryFacetsAsync(String key, AbstractFtsQuery match) {
+        return facetService.facets(key, Observable.fromCallable(() ->
+                inMemorySearchIndex.search(facetService.buildQuery(SHINGLE_INDEX, match)).facets()));
     }
 
+    /**
+     * With the FAILOVER engine, movies the bucket could not return are taken from the in-memory index. The
+     * in-memory index only holds the PARTIAL movies, FULL ones are read from the bucket with any engine.
+     */
+    private Observable<Map<String, Movie>> hydrateAsync(List<String> ids, MovieHydrator.HydrationMode hydration,
+                                                        QueryProfile profile) {
+        if (searchEngine == SearchEngine.MEMORY && hydration == MovieHydrator.HydrationMode.PARTIAL) {
+            return stage(PipelineMetrics.HYDRATION, MovieIndex.NAME, profile,
+                    Observable.fromCallable(() -> inMemorySearchIndex.movies(ids)));
+        }
+        Observable<Map<String, Movie>> hydrated = movieHydrator.hydrateAsync(ids, hydration, profile);
+        if (searchEngine == SearchEngine.FAILOVER) {
+            hydrated = hydrated
+                    .onErrorReturn(e -> new HashMap<>())
+                    .map(movies -> {
+                        if (movies.size() == ids.size()) {
+                            return movies;
+                        }
+                        Map<String, Movie> completed = new HashMap<>(inMemorySearchIndex.movies(ids));
+                        completed.putAll(movies);
+                        return completed;
+                    });
+        }
+        return stage(PipelineMetrics.HYDRATION, SHINGLE_INDEX, profile, hydrated);
+    }
 
-    private DisjunctionQuery getDisjunction(String words, String field, double boost) {
-        MatchQuery query = SearchQuery.match(words).boost(boost).field(field);
-        MatchQuery queryFuzzy = SearchQuery.match(words).boost(boost).field(field)
-                .fuzziness(1);
+    /**
+     * Times the stage both in the Micrometer meters and in the profile of the search.
+     */
+    private <T> Observable<T> stage(String stage, String index, QueryProfile profile, Observable<T> observable) {
+        return pipelineMetrics.time(stage, profile.getVariant(), index, profile.time(stage, observable));
+    }
 
-        return SearchQuery.disjuncts(query, queryFuzzy);
+    private static List<String> ids(List<SearchQueryRow> rows) {
+        return rows.stream().map(SearchQueryRow::id).collect(Collectors.toList());
     }
 
+    private Result toResult(SearchPage page, Map<String, Movie> hydrated, QueryProfile profile){
+        return pipelineMetrics.time(PipelineMetrics.MAPPING, profile.getVariant(), SHINGLE_INDEX,
+                () -> profile.time(PipelineMetrics.MAPPING, () -> toResult(page.hits, hydrated, page.facets)));
+    }
 
-    private Result getSearchResults(SearchQueryResult result){
+    private Result toResult(List<SearchQueryRow> rows, Map<String, Movie> hydrated, List<Facet> facets){
 
         Result rt = new Result();
         List<SearchResult> movies = new ArrayList<>();
-        if (result != null && result.errors().isEmpty()) {
-            Iterator<SearchQueryRow> resultIterator = result.iterator();
-            int counter = 1;
-            while (resultIterator.hasNext()) {
-                SearchQueryRow row = resultIterator.next();
-                movies.add( new SearchResult(movieRepository.findById(row.id()).get(), new QueryStats(counter, row)));
-                counter++;
+        int counter = 1;
+        for (SearchQueryRow row : rows) {
+            Movie movie = hydrated.get(row.id());
+            if (movie != null) {
+                movies.add(new SearchResult(movie, new QueryStats(counter, row)));
             }
+            counter++;
         }
 
         rt.setResults(movies);
 
-        if( result.facets()!= null & result.facets().size() >0) {
-            List<Facet> facets = new ArrayList<>();
-            for( Map.Entry<String, FacetResult> entry: result.facets().entrySet()) {
+        rt.setFacets(facets);
+        return rt;
+    }
 
-                List<TermRange> termRanges = ((TermFacetResult) entry.getValue()).terms();
-                List<FacetItem> items =  termRanges.stream().map(e->new FacetItem(e)).collect(Collectors.toList());
-                facets.add(new Facet(entry.getKey(), items));
-            }
+    private static <T> CompletableFuture<T> toFuture(Observable<T> observable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        observable.single().subscribe(future::complete, future::completeExceptionally);
+        return future;
+    }
 
-            rt.setFacets(facets);
+    private static final class SearchPage {
+
+        private final List<SearchQueryRow> hits;
+        private final List<Facet> facets;
+
+        SearchPage(List<SearchQueryRow> hits, List<Facet> facets) {
+            this.hits = hits;
+            this.facets = facets;
         }
-        return rt;
     }
 
-    private Map<String,List<String>> getFilters(String filters){
+    Map<String,List<String>> getFilters(String filters){
         if (filters == null || filters.trim().isEmpty()) {
             return new HashMap<>();
         }
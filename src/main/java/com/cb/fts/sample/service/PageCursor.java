@@ -0,0 +1,68 @@
+package com.cb.fts.sample.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the hit snapshot of a search. The cursor carries the query itself, so a page can
+ * still be served after its snapshot expired by running the query again. The phrase and the filters
+ * are encoded separately, so they may contain any character.
+ */
+@Getter
+@AllArgsConstructor
+public class PageCursor {
+
+    private static final String SEPARATOR = "\n";
+
+    private final String phrase;
+    private final String filters;
+    private final int offset;
+    private final int size;
+
+    public PageCursor next() {
+        return new PageCursor(phrase, filters, offset + size, size);
+    }
+
+    public String encode() {
+        String value = offset + SEPARATOR + size + SEPARATOR + encode(phrase) + SEPARATOR + encode(filters == null ? "" : filters);
+        return encode(value);
+    }
+
+    /**
+     * @param maxSize the largest page size
+     * @throws IllegalArgumentException if the cursor was not created by {@link #encode()}, or its offset or
+     *                                  size are out of range
+     */
+    public static PageCursor decode(String cursor, int maxSize) {
+        String[] parts;
+        PageCursor page;
+        try {
+            parts = decode(cursor).split(SEPARATOR, -1);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException(parts.length + " parts instead of 4");
+            }
+            String filters = decode(parts[3]);
+            page = new PageCursor(decode(parts[2]), filters.isEmpty() ? null : filters,
+                    Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and the errors of the Base64 decoder
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (page.offset < 0 || page.size < 1 || page.size > maxSize) {
+            throw new IllegalArgumentException("Invalid cursor: offset " + page.offset + " and size " + page.size
+                    + " must be positive, with a size up to " + maxSize);
+        }
+        return page;
+    }
+
+    private static String encode(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value) {
+        return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+}
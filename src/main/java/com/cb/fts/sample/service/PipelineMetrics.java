@@ -0,0 +1,162 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.Result;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters of the search pipeline, published on /actuator/metrics.
+ *
+ * Stage timers are tagged with the search variant ("search12", "search13") and the FTS index, so the
+ * monolithic and fan-out searches can be compared stage by stage. Percentiles and histograms are
+ * configured with the management.metrics.distribution.* properties of the "couchflix" prefix.
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String PARSE = "parse";
+    public static final String FTS = "fts";
+    public static final String FACETS = "facets";
+    public static final String HYDRATION = "hydration";
+    public static final String RESCORE = "rescore";
+    public static final String MAPPING = "mapping";
+
+    private static final String SUCCESS = "success";
+    private static final String ERROR = "error";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    /**
+     * Times every subscription of the observable, from subscribe to completion or error.
+     */
+    public <T> Observable<T> time(String stage, String variant, String index, Observable<T> observable) {
+        return Observable.defer(() -> {
+            long start = System.nanoTime();
+            return observable
+                    .doOnCompleted(() -> stage(stage, variant, index, SUCCESS)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doOnError(e -> {
+                        stage(stage, variant, index, ERROR).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        errors(stage, variant, index).increment();
+                    });
+        });
+    }
+
+    public <T> T time(String stage, String variant, String index, Supplier<T> supplier) {
+        return stage(stage, variant, index, SUCCESS).record(supplier);
+    }
+
+    /**
+     * End-to-end latency and hit counts of a search that was not answered by the result cache.
+     */
+    public void searched(String variant, String index, long startNanos, Result result) {
+        Timer.builder("couchflix.search")
+                .tags("variant", variant, "index", index, "outcome", SUCCESS)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+        int hits = result.getResults() != null ? result.getResults().size() : 0;
+        DistributionSummary.builder("couchflix.search.hits")
+                .tags("variant", variant, "index", index)
+                .register(registry)
+                .record(hits);
+        if (hits == 0) {
+            Counter.builder("couchflix.search.zero.results")
+                    .tags("variant", variant, "index", index)
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    public void searchFailed(String variant, String index, long startNanos) {
+        Timer.builder("couchflix.search")
+                .tags("variant", variant, "index", index, "outcome", ERROR)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        errors("search", variant, index).increment();
+    }
+
+    public void cache(String variant, String index, boolean hit) {
+        Counter.builder("couchflix.search.cache")
+                .tags("variant", variant, "index", index, "result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param decision "exact" when the exact matches were kept, "few-hits" or "low-score" when the
+     *                 fuzzy query had to run, see couchflix.search.fuzziness
+     */
+    public void fuzziness(String variant, String index, String decision) {
+        Counter.builder("couchflix.search.fuzzy")
+                .tags("variant", variant, "index", index, "decision", decision)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * A call that joined an identical one in flight, see {@link SingleFlight}.
+     *
+     * @param call "search", "actor", "hydration" or "cover"
+     */
+    public void coalesced(String call) {
+        Counter.builder("couchflix.singleflight.joined")
+                .tags("call", call)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param type "name" or "word", see {@link SpellingCorrector}
+     */
+    public void correction(String type) {
+        Counter.builder("couchflix.parser.corrections")
+                .tags("type", type)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * A single actor name lookup on the bucket, while the actor dictionary is not loaded.
+     */
+    public <T> Observable<T> actorLookup(Observable<T> observable) {
+        return Observable.defer(() -> {
+            long start = System.nanoTime();
+            return observable.doOnTerminate(() -> registry.timer("couchflix.parser.actor.lookup")
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    /**
+     * @param source "cache" when the cover document exists, "resolver" when it had to be resolved
+     *               and "rejected" when the queue is full; lookups joining one in flight are counted
+     *               by {@link #coalesced(String)}
+     */
+    public void cover(String source, long startNanos) {
+        Timer.builder("couchflix.cover.lookup")
+                .tags("source", source)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer stage(String stage, String variant, String index, String outcome) {
+        return Timer.builder("couchflix.search.stage")
+                .tags("stage", stage, "variant", variant, "index", index, "outcome", outcome)
+                .register(registry);
+    }
+
+    private Counter errors(String stage, String variant, String index) {
+        return Counter.builder("couchflix.search.errors")
+                .tags("stage", stage, "variant", variant, "index", index)
+                .register(registry);
+    }
+}
@@ -0,0 +1,152 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.FtsProfile;
+import com.cb.fts.sample.entities.vo.SearchProfile;
+import com.cb.fts.sample.entities.vo.StageTiming;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.result.SearchMetrics;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Timings of a single search, collected on whichever thread completes each stage.
+ *
+ * Recording only costs a few {@link System#nanoTime()} calls; the FTS query JSON is exported
+ * in {@link #toProfile} so searches that are neither profiled nor slow never pay for it.
+ */
+public final class QueryProfile {
+
+    private final String variant;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final List<StageTiming> stages = Collections.synchronizedList(new ArrayList<>());
+    private final List<StageTiming> lookups = Collections.synchronizedList(new ArrayList<>());
+    private final List<StageTiming> hits = Collections.synchronizedList(new ArrayList<>());
+    private final List<FtsCall> ftsCalls = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean degraded;
+
+    public QueryProfile(String variant) {
+        this.variant = variant;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Records the time from subscription to completion of the observable.
+     */
+    public <T> Observable<T> time(String stage, Observable<T> observable) {
+        return Observable.defer(() -> {
+            long start = System.nanoTime();
+            return observable.doOnCompleted(() -> stages.add(new StageTiming(stage, millisSince(start))));
+        });
+    }
+
+    public <T> T time(String stage, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        T value = supplier.get();
+        stages.add(new StageTiming(stage, millisSince(start)));
+        return value;
+    }
+
+    /**
+     * Part of the search was dropped, its result must not be cached.
+     */
+    public void degraded() {
+        degraded = true;
+    }
+
+    public boolean isDegraded() {
+        return degraded;
+    }
+
+    public void lookup(String key, long start) {
+        lookups.add(new StageTiming(key, millisSince(start)));
+    }
+
+    public void hit(String id, long start) {
+        hits.add(new StageTiming(id, millisSince(start)));
+    }
+
+    public void fts(SearchQuery searchQuery, SearchMetrics metrics, long start) {
+        ftsCalls.add(new FtsCall(searchQuery, metrics.took(), System.nanoTime() - start, metrics.totalHits()));
+    }
+
+    /**
+     * The serialization time is set when the response is written.
+     */
+    public SearchProfile toProfile(String query, String filters) {
+        List<FtsProfile> fts = new ArrayList<>();
+        synchronized (ftsCalls) {
+            for (FtsCall call : ftsCalls) {
+                JsonObject export = call.searchQuery.export();
+                JsonObject tree = export.getObject("query");
+                fts.add(new FtsProfile(call.searchQuery.indexName(), toMillis(call.serverNanos),
+                        toMillis(call.clientNanos), call.totalHits, tree != null ? clauseCount(tree) : 0,
+                        export.toString()));
+            }
+        }
+        return new SearchProfile(query, filters, variant, startMillis, toMillis(elapsedNanos()),
+                copy(stages), copy(lookups), fts, copy(hits), 0);
+    }
+
+    /**
+     * Leaf queries of an exported query tree: compound queries only contribute their children.
+     */
+    static int clauseCount(JsonObject query) {
+        int children = 0;
+        for (String name : query.getNames()) {
+            Object value = query.get(name);
+            if (value instanceof JsonObject) {
+                children += clauseCount((JsonObject) value);
+            } else if (value instanceof JsonArray) {
+                for (Object element : (JsonArray) value) {
+                    if (element instanceof JsonObject) {
+                        children += clauseCount((JsonObject) element);
+                    }
+                }
+            }
+        }
+        return children > 0 ? children : 1;
+    }
+
+    private static List<StageTiming> copy(List<StageTiming> timings) {
+        synchronized (timings) {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    private static double millisSince(long start) {
+        return toMillis(System.nanoTime() - start);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000d;
+    }
+
+    private static final class FtsCall {
+
+        private final SearchQuery searchQuery;
+        private final long serverNanos;
+        private final long clientNanos;
+        private final long totalHits;
+
+        FtsCall(SearchQuery searchQuery, long serverNanos, long clientNanos, long totalHits) {
+            this.searchQuery = searchQuery;
+            this.serverNanos = serverNanos;
+            this.clientNanos = clientNanos;
+            this.totalHits = totalHits;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+
+/**
+ * Rewrites a bleve query string ({@link com.couchbase.client.java.search.queries.QueryStringQuery}) into the
+ * boolean, match and numeric range queries of the search JSON, for the in-memory index.
+ *
+ * Clauses are separated by spaces: "+" makes a clause required and "-" excludes it, the others are optional
+ * unless none is required. "field:" restricts a clause to a field, otherwise it matches the fields of the
+ * _all field. Values are terms, "quoted phrases", or comparisons such as "release_year:>=1990"; a term may
+ * end with "~" or "~2" for its fuzziness and any clause with "^2.5" for its boost. A number on a field also
+ * matches it as a numeric value. Phrases match their terms in any order.
+ */
+final class QueryStringParser {
+
+    private final String text;
+    private int position;
+
+    private QueryStringParser(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the query string is malformed
+     */
+    static JsonObject parse(String queryString) {
+        return new QueryStringParser(queryString).parse();
+    }
+
+    private JsonObject parse() {
+        JsonArray must = JsonArray.create();
+        JsonArray should = JsonArray.create();
+        JsonArray mustNot = JsonArray.create();
+        while (skipWhitespace()) {
+            char occurrence = text.charAt(position);
+            JsonArray clauses = should;
+            if (occurrence == '+' || occurrence == '-') {
+                clauses = occurrence == '+' ? must : mustNot;
+                position++;
+            }
+            clauses.add(clause());
+        }
+        if (must.isEmpty() && should.isEmpty() && mustNot.isEmpty()) {
+            return JsonObject.create().put("match_none", JsonObject.create());
+        }
+
+        JsonObject query = JsonObject.create();
+        if (!must.isEmpty()) {
+            query.put("must", JsonObject.create().put("conjuncts", must));
+        }
+        if (!should.isEmpty()) {
+            query.put("should", JsonObject.create().put("disjuncts", should).put("min", 0));
+        }
+        if (!mustNot.isEmpty()) {
+            query.put("must_not", JsonObject.create().put("disjuncts", mustNot));
+        }
+        return query;
+    }
+
+    private JsonObject clause() {
+        String field = field();
+        JsonObject query;
+        if (peek('"')) {
+            position++;
+            query = JsonObject.create().put("match", until(false, '"')).put("operator", "and");
+            if (!peek('"')) {
+                throw error("a closing quote");
+            }
+            position++;
+        } else if (field != null && (peek('>') || peek('<'))) {
+            query = range(field);
+        } else {
+            String term = until(true, '~', '^');
+            if (term.isEmpty()) {
+                throw error("a value");
+            }
+            query = JsonObject.create().put("match", term);
+            if (peek('~')) {
+                position++;
+                String fuzziness = digits();
+                query.put("fuzziness", fuzziness.isEmpty() ? 1 : Integer.parseInt(fuzziness));
+            }
+            if (field != null && isNumber(term)) {
+                double value = Double.parseDouble(term);
+                JsonObject range = JsonObject.create().put("field", field).put("min", value).put("max", value)
+                        .put("inclusive_min", true).put("inclusive_max", true);
+                query = JsonObject.create().put("disjuncts", JsonArray.from(query.put("field", field), range));
+                field = null;
+            }
+        }
+        if (field != null) {
+            query.put("field", field);
+        }
+        if (peek('^')) {
+            position++;
+            String boost = until(true);
+            if (!isNumber(boost)) {
+                throw error("a boost");
+            }
+            query.put("boost", Double.parseDouble(boost));
+        }
+        if (position < text.length() && !Character.isWhitespace(text.charAt(position))) {
+            throw error("a space");
+        }
+        return query;
+    }
+
+    // the field name up to an unescaped ':', or null when the clause has none
+    private String field() {
+        int start = position;
+        String field = until(true, ':', '"');
+        if (peek(':') && !field.isEmpty()) {
+            position++;
+            return field;
+        }
+        position = start;
+        return null;
+    }
+
+    private JsonObject range(String field) {
+        boolean greater = text.charAt(position++) == '>';
+        boolean inclusive = peek('=');
+        if (inclusive) {
+            position++;
+        }
+        String value = until(true, '^');
+        if (!isNumber(value)) {
+            throw error("a number");
+        }
+        JsonObject range = JsonObject.create().put("field", field);
+        if (greater) {
+            range.put("min", Double.parseDouble(value)).put("inclusive_min", inclusive);
+        } else {
+            range.put("max", Double.parseDouble(value)).put("inclusive_max", inclusive);
+        }
+        return range;
+    }
+
+    // the unescaped text up to the first unescaped stop character, or whitespace
+    private String until(boolean whitespace, char... stops) {
+        StringBuilder value = new StringBuilder();
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '\\' && position + 1 < text.length()) {
+                value.append(text.charAt(position + 1));
+                position += 2;
+                continue;
+            }
+            if ((whitespace && Character.isWhitespace(c)) || contains(stops, c)) {
+                break;
+            }
+            value.append(c);
+            position++;
+        }
+        return value.toString();
+    }
+
+    private String digits() {
+        int start = position;
+        while (position < text.length() && Character.isDigit(text.charAt(position))) {
+            position++;
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        return position < text.length();
+    }
+
+    private boolean peek(char c) {
+        return position < text.length() && text.charAt(position) == c;
+    }
+
+    private IllegalArgumentException error(String expected) {
+        return new IllegalArgumentException("Invalid query string, expected " + expected + " at " + position
+                + ": " + text);
+    }
+
+    private static boolean contains(char[] chars, char c) {
+        for (char candidate : chars) {
+            if (candidate == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value);
+            return !value.isEmpty() && Character.isDigit(value.charAt(value.length() - 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the ranked hit lists of independent sub-queries into one ranking.
+ *
+ * RRF scores a document with the sum of weight / (k + rank) over the lists it appears in, so it only
+ * depends on positions and needs no score calibration between sub-queries. SCORE sums the weighted
+ * scores after dividing each list by its top score.
+ */
+public final class RankFusion {
+
+    // the constant of the original reciprocal rank fusion paper
+    private static final int RRF_K = 60;
+
+    public enum Method {
+        RRF,
+        SCORE
+    }
+
+    private RankFusion() {
+    }
+
+    /**
+     * @param rankings hits of each sub-query, best first; empty lists are allowed
+     * @param weights  weight of each sub-query, same order as the rankings
+     * @return the fused hits, best first, with the fused score and the fragments of every list
+     */
+    public static List<SearchQueryRow> fuse(List<List<SearchQueryRow>> rankings, double[] weights,
+                                            Method method, int limit) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Map<String, List<String>>> fragments = new HashMap<>();
+        Map<String, SearchQueryRow> firstSeen = new LinkedHashMap<>();
+
+        for (int list = 0; list < rankings.size(); list++) {
+            List<SearchQueryRow> ranking = rankings.get(list);
+            double top = ranking.isEmpty() ? 0 : ranking.get(0).score();
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                SearchQueryRow row = ranking.get(rank);
+                double score = method == Method.RRF
+                        ? weights[list] / (RRF_K + rank + 1)
+                        : top > 0 ? weights[list] * row.score() / top : 0;
+                scores.merge(row.id(), score, Double::sum);
+                firstSeen.putIfAbsent(row.id(), row);
+                if (row.fragments() != null) {
+                    fragments.computeIfAbsent(row.id(), k -> new HashMap<>()).putAll(row.fragments());
+                }
+            }
+        }
+
+        List<SearchQueryRow> fused = new ArrayList<>(firstSeen.size());
+        for (SearchQueryRow row : firstSeen.values()) {
+            fused.add(new DefaultSearchQueryRow(row.index(), row.id(), scores.get(row.id()), row.explanation(),
+                    row.locations(), fragments.get(row.id()), row.fields()));
+        }
+        // stable, so ties keep the order of the first list they were found in
+        fused.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return fused.size() > limit ? new ArrayList<>(fused.subList(0, limit)) : fused;
+    }
+}
@@ -0,0 +1,178 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks a window of text-relevance hits with continuous decay curves instead of the boost range
+ * disjunctions, see couchflix.search.rescore. The stored fields of the hits are read once into
+ * one primitive column per field, then each score is multiplied by the curve of every field and by
+ * couchflix.rescore.promoted-boost for promoted movies. The curves are parsed again when the year
+ * changes, so an origin of "now" follows the calendar.
+ */
+@Component
+public class Rescorer {
+
+    static final String RELEASE_YEAR = "release_year";
+    static final String POPULARITY = "popularity";
+    static final String RUNTIME = "runtime";
+    static final String WEIGHTED_RATING = "weightedRating";
+    static final String PROMOTED = "promoted";
+
+    /**
+     * The stored fields the FTS query has to return for {@link #rescore}.
+     */
+    public static final String[] FIELDS = {RELEASE_YEAR, POPULARITY, RUNTIME, WEIGHTED_RATING, PROMOTED};
+
+    @Value("${couchflix.rescore.release-year:gauss origin=now scale=10 offset=2 decay=0.5 weight=0.4}")
+    private String releaseYearSpec;
+
+    @Value("${couchflix.rescore.popularity:exp origin=40 scale=20 decay=0.5 weight=0.3 side=below}")
+    private String popularitySpec;
+
+    @Value("${couchflix.rescore.runtime:gauss origin=100 scale=60 decay=0.5 weight=0.1 side=below}")
+    private String runtimeSpec;
+
+    @Value("${couchflix.rescore.weighted-rating:linear origin=7 scale=4 decay=0.5 weight=0.3 side=below}")
+    private String weightedRatingSpec;
+
+    @Value("${couchflix.rescore.promoted-boost:1.5}")
+    private double promotedBoost;
+
+    private volatile Functions functions;
+
+    @PostConstruct
+    public void init() {
+        functions = new Functions(LocalDate.now().getYear());
+    }
+
+    /**
+     * The best hits by rescored score, best first; ties keep the FTS order.
+     */
+    public List<SearchQueryRow> rescore(List<SearchQueryRow> rows, int limit) {
+        DecayFunction[] functions = current().functions;
+        int size = rows.size();
+        double[] scores = new double[size];
+        double[][] columns = new double[functions.length][size];
+        for (int i = 0; i < size; i++) {
+            SearchQueryRow row = rows.get(i);
+            Map<String, String> fields = row.fields();
+            columns[0][i] = number(fields, RELEASE_YEAR);
+            columns[1][i] = number(fields, POPULARITY);
+            columns[2][i] = number(fields, RUNTIME);
+            columns[3][i] = number(fields, WEIGHTED_RATING);
+            scores[i] = fields != null && "true".equals(fields.get(PROMOTED)) ? row.score() * promotedBoost : row.score();
+        }
+        for (int f = 0; f < functions.length; f++) {
+            DecayFunction function = functions[f];
+            double[] column = columns[f];
+            for (int i = 0; i < size; i++) {
+                scores[i] *= function.multiplier(column[i]);
+            }
+        }
+
+        int[] best = top(scores, Math.min(limit, size));
+        List<SearchQueryRow> rescored = new ArrayList<>(best.length);
+        for (int i : best) {
+            SearchQueryRow row = rows.get(i);
+            rescored.add(new DefaultSearchQueryRow(row.index(), row.id(), scores[i], row.explanation(),
+                    row.locations(), row.fragments(), row.fields()));
+        }
+        return rescored;
+    }
+
+    private Functions current() {
+        int year = LocalDate.now().getYear();
+        Functions current = functions;
+        if (current.year != year) {
+            current = new Functions(year);
+            functions = current;
+        }
+        return current;
+    }
+
+    private static double number(Map<String, String> fields, String name) {
+        String value = fields != null ? fields.get(name) : null;
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Indexes of the k highest scores, best first, with a min-heap of k primitive slots.
+     */
+    private static int[] top(double[] scores, int k) {
+        int[] heap = new int[k];
+        int n = 0;
+        for (int i = 0; i < scores.length && k > 0; i++) {
+            if (n < k) {
+                heap[n] = i;
+                for (int c = n++; c > 0 && worse(scores, heap[c], heap[(c - 1) / 2]); c = (c - 1) / 2) {
+                    swap(heap, c, (c - 1) / 2);
+                }
+            } else if (worse(scores, heap[0], i)) {
+                heap[0] = i;
+                siftDown(scores, heap, 0, n);
+            }
+        }
+        // popping the worst hit to the end of the heap leaves the best one first
+        for (int end = n - 1; end > 0; end--) {
+            swap(heap, 0, end);
+            siftDown(scores, heap, 0, end);
+        }
+        return heap;
+    }
+
+    private static void siftDown(double[] scores, int[] heap, int p, int n) {
+        while (true) {
+            int worst = p;
+            for (int c = 2 * p + 1; c <= 2 * p + 2 && c < n; c++) {
+                if (worse(scores, heap[c], heap[worst])) {
+                    worst = c;
+                }
+            }
+            if (worst == p) {
+                return;
+            }
+            swap(heap, p, worst);
+            p = worst;
+        }
+    }
+
+    // a lower score, or the same score further down the FTS order
+    private static boolean worse(double[] scores, int a, int b) {
+        return scores[a] < scores[b] || (scores[a] == scores[b] && a > b);
+    }
+
+    private static void swap(int[] values, int a, int b) {
+        int tmp = values[a];
+        values[a] = values[b];
+        values[b] = tmp;
+    }
+
+    private final class Functions {
+
+        private final int year;
+        private final DecayFunction[] functions;
+
+        Functions(int year) {
+            this.year = year;
+            this.functions = new DecayFunction[]{DecayFunction.parse(releaseYearSpec, year),
+                    DecayFunction.parse(popularitySpec, year), DecayFunction.parse(runtimeSpec, year),
+                    DecayFunction.parse(weightedRatingSpec, year)};
+        }
+    }
+}
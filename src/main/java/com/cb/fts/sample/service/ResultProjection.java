@@ -0,0 +1,290 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.Facet;
+import com.cb.fts.sample.entities.vo.QueryStats;
+import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.ResultPage;
+import com.cb.fts.sample.entities.vo.SearchProfile;
+import com.cb.fts.sample.entities.vo.SearchResult;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Serializes only the requested attributes of a search response, for the fields= parameter of the search API.
+ *
+ * Fields are movie attributes ("title", "posterPath"), query stats attributes ("stats.score"), "movie" and
+ * "stats" for all of them, "facets" and "profile", or the name of a profile: "card" for the grid of results,
+ * "detail" for the movie card and "debug" for everything, see couchflix.projection.*. The response keeps the
+ * shape of {@link Result}, but is written straight to the response stream, attribute by attribute, and
+ * null attributes are omitted. A search whose projection has the profile is profiled, like with profile=true,
+ * and its movies are hydrated in full when the projection writes attributes the PARTIAL hydration does not fetch.
+ */
+@Component
+public class ResultProjection {
+
+    private static final Map<String, Function<Movie, Object>> MOVIE_ATTRIBUTES = new LinkedHashMap<>();
+    private static final Map<String, Function<QueryStats, Object>> STATS_ATTRIBUTES = new LinkedHashMap<>();
+
+    static {
+        MOVIE_ATTRIBUTES.put("id", Movie::getId);
+        MOVIE_ATTRIBUTES.put("originalLanguage", Movie::getOriginalLanguage);
+        MOVIE_ATTRIBUTES.put("imdbId", Movie::getImdbId);
+        MOVIE_ATTRIBUTES.put("video", Movie::getVideo);
+        MOVIE_ATTRIBUTES.put("title", Movie::getTitle);
+        MOVIE_ATTRIBUTES.put("backdropPath", Movie::getBackdropPath);
+        MOVIE_ATTRIBUTES.put("crew", Movie::getCrew);
+        MOVIE_ATTRIBUTES.put("cast", Movie::getCast);
+        MOVIE_ATTRIBUTES.put("popularity", Movie::getPopularity);
+        MOVIE_ATTRIBUTES.put("productionCountries", Movie::getProductionCountries);
+        MOVIE_ATTRIBUTES.put("voteCount", Movie::getVoteCount);
+        MOVIE_ATTRIBUTES.put("budget", Movie::getBudget);
+        MOVIE_ATTRIBUTES.put("revenue", Movie::getRevenue);
+        MOVIE_ATTRIBUTES.put("overview", Movie::getOverview);
+        MOVIE_ATTRIBUTES.put("originalTitle", Movie::getOriginalTitle);
+        MOVIE_ATTRIBUTES.put("runtime", Movie::getRuntime);
+        MOVIE_ATTRIBUTES.put("posterPath", Movie::getPosterPath);
+        MOVIE_ATTRIBUTES.put("genres", Movie::getGenres);
+        MOVIE_ATTRIBUTES.put("spokenLanguages", Movie::getSpokenLanguages);
+        MOVIE_ATTRIBUTES.put("productionCompanies", Movie::getProductionCompanies);
+        MOVIE_ATTRIBUTES.put("releaseDate", Movie::getReleaseDate);
+        MOVIE_ATTRIBUTES.put("releaseYear", Movie::getReleaseYear);
+        MOVIE_ATTRIBUTES.put("voteAverage", Movie::getVoteAverage);
+        MOVIE_ATTRIBUTES.put("collection", Movie::getCollection);
+        MOVIE_ATTRIBUTES.put("tagline", Movie::getTagline);
+        MOVIE_ATTRIBUTES.put("adult", Movie::getAdult);
+        MOVIE_ATTRIBUTES.put("homepage", Movie::getHomepage);
+        MOVIE_ATTRIBUTES.put("status", Movie::getStatus);
+        MOVIE_ATTRIBUTES.put("promoted", Movie::getPromoted);
+        MOVIE_ATTRIBUTES.put("weightedRating", Movie::getWeightedRating);
+        MOVIE_ATTRIBUTES.put("staticRank", Movie::getStaticRank);
+
+        STATS_ATTRIBUTES.put("id", QueryStats::getId);
+        STATS_ATTRIBUTES.put("position", QueryStats::getPosition);
+        STATS_ATTRIBUTES.put("score", QueryStats::getScore);
+        STATS_ATTRIBUTES.put("explanation", QueryStats::getExplanation);
+        STATS_ATTRIBUTES.put("fragments", QueryStats::getFragments);
+        STATS_ATTRIBUTES.put("fields", QueryStats::getFields);
+    }
+
+    private static final String STATS_PREFIX = "stats.";
+
+    @Autowired
+    private MovieHydrator movieHydrator;
+
+    @Value("${couchflix.projection.card:id,title,posterPath,overview,releaseDate,releaseYear,voteAverage,adult,genres,stats.position,stats.score,facets}")
+    private String[] card;
+
+    @Value("${couchflix.projection.detail:card,originalTitle,tagline,runtime,backdropPath,voteCount,collection,spokenLanguages,productionCountries,homepage,cast,crew}")
+    private String[] detail;
+
+    @Value("${couchflix.projection.debug:movie,stats,facets,profile}")
+    private String[] debug;
+
+    private final Map<String, Projection> profiles = new LinkedHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        profiles.put("card", parse(card, Collections.emptyMap()));
+        profiles.put("detail", parse(detail, profiles));
+        profiles.put("debug", parse(debug, profiles));
+    }
+
+    /**
+     * @param fields comma-separated fields and profile names
+     * @throws IllegalArgumentException if a field is unknown
+     */
+    public Projection parse(String fields) {
+        Projection profile = profiles.get(fields);
+        return profile != null ? profile : parse(fields.split(","), profiles);
+    }
+
+    private Projection parse(String[] fields, Map<String, Projection> profiles) {
+        Set<String> movie = new LinkedHashSet<>();
+        Set<String> stats = new LinkedHashSet<>();
+        boolean facets = false;
+        boolean profile = false;
+        for (String token : fields) {
+            String field = token.trim();
+            Projection included = profiles.get(field);
+            if (included != null) {
+                movie.addAll(included.movie.keySet());
+                stats.addAll(included.stats.keySet());
+                facets |= included.facets;
+                profile |= included.profile;
+            } else if (field.equals("movie")) {
+                movie.addAll(MOVIE_ATTRIBUTES.keySet());
+            } else if (field.equals("stats")) {
+                stats.addAll(STATS_ATTRIBUTES.keySet());
+            } else if (field.equals("facets")) {
+                facets = true;
+            } else if (field.equals("profile")) {
+                profile = true;
+            } else if (field.startsWith(STATS_PREFIX) && STATS_ATTRIBUTES.containsKey(field.substring(STATS_PREFIX.length()))) {
+                stats.add(field.substring(STATS_PREFIX.length()));
+            } else if (MOVIE_ATTRIBUTES.containsKey(field)) {
+                movie.add(field);
+            } else if (!field.isEmpty()) {
+                throw new IllegalArgumentException("Unknown field \"" + field + "\", expected one of " + profiles.keySet()
+                        + ", movie, stats, facets, profile, " + MOVIE_ATTRIBUTES.keySet() + " or stats." + STATS_ATTRIBUTES.keySet());
+            }
+        }
+        return new Projection(select(MOVIE_ATTRIBUTES, movie), select(STATS_ATTRIBUTES, stats), facets, profile,
+                movieHydrator.modeFor(movie));
+    }
+
+    // the selected attributes, in the order of the full response
+    private static <T> Map<String, Function<T, Object>> select(Map<String, Function<T, Object>> attributes,
+                                                               Set<String> names) {
+        Map<String, Function<T, Object>> selected = new LinkedHashMap<>();
+        for (Map.Entry<String, Function<T, Object>> attribute : attributes.entrySet()) {
+            if (names.contains(attribute.getKey())) {
+                selected.put(attribute.getKey(), attribute.getValue());
+            }
+        }
+        return selected;
+    }
+
+    public static final class Projection {
+
+        private final Map<String, Function<Movie, Object>> movie;
+        private final Map<String, Function<QueryStats, Object>> stats;
+        private final boolean facets;
+        private final boolean profile;
+        private final MovieHydrator.HydrationMode hydration;
+
+        Projection(Map<String, Function<Movie, Object>> movie, Map<String, Function<QueryStats, Object>> stats,
+                   boolean facets, boolean profile, MovieHydrator.HydrationMode hydration) {
+            this.movie = movie;
+            this.stats = stats;
+            this.facets = facets;
+            this.profile = profile;
+            this.hydration = hydration;
+        }
+
+        /**
+         * Whether the projection writes the profile, which only a profiled search has.
+         */
+        public boolean isProfiled() {
+            return profile;
+        }
+
+        /**
+         * The hydration that reads every movie attribute of the projection.
+         */
+        public MovieHydrator.HydrationMode getHydration() {
+            return hydration;
+        }
+
+        public JsonSerializable apply(Result result) {
+            return new Projected(this, result.getResults(), result.getFacets(), result.getProfile(),
+                    result.getTimedProfile(), null);
+        }
+
+        /**
+         * The total and the next cursor of the page are always written.
+         */
+        public JsonSerializable apply(ResultPage page) {
+            return new Projected(this, page.getResults(), page.getFacets(), null, null, page);
+        }
+
+        private void write(List<SearchResult> results, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeArrayFieldStart("results");
+            for (SearchResult result : results) {
+                generator.writeStartObject();
+                if (!movie.isEmpty() && result.getMovie() != null) {
+                    generator.writeObjectFieldStart("movie");
+                    write(result.getMovie(), movie, generator, provider);
+                    generator.writeEndObject();
+                }
+                if (!stats.isEmpty() && result.getStats() != null) {
+                    generator.writeObjectFieldStart("stats");
+                    write(result.getStats(), stats, generator, provider);
+                    generator.writeEndObject();
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+
+        private static <T> void write(T value, Map<String, Function<T, Object>> attributes, JsonGenerator generator,
+                                      SerializerProvider provider) throws IOException {
+            for (Map.Entry<String, Function<T, Object>> attribute : attributes.entrySet()) {
+                Object attributeValue = attribute.getValue().apply(value);
+                if (attributeValue != null) {
+                    provider.defaultSerializeField(attribute.getKey(), attributeValue, generator);
+                }
+            }
+        }
+    }
+
+    /**
+     * A response serialized by its projection when Jackson writes it, so the cached {@link Result} is shared
+     * by all projections and nothing is copied. The serializationMs of a profiled or slow search is the time
+     * spent writing everything before the profile.
+     */
+    private static final class Projected implements JsonSerializable {
+
+        private final Projection projection;
+        private final List<SearchResult> results;
+        private final List<Facet> facets;
+        private final SearchProfile profile;
+        private final SearchProfile timedProfile;
+        private final ResultPage page;
+
+        Projected(Projection projection, List<SearchResult> results, List<Facet> facets, SearchProfile profile,
+                  SearchProfile timedProfile, ResultPage page) {
+            this.projection = projection;
+            this.results = results != null ? results : new ArrayList<>();
+            this.facets = facets;
+            this.profile = profile;
+            this.timedProfile = timedProfile;
+            this.page = page;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider provider) throws IOException {
+            long start = System.nanoTime();
+            generator.writeStartObject();
+            projection.write(results, generator, provider);
+            if (projection.facets) {
+                provider.defaultSerializeField("facets", facets, generator);
+            }
+            if (page != null) {
+                generator.writeNumberField("total", page.getTotal());
+                provider.defaultSerializeField("next", page.getNext(), generator);
+            }
+            if (timedProfile != null) {
+                timedProfile.setSerializationMs((System.nanoTime() - start) / 1e6);
+            }
+            if (projection.profile && profile != null) {
+                provider.defaultSerializeField("profile", profile, generator);
+            }
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider provider, TypeSerializer typeSerializer)
+                throws IOException {
+            // responses are never written with type information
+            serialize(generator, provider);
+        }
+    }
+}
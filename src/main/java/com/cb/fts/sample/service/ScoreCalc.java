@@ -2,6 +2,15 @@ package com.cb.fts.sample.service;
 
 public class ScoreCalc {
 
+    /**
+     * The weightedRating of the movies_shingle index: half of the score comes from the vote average,
+     * the other half grows with the number of votes and saturates after a few hundred.
+     * Votes are counted in whole hundreds, like the values already stored in the bucket.
+     */
+    public static double weightedRating(double voteAverage, long voteCount) {
+        double p = voteAverage / 2;
+        return 5 * p / 10 + 5 * (1 - Math.exp((-1 * voteCount) / 100));
+    }
 
     public static void main(String[] args) {
 
@@ -13,11 +22,11 @@ public class ScoreCalc {
 
 
         int quantity = 5111; //rogue one
-        double p = 7.4/2;
+        double voteAverage = 7.4;
 ////
 //        "vote_average": 8.1,
 //                "vote_count": 6778
 
-        System.out.println(  5*p/10 + 5*(1-Math.exp(((-1*quantity)/100))));
+        System.out.println(weightedRating(voteAverage, quantity));
     }
 }
@@ -0,0 +1,13 @@
+package com.cb.fts.sample.service;
+
+/**
+ * Where the movies_shingle queries are evaluated, see couchflix.search.engine.
+ */
+public enum SearchEngine {
+    /** The FTS service of the cluster. */
+    COUCHBASE,
+    /** The {@link InMemorySearchIndex} only, for local development, load tests and benchmarks. */
+    MEMORY,
+    /** The FTS service, falling back to the {@link InMemorySearchIndex} when a query fails. */
+    FAILOVER
+}
@@ -0,0 +1,11 @@
+package com.cb.fts.sample.service;
+
+/**
+ * How the movies_shingle search is executed, see couchflix.search.mode.
+ */
+public enum SearchMode {
+    /** One conjunction of every text clause with the boosts. */
+    MONOLITHIC,
+    /** Title, overview and people sub-queries run concurrently and are merged with {@link RankFusion}. */
+    FANOUT
+}
@@ -0,0 +1,122 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.CacheStatistics;
+import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.SearchResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches whole search results by normalized phrase and canonical filter set.
+ *
+ * Entries expire after couchflix.search-cache.ttl-ms and the cache is bounded by the
+ * estimated size of its entries (couchflix.search-cache.max-weight-bytes).
+ */
+@Component
+public class SearchResultCache {
+
+    @Value("${couchflix.search-cache.ttl-ms:60000}")
+    private long ttlMs;
+
+    @Value("${couchflix.search-cache.max-weight-bytes:67108864}")
+    private long maxWeightBytes;
+
+    private Cache<String, Result> results;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @PostConstruct
+    public void init() {
+        results = Caffeine.newBuilder()
+                .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+                .maximumWeight(maxWeightBytes)
+                .weigher((String key, Result value) -> key.length() * 2 + estimateSize(value))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, results, "search");
+    }
+
+    public Result getIfPresent(String key) {
+        return results.getIfPresent(key);
+    }
+
+    public void put(String key, Result result) {
+        results.put(key, result);
+    }
+
+    public void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    public CacheStatistics stats() {
+        return new CacheStatistics("search", results.estimatedSize(), results.stats());
+    }
+
+    /**
+     * The normalized phrase followed by the filters sorted by name and value,
+     * so "genres=drama,comedy::year=2001" and "year=2001::genres=comedy,drama" share an entry.
+     */
+    public static String key(String phrase, Map<String, List<String>> filters) {
+        StringBuilder key = new StringBuilder(EntityExtractor.normalize(phrase));
+        for (Map.Entry<String, List<String>> entry : new TreeMap<>(filters).entrySet()) {
+            key.append("::").append(entry.getKey()).append('=');
+            boolean first = true;
+            for (String value : new TreeSet<>(entry.getValue())) {
+                if (!first) {
+                    key.append(',');
+                }
+                key.append(value);
+                first = false;
+            }
+        }
+        return key.toString();
+    }
+
+    private static int estimateSize(Result result) {
+        long size = 64;
+        if (result.getResults() != null) {
+            for (SearchResult searchResult : result.getResults()) {
+                size += 256 + estimateSize(searchResult.getMovie());
+            }
+        }
+        if (result.getFacets() != null) {
+            size += result.getFacets().size() * 512L;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private static long estimateSize(Movie movie) {
+        if (movie == null) {
+            return 0;
+        }
+        long size = 512;
+        size += length(movie.getTitle()) + length(movie.getOriginalTitle()) + length(movie.getOverview())
+                + length(movie.getTagline()) + length(movie.getHomepage());
+        size += count(movie.getCast()) * 160L + count(movie.getCrew()) * 160L;
+        size += (count(movie.getGenres()) + count(movie.getProductionCompanies())
+                + count(movie.getProductionCountries()) + count(movie.getSpokenLanguages())) * 64L;
+        return size;
+    }
+
+    private static long length(String value) {
+        return value == null ? 0 : value.length() * 2L;
+    }
+
+    private static int count(List<?> values) {
+        return values == null ? 0 : values.size();
+    }
+}
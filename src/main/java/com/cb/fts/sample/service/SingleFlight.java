@@ -0,0 +1,49 @@
+package com.cb.fts.sample.service;
+
+import rx.Observable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls: the first subscriber for a key runs the call, the subscribers that
+ * arrive while it is in flight receive the same items or error, replayed. The key is released when the call
+ * terminates, so nothing is cached beyond the flight.
+ *
+ * The call keeps running when the subscribers that joined it unsubscribe (a timeout of one caller must not
+ * fail the others), so callers should apply their own timeouts downstream of {@link #execute}.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Observable<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Runnable onJoin;
+
+    /**
+     * @param onJoin runs for each call that joined one in flight instead of running
+     */
+    public SingleFlight(Runnable onJoin) {
+        this.onJoin = onJoin;
+    }
+
+    public Observable<V> execute(K key, Supplier<Observable<V>> call) {
+        return Observable.defer(() -> {
+            AtomicReference<Observable<V>> flight = new AtomicReference<>();
+            flight.set(Observable.defer(call::get)
+                    .doOnTerminate(() -> inFlight.remove(key, flight.get()))
+                    .cache());
+            Observable<V> existing = inFlight.putIfAbsent(key, flight.get());
+            if (existing != null) {
+                onJoin.run();
+                return existing;
+            }
+            return flight.get();
+        });
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+}
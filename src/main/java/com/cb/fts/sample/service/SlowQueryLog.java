@@ -0,0 +1,60 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.SearchProfile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The profiles of the last couchflix.profiling.slow-log-size searches that took longer than
+ * couchflix.profiling.slow-threshold-ms, kept in a ring buffer that overwrites the oldest entry.
+ */
+@Component
+public class SlowQueryLog {
+
+    @Value("${couchflix.profiling.slow-threshold-ms:500}")
+    private long thresholdMs;
+
+    @Value("${couchflix.profiling.slow-log-size:100}")
+    private int size;
+
+    private SearchProfile[] entries;
+    private int next;
+    private int count;
+
+    @PostConstruct
+    public void init() {
+        entries = new SearchProfile[Math.max(1, size)];
+    }
+
+    public boolean isSlow(long elapsedNanos) {
+        return thresholdMs >= 0 && elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+    }
+
+    public synchronized void add(SearchProfile profile) {
+        entries[next] = profile;
+        next = (next + 1) % entries.length;
+        count = Math.min(count + 1, entries.length);
+    }
+
+    /**
+     * Newest first.
+     */
+    public synchronized List<SearchProfile> entries() {
+        List<SearchProfile> newestFirst = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            newestFirst.add(entries[(next - i + entries.length) % entries.length]);
+        }
+        return newestFirst;
+    }
+
+    public synchronized void clear() {
+        entries = new SearchProfile[entries.length];
+        next = 0;
+        count = 0;
+    }
+}
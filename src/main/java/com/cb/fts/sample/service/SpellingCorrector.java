@@ -0,0 +1,220 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * Corrects misspelled query words and person names before the query is parsed, see couchflix.spelling.enabled.
+ *
+ * Two {@link SymSpellDictionary dictionaries} are built in the background, on the pool of the task scheduler,
+ * and swapped atomically: the words of the titles, original titles, collection names and overviews weighted
+ * by their frequency, plus the tokens of the actor names, and the actor names ("tom hanks") weighted by their
+ * moviesCount. Adjacent tokens with an
+ * unknown word are first corrected as a name, so the parser finds the actorName key and tags the person;
+ * the words left unknown are then corrected one by one. Known words, stop words, numbers and short words are
+ * never changed.
+ */
+@Component
+public class SpellingCorrector {
+
+    private static final Logger log = LoggerFactory.getLogger(SpellingCorrector.class);
+
+    private static final String ACTOR_NAME_PREFIX = "actorName-";
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Value("${couchflix.spelling.enabled:false}")
+    private boolean enabled;
+
+    @Value("${couchflix.spelling.max-edit-distance:2}")
+    private int maxEditDistance;
+
+    @Value("${couchflix.spelling.prefix-length:7}")
+    private int prefixLength;
+
+    // words up to this length are only corrected by a single edit
+    @Value("${couchflix.spelling.short-word-length:5}")
+    private int shortWordLength;
+
+    @Value("${couchflix.spelling.min-word-length:3}")
+    private int minWordLength;
+
+    @Value("${couchflix.spelling.min-count:2}")
+    private long minCount;
+
+    @Value("${couchflix.spelling.max-names:200000}")
+    private int maxNames;
+
+    private volatile Dictionaries dictionaries;
+
+    public boolean isLoaded() {
+        return dictionaries != null;
+    }
+
+    /**
+     * The normalized query with its misspelled names and words replaced; the query itself when nothing
+     * was corrected or the dictionaries are not loaded.
+     */
+    public String correct(String normalizedQuery) {
+        Dictionaries current = dictionaries;
+        if (current == null || normalizedQuery.isEmpty()) {
+            return normalizedQuery;
+        }
+
+        String[] tokens = normalizedQuery.split(" ");
+        boolean[] unknown = new boolean[tokens.length];
+        boolean any = false;
+        for (int i = 0; i < tokens.length; i++) {
+            unknown[i] = isCorrectable(tokens[i]) && !current.words.contains(tokens[i]);
+            any |= unknown[i];
+        }
+        if (!any) {
+            return normalizedQuery;
+        }
+
+        boolean corrected = false;
+        for (int i = 0; i < tokens.length - 1; i++) {
+            if ((unknown[i] || unknown[i + 1]) && isName(tokens[i]) && isName(tokens[i + 1])) {
+                String name = tokens[i] + " " + tokens[i + 1];
+                String correction = current.names.correct(name, maxDistance(name));
+                int space = correction != null ? correction.indexOf(' ') : -1;
+                if (space > 0) {
+                    tokens[i] = correction.substring(0, space);
+                    tokens[i + 1] = correction.substring(space + 1);
+                    unknown[i] = false;
+                    unknown[i + 1] = false;
+                    corrected = true;
+                    pipelineMetrics.correction("name");
+                    i++;
+                }
+            }
+        }
+        for (int i = 0; i < tokens.length; i++) {
+            if (unknown[i]) {
+                String correction = current.words.correct(tokens[i], maxDistance(tokens[i]));
+                if (correction != null) {
+                    tokens[i] = correction;
+                    corrected = true;
+                    pipelineMetrics.correction("word");
+                }
+            }
+        }
+        return corrected ? String.join(" ", tokens) : normalizedQuery;
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.spelling.initial-delay-ms:0}",
+            fixedDelayString = "${couchflix.spelling.refresh-ms:3600000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            Dictionaries loaded = load();
+            dictionaries = loaded;
+            log.info("Spelling dictionaries loaded: {} words, {} names, {} KB, in {} ms", loaded.words.size(),
+                    loaded.names.size(), (loaded.words.memoryFootprintBytes() + loaded.names.memoryFootprintBytes()) / 1024,
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not load the spelling dictionaries, keeping the previous ones", e);
+        }
+    }
+
+    private int maxDistance(String word) {
+        return word.length() <= shortWordLength ? 1 : maxEditDistance;
+    }
+
+    private boolean isCorrectable(String token) {
+        if (token.length() < minWordLength || TextAnalyzer.STANDARD.analyze(token).isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isLetter(token.charAt(i)) && token.charAt(i) != '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isName(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isLetter(token.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Dictionaries load() {
+        Bucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket();
+        SymSpellDictionary.Builder words = new SymSpellDictionary.Builder(maxEditDistance, prefixLength);
+        SymSpellDictionary.Builder names = new SymSpellDictionary.Builder(maxEditDistance, prefixLength);
+
+        query(bucket, "SELECT m.title, m.original_title AS originalTitle, m.collection.name AS collection, m.overview "
+                + "FROM `" + bucket.name() + "` m WHERE m._class = '" + Movie.class.getName() + "'", value -> {
+            addWords(words, value.getString("title"), 1);
+            addWords(words, value.getString("originalTitle"), 1);
+            addWords(words, value.getString("collection"), 1);
+            addWords(words, value.getString("overview"), 1);
+        });
+        // the names are counted as words too, so "hanks" is not corrected to "hands"
+        query(bucket, "SELECT META(a).id AS id, a.moviesCount FROM `" + bucket.name() + "` a "
+                + "WHERE a._class = '" + ActorName.class.getName() + "' "
+                + "ORDER BY a.moviesCount DESC LIMIT " + maxNames, value -> {
+            String[] parts = value.getString("id").substring(ACTOR_NAME_PREFIX.length()).split("-");
+            Integer moviesCount = value.getInt("moviesCount");
+            long count = Math.max(1, moviesCount == null ? 0 : moviesCount);
+            if (parts.length == 2 && !parts[0].isEmpty() && !parts[1].isEmpty()) {
+                names.add(parts[0] + " " + parts[1], count);
+            }
+            for (String part : parts) {
+                if (!part.isEmpty()) {
+                    words.add(part, minCount);
+                }
+            }
+        });
+        return new Dictionaries(words.build(minCount), names.build(1));
+    }
+
+    private static void addWords(SymSpellDictionary.Builder builder, String text, long count) {
+        for (String word : TextAnalyzer.STANDARD.analyze(text)) {
+            builder.add(word, count);
+        }
+    }
+
+    private static void query(Bucket bucket, String statement, Consumer<JsonObject> consumer) {
+        bucket.async()
+                .query(N1qlQuery.simple(statement))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .toBlocking()
+                .forEach(row -> consumer.accept(row.value()));
+    }
+
+    private static final class Dictionaries {
+
+        private final SymSpellDictionary words;
+        private final SymSpellDictionary names;
+
+        Dictionaries(SymSpellDictionary words, SymSpellDictionary names) {
+            this.words = words;
+            this.names = names;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.StaticRankRun;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.core.BackpressureException;
+import com.couchbase.client.core.RequestCancelledException;
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.TemporaryFailureException;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
+import com.couchbase.client.java.util.retry.RetryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recomputes weightedRating ({@link ScoreCalc}) and staticRank ({@link BoostQueryTemplates#staticRank})
+ * of every movie, so the ranking can boost on staticRank alone (couchflix.search.static-rank).
+ *
+ * The key space is split into couchflix.static-rank.partitions ranges of about the same number of movies,
+ * whose bounds are picked in one pass over the sorted keys, and the ranges are scanned concurrently with keyset-paginated N1QL queries of couchflix.static-rank.batch-size rows.
+ * Only the movies whose values changed are written, with a sub-document mutation of both fields under
+ * the CAS of the scan; a movie modified in between is left for the next run.
+ *
+ * Runs execute on a thread of their own, so the scheduled refresh does not hold a thread of the
+ * shared task scheduler for the length of the scan.
+ */
+@Component
+public class StaticRankJob {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticRankJob.class);
+
+    // values closer than this are not worth a write
+    private static final double EPSILON = 1e-9;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Value("${couchflix.static-rank.enabled:false}")
+    private boolean enabled;
+
+    @Value("${couchflix.static-rank.partitions:8}")
+    private int partitions;
+
+    @Value("${couchflix.static-rank.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${couchflix.static-rank.max-in-flight:64}")
+    private int maxInFlight;
+
+    @Value("${couchflix.static-rank.timeout-ms:2500}")
+    private long timeoutMs;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Run lastRun;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("couchflix-static-rank-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.static-rank.initial-delay-ms:60000}",
+            fixedDelayString = "${couchflix.static-rank.refresh-ms:86400000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            start();
+        } catch (IllegalStateException e) {
+            log.info("Skipping the scheduled static rank refresh: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a run in the background.
+     *
+     * @throws IllegalStateException if a run is already in progress
+     */
+    public StaticRankRun start() {
+        Run run = begin();
+        Observable.fromCallable(() -> execute(run))
+                .subscribeOn(Schedulers.from(executor))
+                .subscribe(result -> {}, e -> log.warn("Could not recompute the static ranks", e));
+        return run.status();
+    }
+
+    /**
+     * The progress of the running recomputation, or the outcome of the last one; null before the first run.
+     */
+    public StaticRankRun status() {
+        Run run = lastRun;
+        return run != null ? run.status() : null;
+    }
+
+    public StaticRankRun run() {
+        return execute(begin());
+    }
+
+    private Run begin() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("The static ranks are already being recomputed");
+        }
+        Run run = new Run();
+        lastRun = run;
+        return run;
+    }
+
+    private StaticRankRun execute(Run run) {
+        try {
+            Bucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket();
+            int year = LocalDate.now().getYear();
+            List<String> bounds = bounds(bucket);
+            run.partitions = bounds.size() + 1;
+
+            List<Observable<Long>> scans = new ArrayList<>();
+            for (int i = 0; i <= bounds.size(); i++) {
+                String from = i == 0 ? null : bounds.get(i - 1);
+                String to = i == bounds.size() ? null : bounds.get(i);
+                scans.add(scan(bucket.async(), from, true, to, year, run).subscribeOn(Schedulers.io()));
+            }
+            Observable.merge(scans).toBlocking().lastOrDefault(0L);
+            run.finish(null);
+        } catch (RuntimeException e) {
+            run.finish(e);
+            throw e;
+        } finally {
+            running.set(false);
+        }
+        return run.status();
+    }
+
+    /**
+     * The first key of every partition but the first, taken at even offsets of the sorted keys. The keys
+     * are streamed once instead of skipping to each offset, which would scan the index from its start
+     * once per partition.
+     */
+    private List<String> bounds(Bucket bucket) {
+        JsonObject count = bucket.query(N1qlQuery.simple("SELECT COUNT(*) AS movies FROM `" + bucket.name() + "` m "
+                + "WHERE m._class = '" + Movie.class.getName() + "'")).allRows().get(0).value();
+        long movies = count.getLong("movies");
+
+        List<String> bounds = new ArrayList<>();
+        if (movies <= partitions) {
+            return bounds;
+        }
+        long[] position = {0};
+        bucket.async()
+                .query(N1qlQuery.simple("SELECT META(m).id AS id FROM `" + bucket.name() + "` m "
+                        + "WHERE m._class = '" + Movie.class.getName() + "' ORDER BY META(m).id"))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .takeWhile(row -> bounds.size() < partitions - 1)
+                .toBlocking()
+                .forEach(row -> {
+                    if (position[0]++ == movies * (bounds.size() + 1) / partitions) {
+                        bounds.add(row.value().getString("id"));
+                    }
+                });
+        return bounds;
+    }
+
+    /**
+     * Scans the keys from the given one up to the exclusive bound, null meaning unbounded, one batch after
+     * the other.
+     *
+     * @return the number of movies scanned by each batch
+     */
+    private Observable<Long> scan(AsyncBucket bucket, String from, boolean inclusive, String to, int year, Run run) {
+        return batch(bucket, from, inclusive, to)
+                .concatMap(rows -> rows.isEmpty() ? Observable.just(0L)
+                        : update(bucket, rows, year, run).concatWith(
+                                rows.size() < batchSize ? Observable.empty()
+                                        : scan(bucket, rows.get(rows.size() - 1).getString("id"), false, to, year, run)));
+    }
+
+    private Observable<List<JsonObject>> batch(AsyncBucket bucket, String from, boolean inclusive, String to) {
+        JsonObject parameters = JsonObject.create();
+        StringBuilder statement = new StringBuilder("SELECT META(m).id AS id, TOSTRING(META(m).cas) AS cas, ")
+                .append("m.release_date, m.release_year, m.popularity, m.runtime, m.promoted, ")
+                .append("m.vote_average, m.vote_count, m.weightedRating, m.staticRank ")
+                .append("FROM `").append(bucket.name()).append("` m ")
+                .append("WHERE m._class = '").append(Movie.class.getName()).append("'");
+        if (from != null) {
+            statement.append(" AND META(m).id ").append(inclusive ? ">=" : ">").append(" $from");
+            parameters.put("from", from);
+        }
+        if (to != null) {
+            statement.append(" AND META(m).id < $to");
+            parameters.put("to", to);
+        }
+        statement.append(" ORDER BY META(m).id LIMIT ").append(batchSize);
+
+        return bucket.query(N1qlQuery.parameterized(statement.toString(), parameters))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .map(row -> row.value())
+                .toList();
+    }
+
+    private Observable<Long> update(AsyncBucket bucket, List<JsonObject> rows, int year, Run run) {
+        run.scanned.addAndGet(rows.size());
+        return Observable.from(rows)
+                .flatMap(row -> write(bucket, row, year, run), maxInFlight)
+                .count()
+                .map(written -> (long) rows.size());
+    }
+
+    private Observable<Boolean> write(AsyncBucket bucket, JsonObject row, int year, Run run) {
+        Number voteAverage = (Number) row.get("vote_average");
+        Number voteCount = (Number) row.get("vote_count");
+        Number storedRating = (Number) row.get("weightedRating");
+        Double weightedRating = voteAverage != null && voteCount != null
+                ? ScoreCalc.weightedRating(voteAverage.doubleValue(), voteCount.longValue())
+                : storedRating != null ? storedRating.doubleValue() : null;
+        double staticRank = BoostQueryTemplates.staticRank(year, releaseYear(row), (Number) row.get("popularity"),
+                (Number) row.get("runtime"), weightedRating, row.getBoolean("promoted"));
+
+        if (!changed(storedRating, weightedRating) && !changed((Number) row.get("staticRank"), staticRank)) {
+            return Observable.empty();
+        }
+
+        String id = row.getString("id");
+        return Observable.defer(() -> {
+                    AsyncMutateInBuilder mutation = bucket.mutateIn(id)
+                            .upsert(BoostQueryTemplates.STATIC_RANK_FIELD, staticRank)
+                            .withCas(Long.parseLong(row.getString("cas")));
+                    if (weightedRating != null) {
+                        mutation.upsert("weightedRating", weightedRating);
+                    }
+                    return mutation.execute();
+                })
+                .timeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .retryWhen(RetryBuilder
+                        .anyMatches(StaticRankJob::isRetryable)
+                        .delay(Delay.exponential(TimeUnit.MILLISECONDS, 1000, 10))
+                        .max(3)
+                        .build())
+                .map(written -> {
+                    run.changed.incrementAndGet();
+                    return true;
+                })
+                .onErrorResumeNext(e -> {
+                    if (e instanceof CASMismatchException) {
+                        run.conflicts.incrementAndGet();
+                    } else {
+                        run.failed.incrementAndGet();
+                        log.warn("Could not update the static rank of {}: {}", id, e.toString());
+                    }
+                    return Observable.empty();
+                });
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        return e instanceof TemporaryFailureException || e instanceof BackpressureException
+                || e instanceof RequestCancelledException || e instanceof TimeoutException;
+    }
+
+    private static Number releaseYear(JsonObject row) {
+        Number releaseYear = (Number) row.get("release_year");
+        String releaseDate = row.getString("release_date");
+        if (releaseYear == null && releaseDate != null && releaseDate.length() >= 4) {
+            try {
+                return Integer.parseInt(releaseDate.substring(0, 4));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return releaseYear;
+    }
+
+    private static boolean changed(Number stored, Double computed) {
+        if (stored == null || computed == null) {
+            return stored != null || computed != null;
+        }
+        return Math.abs(stored.doubleValue() - computed) > EPSILON;
+    }
+
+    private static final class Run {
+
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong changed = new AtomicLong();
+        private final AtomicLong conflicts = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile int partitions;
+        private volatile boolean running = true;
+        private volatile long endNanos;
+        private volatile String error;
+
+        void finish(Throwable e) {
+            endNanos = System.nanoTime();
+            running = false;
+            if (e != null) {
+                error = e.toString();
+            } else {
+                log.info("Static ranks recomputed in {} ms: {} movies scanned in {} partitions, {} changed, {} conflicts, {} failed",
+                        TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos), scanned.get(), partitions,
+                        changed.get(), conflicts.get(), failed.get());
+            }
+        }
+
+        StaticRankRun status() {
+            long now = running ? System.nanoTime() : endNanos;
+            return new StaticRankRun(running, startedAt, TimeUnit.NANOSECONDS.toMillis(now - startNanos), partitions,
+                    scanned.get(), changed.get(), conflicts.get(), failed.get(), error);
+        }
+    }
+}
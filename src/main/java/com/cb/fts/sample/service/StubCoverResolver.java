@@ -0,0 +1,27 @@
+package com.cb.fts.sample.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stands in for the browser when couchflix.cover.resolver=stub, e.g. in tests and load tests.
+ */
+@Component
+@ConditionalOnProperty(name = "couchflix.cover.resolver", havingValue = "stub")
+public class StubCoverResolver implements CoverResolver {
+
+    @Value("${couchflix.cover.stub-url:default.jpg}")
+    private String url;
+
+    @Value("${couchflix.cover.stub-delay-ms:0}")
+    private long delayMs;
+
+    @Override
+    public String resolve(String movieName) throws Exception {
+        if (delayMs > 0) {
+            Thread.sleep(delayMs);
+        }
+        return url;
+    }
+}
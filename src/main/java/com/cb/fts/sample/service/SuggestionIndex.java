@@ -0,0 +1,332 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.Suggestion;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.AsyncN1qlQueryResult;
+import com.couchbase.client.java.query.N1qlQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-process typeahead over movie titles, original titles, collection names and actor names.
+ *
+ * Completions are kept in arrays sorted by their normalized text, so the completions of a prefix
+ * are one contiguous range found by binary search. Narrow ranges are scanned for their top entries;
+ * wide ranges (short prefixes) are answered by walking all entries in weight order until enough of
+ * them fall inside the range. Requests never reach Couchbase.
+ *
+ * Refreshes only read the documents changed since the previous one (by CAS, a range scan of the
+ * index in indexes/suggestions.n1ql) and merge them into a new index that is swapped atomically.
+ * A deleted document has no CAS left to scan, so the completions of deleted movies and actors are
+ * still suggested until the next full rebuild, every couchflix.suggest.full-rebuild-ms. The index
+ * keeps the couchflix.suggest.max-entries completions with the highest weights.
+ */
+@Component
+public class SuggestionIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SuggestionIndex.class);
+
+    private static final String ACTOR_NAME_PREFIX = "actorName-";
+    // above this many candidates the weight-ordered walk is cheaper than scanning the range
+    private static final int MAX_RANGE_SCAN = 2048;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Value("${couchflix.suggest.full-rebuild-ms:86400000}")
+    private long fullRebuildMs;
+
+    @Value("${couchflix.suggest.max-entries:500000}")
+    private int maxEntries;
+
+    private volatile Index index = new Index(new ArrayList<>(), 0);
+    private volatile long maxCas;
+    private volatile long lastFullBuild;
+
+    /**
+     * The highest weighted completions of the prefix, ties in key order.
+     */
+    public List<Suggestion> suggest(String prefix, int size) {
+        String key = EntityExtractor.normalize(prefix);
+        if (key.isEmpty() || size <= 0) {
+            return new ArrayList<>();
+        }
+        return index.suggest(key, size);
+    }
+
+    public int size() {
+        return index.keys.length;
+    }
+
+    @Scheduled(initialDelayString = "${couchflix.suggest.initial-delay-ms:0}",
+            fixedDelayString = "${couchflix.suggest.refresh-ms:600000}")
+    public void refresh() {
+        try {
+            long start = System.currentTimeMillis();
+            boolean full = lastFullBuild == 0 || start - lastFullBuild >= fullRebuildMs;
+            long since = full ? 0 : maxCas;
+
+            Bucket bucket = movieRepository.getCouchbaseOperations().getCouchbaseBucket();
+            List<Entry> changed = new ArrayList<>();
+            long[] cas = {since};
+            load(bucket, "SELECT META(m).id AS id, META(m).cas AS cas, m.title, m.original_title AS originalTitle, "
+                    + "m.collection.name AS collection, m.popularity AS weight FROM `" + bucket.name() + "` m "
+                    + "WHERE m._class = '" + Movie.class.getName() + "' AND META(m).cas > " + since, changed, cas);
+            load(bucket, "SELECT META(a).id AS id, META(a).cas AS cas, a.moviesCount AS weight FROM `" + bucket.name() + "` a "
+                    + "WHERE a._class = '" + ActorName.class.getName() + "' AND META(a).cas > " + since, changed, cas);
+
+            if (full) {
+                index = new Index(changed, maxEntries);
+                lastFullBuild = start;
+            } else if (!changed.isEmpty()) {
+                index = index.merge(changed, maxEntries);
+            }
+            maxCas = cas[0];
+            log.info("Suggestion index {}: {} changed entries, {} total, in {} ms", full ? "rebuilt" : "refreshed",
+                    changed.size(), index.keys.length, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Could not refresh the suggestion index, keeping the previous one", e);
+        }
+    }
+
+    private static void load(Bucket bucket, String statement, List<Entry> entries, long[] maxCas) {
+        bucket.async()
+                .query(N1qlQuery.simple(statement))
+                .flatMap(AsyncN1qlQueryResult::rows)
+                .toBlocking()
+                .forEach(row -> {
+                    JsonObject value = row.value();
+                    String id = value.getString("id");
+                    Number cas = value.getNumber("cas");
+                    if (cas != null) {
+                        maxCas[0] = Math.max(maxCas[0], cas.longValue());
+                    }
+                    Number weight = value.getNumber("weight");
+                    float w = (float) Math.log1p(weight == null ? 0 : Math.max(0, weight.doubleValue()));
+
+                    if (id.startsWith(ACTOR_NAME_PREFIX)) {
+                        add(entries, displayName(id), Suggestion.Type.PERSON, id, w);
+                    } else {
+                        add(entries, value.getString("title"), Suggestion.Type.TITLE, id, w);
+                        add(entries, value.getString("originalTitle"), Suggestion.Type.TITLE, id, w);
+                        add(entries, value.getString("collection"), Suggestion.Type.COLLECTION, null, w);
+                    }
+                });
+    }
+
+    private static void add(List<Entry> entries, String text, Suggestion.Type type, String id, float weight) {
+        if (text != null && !text.trim().isEmpty()) {
+            entries.add(new Entry(EntityExtractor.normalize(text), text.trim(), type, id, weight));
+        }
+    }
+
+    /**
+     * "actorName-tom-hanks" -> "Tom Hanks"
+     */
+    private static String displayName(String actorNameId) {
+        String name = actorNameId.substring(ACTOR_NAME_PREFIX.length());
+        StringBuilder display = new StringBuilder(name.length());
+        boolean upper = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '-') {
+                display.append(' ');
+                upper = true;
+            } else {
+                display.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return display.toString();
+    }
+
+    static final class Entry {
+
+        private final String key;
+        private final String text;
+        private final Suggestion.Type type;
+        private final String id;
+        private final float weight;
+
+        Entry(String key, String text, Suggestion.Type type, String id, float weight) {
+            this.key = key;
+            this.text = text;
+            this.type = type;
+            this.id = id;
+            this.weight = weight;
+        }
+
+        // collections are shared by several movies, titles and people are unique per document
+        String identity() {
+            return type + ":" + key + ":" + (type == Suggestion.Type.COLLECTION ? "" : id);
+        }
+    }
+
+    static final class Index {
+
+        private final String[] keys;
+        private final String[] texts;
+        private final Suggestion.Type[] types;
+        private final String[] ids;
+        private final float[] weights;
+        // positions in the arrays above, highest weight first
+        private final int[] byWeight;
+
+        /**
+         * @param maxEntries the number of completions kept, the lowest weights are dropped
+         */
+        Index(List<Entry> entries, int maxEntries) {
+            Map<String, Entry> unique = new HashMap<>(entries.size() * 2);
+            for (Entry entry : entries) {
+                unique.merge(entry.identity(), entry, (a, b) -> a.weight >= b.weight ? a : b);
+            }
+            Entry[] sorted = unique.values().toArray(new Entry[0]);
+            if (sorted.length > maxEntries) {
+                Arrays.sort(sorted, (a, b) -> Float.compare(b.weight, a.weight));
+                sorted = Arrays.copyOf(sorted, maxEntries);
+            }
+            Arrays.sort(sorted, (a, b) -> {
+                int c = a.key.compareTo(b.key);
+                return c != 0 ? c : Float.compare(b.weight, a.weight);
+            });
+
+            keys = new String[sorted.length];
+            texts = new String[sorted.length];
+            types = new Suggestion.Type[sorted.length];
+            ids = new String[sorted.length];
+            weights = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                keys[i] = sorted[i].key;
+                texts[i] = sorted[i].text;
+                types[i] = sorted[i].type;
+                ids[i] = sorted[i].id;
+                weights[i] = sorted[i].weight;
+            }
+
+            Integer[] order = new Integer[sorted.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(weights[b], weights[a]));
+            byWeight = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                byWeight[i] = order[i];
+            }
+        }
+
+        /**
+         * A new index with the changed entries replacing the previous entries of the same documents.
+         */
+        Index merge(List<Entry> changed, int maxEntries) {
+            Set<String> changedIds = new HashSet<>();
+            for (Entry entry : changed) {
+                if (entry.id != null) {
+                    changedIds.add(entry.id);
+                }
+            }
+            List<Entry> entries = new ArrayList<>(keys.length + changed.size());
+            for (int i = 0; i < keys.length; i++) {
+                if (ids[i] == null || !changedIds.contains(ids[i])) {
+                    entries.add(new Entry(keys[i], texts[i], types[i], ids[i], weights[i]));
+                }
+            }
+            entries.addAll(changed);
+            return new Index(entries, maxEntries);
+        }
+
+        List<Suggestion> suggest(String prefix, int size) {
+            int from = lowerBound(prefix);
+            int to = endOfPrefix(prefix, from);
+
+            int[] top;
+            if (to - from <= MAX_RANGE_SCAN) {
+                top = scan(from, to, size);
+            } else {
+                top = walk(from, to, size);
+            }
+
+            List<Suggestion> suggestions = new ArrayList<>(top.length);
+            for (int i : top) {
+                suggestions.add(new Suggestion(texts[i], types[i], ids[i]));
+            }
+            return suggestions;
+        }
+
+        private int[] scan(int from, int to, int size) {
+            int[] top = new int[Math.min(size, to - from)];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (count < top.length) {
+                    count++;
+                } else if (weights[i] <= weights[top[count - 1]]) {
+                    continue;
+                }
+                // insertion into the small descending array
+                int j = count - 1;
+                while (j > 0 && weights[top[j - 1]] < weights[i]) {
+                    top[j] = top[j - 1];
+                    j--;
+                }
+                top[j] = i;
+            }
+            return top;
+        }
+
+        private int[] walk(int from, int to, int size) {
+            int[] top = new int[Math.min(size, to - from)];
+            int count = 0;
+            for (int i = 0; i < byWeight.length && count < top.length; i++) {
+                int position = byWeight[i];
+                if (position >= from && position < to) {
+                    top[count++] = position;
+                }
+            }
+            return top;
+        }
+
+        private int lowerBound(String prefix) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // keys starting with the prefix are contiguous from the lower bound on
+        private int endOfPrefix(String prefix, int from) {
+            int low = from;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.cb.fts.sample.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spelling correction by symmetric deletes (SymSpell): every term is indexed under the strings obtained
+ * by deleting up to maxEditDistance characters from its first prefixLength characters. A misspelled word
+ * generates the same deletes of its own prefix, so the candidates within the edit distance are found with
+ * a few hash lookups instead of comparing the word to the whole vocabulary; each candidate is then checked
+ * with the Damerau-Levenshtein (optimal string alignment) distance of the whole words.
+ *
+ * The deletes are kept as 32-bit hashes in an open addressing table whose slots point to linked lists of
+ * term positions, 8 bytes per posting; hash collisions only add candidates that fail the distance check.
+ */
+public final class SymSpellDictionary {
+
+    private static final double MAX_LOAD = 0.75;
+    private static final int NONE = -1;
+
+    private final String[] terms;
+    private final long[] counts;
+    private final Map<String, Integer> positions;
+    private final int maxEditDistance;
+    private final int prefixLength;
+
+    private final int[] keys;
+    private final int[] heads;
+    private final int[] next;
+    private final int[] postings;
+    private final int mask;
+
+    private SymSpellDictionary(Builder builder) {
+        this.maxEditDistance = builder.maxEditDistance;
+        this.prefixLength = builder.prefixLength;
+        this.terms = builder.terms.toArray(new String[0]);
+        this.counts = Arrays.copyOf(builder.counts, terms.length);
+        this.positions = builder.positions;
+
+        int[] deleteHashes = new int[1024];
+        int[] deleteTerms = new int[1024];
+        int size = 0;
+        Set<String> deletes = new HashSet<>();
+        for (int t = 0; t < terms.length; t++) {
+            deletes.clear();
+            deletes(prefix(terms[t]), maxEditDistance, deletes);
+            for (String delete : deletes) {
+                if (size == deleteHashes.length) {
+                    deleteHashes = Arrays.copyOf(deleteHashes, size + (size >> 1));
+                    deleteTerms = Arrays.copyOf(deleteTerms, deleteHashes.length);
+                }
+                deleteHashes[size] = hash(delete);
+                deleteTerms[size] = t;
+                size++;
+            }
+        }
+
+        int capacity = Integer.highestOneBit((int) Math.ceil(Math.max(size, 1) / MAX_LOAD));
+        if (capacity * MAX_LOAD < size) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        heads = new int[capacity];
+        mask = capacity - 1;
+        next = new int[size];
+        postings = Arrays.copyOf(deleteTerms, size);
+        for (int i = 0; i < size; i++) {
+            int slot = slot(deleteHashes[i]);
+            if (keys[slot] == 0) {
+                keys[slot] = deleteHashes[i];
+                heads[slot] = NONE;
+            }
+            next[i] = heads[slot];
+            heads[slot] = i;
+        }
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public boolean contains(String term) {
+        return positions.containsKey(term);
+    }
+
+    public long count(String term) {
+        Integer position = positions.get(term);
+        return position == null ? 0 : counts[position];
+    }
+
+    /**
+     * An estimate of the heap held by the dictionary with compressed object pointers: the delete table and
+     * postings, the term strings and counts, and the map of the term positions.
+     */
+    public long memoryFootprintBytes() {
+        long bytes = (long) keys.length * 2 * Integer.BYTES + (long) next.length * 2 * Integer.BYTES
+                + (long) counts.length * Long.BYTES + (long) terms.length * Integer.BYTES;
+        for (String term : terms) {
+            // the String and its char array
+            bytes += 24 + align(16 + 2L * term.length());
+        }
+        // a node and a boxed position per term, and the table of the HashMap
+        long table = Integer.highestOneBit(Math.max(1, (int) Math.ceil(terms.length / 0.75)) * 2 - 1);
+        return bytes + terms.length * (32L + 16L) + table * Integer.BYTES;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * The term closest to the word within the edit distance, the most frequent one on ties; the word
+     * itself when it is a term, null when no term is close enough.
+     *
+     * @param maxDistance at most the maxEditDistance of the dictionary
+     */
+    public String correct(String word, int maxDistance) {
+        if (positions.containsKey(word)) {
+            return word;
+        }
+        maxDistance = Math.min(maxDistance, maxEditDistance);
+        if (maxDistance <= 0) {
+            return null;
+        }
+
+        Set<String> deletes = new HashSet<>();
+        deletes(prefix(word), maxDistance, deletes);
+
+        int best = NONE;
+        int bestDistance = maxDistance + 1;
+        for (String delete : deletes) {
+            int hash = hash(delete);
+            int slot = find(hash);
+            for (int p = slot < 0 ? NONE : heads[slot]; p != NONE; p = next[p]) {
+                int t = postings[p];
+                String term = terms[t];
+                if (t == best || Math.abs(term.length() - word.length()) > maxDistance) {
+                    continue;
+                }
+                int distance = distance(word, term, Math.min(bestDistance, maxDistance));
+                if (distance < bestDistance || (distance == bestDistance && best != NONE && counts[t] > counts[best])) {
+                    best = t;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best == NONE ? null : terms[best];
+    }
+
+    private String prefix(String term) {
+        return term.length() <= prefixLength ? term : term.substring(0, prefixLength);
+    }
+
+    /**
+     * The string and every string obtained by deleting up to the given number of its characters.
+     */
+    private static void deletes(String word, int distance, Set<String> deletes) {
+        if (!deletes.add(word) || distance == 0 || word.length() <= 1) {
+            return;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            String delete = word.substring(0, i) + word.substring(i + 1);
+            deletes(delete, distance - 1, deletes);
+        }
+    }
+
+    /**
+     * Optimal string alignment distance, or max + 1 as soon as it exceeds max.
+     */
+    static int distance(String a, String b, int max) {
+        int n = a.length();
+        int m = b.length();
+        if (Math.abs(n - m) > max) {
+            return max + 1;
+        }
+        int[] previous2 = new int[m + 1];
+        int[] previous = new int[m + 1];
+        int[] current = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= m; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d = Math.min(d, previous2[j - 2] + 1);
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[m], max + 1);
+    }
+
+    private int slot(int hash) {
+        int slot = hash & mask;
+        while (keys[slot] != 0 && keys[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int find(int hash) {
+        int slot = slot(hash);
+        return keys[slot] == 0 ? NONE : slot;
+    }
+
+    private static int hash(String value) {
+        long h = ActorNameDictionary.hash(value);
+        int folded = (int) (h ^ (h >>> 32));
+        // zero marks an empty slot
+        return folded == 0 ? 1 : folded;
+    }
+
+    public static final class Builder {
+
+        private final int maxEditDistance;
+        private final int prefixLength;
+        private final List<String> terms = new ArrayList<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+        private long[] counts = new long[1024];
+
+        public Builder(int maxEditDistance, int prefixLength) {
+            this.maxEditDistance = maxEditDistance;
+            this.prefixLength = Math.max(prefixLength, maxEditDistance + 1);
+        }
+
+        /**
+         * Adds the count to the term, which is added first if needed.
+         */
+        public Builder add(String term, long count) {
+            Integer position = positions.get(term);
+            if (position == null) {
+                position = terms.size();
+                positions.put(term, position);
+                terms.add(term);
+                if (position == counts.length) {
+                    counts = Arrays.copyOf(counts, position + (position >> 1));
+                }
+            }
+            counts[position] += count;
+            return this;
+        }
+
+        /**
+         * Keeps only the terms counted at least minCount times, rare terms being mostly typos of the source.
+         */
+        public SymSpellDictionary build(long minCount) {
+            Builder kept = new Builder(maxEditDistance, prefixLength);
+            for (int i = 0; i < terms.size(); i++) {
+                if (counts[i] >= minCount) {
+                    kept.add(terms.get(i), counts[i]);
+                }
+            }
+            return new SymSpellDictionary(kept);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.cb.fts.sample.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The analyzers of indexes/movies_shingle.json for the in-memory index: a unicode tokenizer followed
+ * by the token filters of each analyzer, applied in the same order as in the index definition.
+ * Shingles are joined without separator, like the "shingle" token filters of the index.
+ */
+public enum TextAnalyzer {
+
+    // names_analyzer: to_lower, shigle_pure
+    NAMES(Filter.TO_LOWER, Filter.SHINGLES_ONLY),
+    // overview_analyzer: stop_en, to_lower, single_1_2
+    OVERVIEW(Filter.STOP_EN, Filter.TO_LOWER, Filter.SHINGLES),
+    // titles_analyzer: to_lower, stop_en, shingle_simple
+    TITLES(Filter.TO_LOWER, Filter.STOP_EN, Filter.SHINGLES),
+    // "standard", the default analyzer of the index
+    STANDARD(Filter.TO_LOWER, Filter.STOP_EN),
+    KEYWORD;
+
+    // the stop_en token filter of bleve
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "i", "me", "my", "myself", "we", "our", "ours", "ourselves", "you", "your", "yours", "yourself",
+            "yourselves", "he", "him", "his", "himself", "she", "her", "hers", "herself", "it", "its", "itself",
+            "they", "them", "their", "theirs", "themselves", "what", "which", "who", "whom", "this", "that",
+            "these", "those", "am", "is", "are", "was", "were", "be", "been", "being", "have", "has", "had",
+            "having", "do", "does", "did", "doing", "would", "should", "could", "ought", "i'm", "you're", "he's",
+            "she's", "it's", "we're", "they're", "i've", "you've", "we've", "they've", "i'd", "you'd", "he'd",
+            "she'd", "we'd", "they'd", "i'll", "you'll", "he'll", "she'll", "we'll", "they'll", "isn't", "aren't",
+            "wasn't", "weren't", "hasn't", "haven't", "hadn't", "doesn't", "don't", "didn't", "won't", "wouldn't",
+            "shan't", "shouldn't", "can't", "cannot", "couldn't", "mustn't", "let's", "that's", "who's", "what's",
+            "here's", "there's", "when's", "where's", "why's", "how's", "a", "an", "the", "and", "but", "if", "or",
+            "because", "as", "until", "while", "of", "at", "by", "for", "with", "about", "against", "between",
+            "into", "through", "during", "before", "after", "above", "below", "to", "from", "up", "down", "in",
+            "out", "on", "off", "over", "under", "again", "further", "then", "once", "here", "there", "when",
+            "where", "why", "how", "all", "any", "both", "each", "few", "more", "most", "other", "some", "such",
+            "no", "nor", "not", "only", "own", "same", "so", "than", "too", "very"));
+
+    private final Filter[] filters;
+
+    TextAnalyzer(Filter... filters) {
+        this.filters = filters;
+    }
+
+    public List<String> analyze(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (this == KEYWORD) {
+            return Collections.singletonList(text);
+        }
+
+        List<String> tokens = tokenize(text);
+        for (Filter filter : filters) {
+            tokens = filter.apply(tokens);
+        }
+        return tokens;
+    }
+
+    /**
+     * Runs of letters and digits; an apostrophe between two letters stays inside the word ("don't").
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && isWordChar(text, i)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    static boolean isWordChar(String text, int i) {
+        char c = text.charAt(i);
+        if (Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        return c == '\'' && i > 0 && i + 1 < text.length()
+                && Character.isLetter(text.charAt(i - 1)) && Character.isLetter(text.charAt(i + 1));
+    }
+
+    private enum Filter {
+
+        TO_LOWER {
+            @Override
+            List<String> apply(List<String> tokens) {
+                List<String> lower = new ArrayList<>(tokens.size());
+                for (String token : tokens) {
+                    lower.add(token.toLowerCase());
+                }
+                return lower;
+            }
+        },
+        STOP_EN {
+            @Override
+            List<String> apply(List<String> tokens) {
+                List<String> kept = new ArrayList<>(tokens.size());
+                for (String token : tokens) {
+                    if (!STOP_WORDS.contains(token)) {
+                        kept.add(token);
+                    }
+                }
+                return kept;
+            }
+        },
+        // min 1, max 2, output_original
+        SHINGLES {
+            @Override
+            List<String> apply(List<String> tokens) {
+                List<String> shingles = new ArrayList<>(tokens.size() * 2);
+                for (int i = 0; i < tokens.size(); i++) {
+                    shingles.add(tokens.get(i));
+                    if (i + 1 < tokens.size()) {
+                        shingles.add(tokens.get(i) + tokens.get(i + 1));
+                    }
+                }
+                return shingles;
+            }
+        },
+        // min 2, max 2, no original tokens
+        SHINGLES_ONLY {
+            @Override
+            List<String> apply(List<String> tokens) {
+                List<String> shingles = new ArrayList<>(Math.max(0, tokens.size() - 1));
+                for (int i = 0; i + 1 < tokens.size(); i++) {
+                    shingles.add(tokens.get(i) + tokens.get(i + 1));
+                }
+                return shingles;
+            }
+        };
+
+        abstract List<String> apply(List<String> tokens);
+    }
+}
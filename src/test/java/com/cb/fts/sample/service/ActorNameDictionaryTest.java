@@ -0,0 +1,49 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActorNameDictionaryTest {
+
+    @Test
+    public void findsTheMoviesCountByName() {
+        ActorNameDictionary.Builder builder = new ActorNameDictionary.Builder();
+        builder.add(ActorNameDictionary.hash("actorName-tom-hanks"), "actorName-tom-hanks", 48);
+        builder.add(ActorNameDictionary.hash("actorName-meg-ryan"), "actorName-meg-ryan", 22);
+        ActorNameDictionary.Table table = builder.build();
+
+        assertEquals(48, table.get(ActorNameDictionary.hash("actorName-tom-hanks"), "actorName-tom-hanks"));
+        assertEquals(22, table.get(ActorNameDictionary.hash("actorName-meg-ryan"), "actorName-meg-ryan"));
+        assertEquals(ActorNameDictionary.NOT_FOUND,
+                table.get(ActorNameDictionary.hash("actorName-tom-ryan"), "actorName-tom-ryan"));
+    }
+
+    @Test
+    public void confirmsHashMatchesAgainstTheName() {
+        ActorNameDictionary.Builder builder = new ActorNameDictionary.Builder();
+        builder.add(42L, "actorName-tom-hanks", 48);
+        builder.add(42L, "actorName-tim-hanks", 3);
+        ActorNameDictionary.Table table = builder.build();
+
+        assertEquals(2, table.size());
+        assertEquals(48, table.get(42L, "actorName-tom-hanks"));
+        assertEquals(3, table.get(42L, "actorName-tim-hanks"));
+        assertEquals(ActorNameDictionary.NOT_FOUND, table.get(42L, "actorName-the-godfather"));
+    }
+
+    @Test
+    public void keepsTheLargestCountOfDuplicates() {
+        ActorNameDictionary.Builder builder = new ActorNameDictionary.Builder();
+        for (int i = 0; i < 5000; i++) {
+            String id = "actorName-actor-" + i;
+            builder.add(ActorNameDictionary.hash(id), id, i);
+        }
+        builder.add(ActorNameDictionary.hash("actorName-actor-7"), "actorName-actor-7", 1000);
+        ActorNameDictionary.Table table = builder.build();
+
+        assertEquals(5000, table.size());
+        assertEquals(1000, table.get(ActorNameDictionary.hash("actorName-actor-7"), "actorName-actor-7"));
+        assertEquals(4999, table.get(ActorNameDictionary.hash("actorName-actor-4999"), "actorName-actor-4999"));
+    }
+}
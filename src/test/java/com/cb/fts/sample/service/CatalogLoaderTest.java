@@ -0,0 +1,56 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CatalogLoaderTest {
+
+    @Test
+    public void keepsTheTopBilledCast() {
+        CatalogLoader catalogLoader = new CatalogLoader();
+        ReflectionTestUtils.setField(catalogLoader, "castAdjustedSize", 2);
+        Map<String, Object> movie = new HashMap<>();
+        movie.put("cast", new ArrayList<>(Arrays.asList(actor("Sting", null), actor("Nick Moran", 2),
+                actor("Jason Flemyng", 0), actor("Dexter Fletcher", 1))));
+
+        List<?> castAdjusted = (List<?>) catalogLoader.derive(movie).get("castAdjusted");
+
+        assertEquals(Arrays.asList(actor("Jason Flemyng", 0), actor("Dexter Fletcher", 1)), castAdjusted);
+    }
+
+    @Test
+    public void resolvesPathsInTheImportDirectoryOnly() {
+        CatalogLoader catalogLoader = new CatalogLoader();
+        ReflectionTestUtils.setField(catalogLoader, "importDir", "/srv/catalog");
+
+        assertEquals(Paths.get("/srv/catalog/2024/movies.json.gz"), catalogLoader.resolve("2024/../2024/movies.json.gz"));
+        assertEquals(Paths.get("/srv/catalog/movies.json"), catalogLoader.resolve("/srv/catalog/movies.json"));
+        for (String escaping : new String[]{"../movies.json", "/etc/passwd", "2024/../../catalog2/movies.json"}) {
+            try {
+                catalogLoader.resolve(escaping);
+                fail("resolved " + escaping);
+            } catch (IllegalArgumentException expected) {
+                // out of the import directory
+            }
+        }
+    }
+
+    private static Map<String, Object> actor(String name, Integer order) {
+        Map<String, Object> actor = new HashMap<>();
+        actor.put("name", name);
+        if (order != null) {
+            actor.put("order", order);
+        }
+        return actor;
+    }
+}
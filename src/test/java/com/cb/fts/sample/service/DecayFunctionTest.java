@@ -0,0 +1,27 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DecayFunctionTest {
+
+    @Test
+    public void resolvesNowToTheGivenYear() {
+        DecayFunction function = DecayFunction.parse("gauss origin=now scale=10 decay=0.5 weight=0.4", 2030);
+
+        assertEquals(1, function.decay(2030), 1e-9);
+        assertEquals(0.5, function.decay(2020), 1e-9);
+        assertEquals(0.8, function.multiplier(2040), 1e-9);
+    }
+
+    @Test
+    public void decaysOnlyTheGivenSide() {
+        DecayFunction function = DecayFunction.parse("linear origin=7 scale=4 offset=1 decay=0.5 side=below", 2030);
+
+        assertEquals(1, function.decay(9.5), 1e-9);
+        assertEquals(1, function.decay(6), 1e-9);
+        assertEquals(0.5, function.decay(2), 1e-9);
+        assertEquals(0, function.decay(Double.NaN), 1e-9);
+    }
+}
@@ -0,0 +1,74 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.GENRES;
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.PERSON;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class EntityExtractorTest {
+
+    @Test
+    public void masksGenresJoinedByPunctuation() {
+        EntityExtractor entityExtractor = new EntityExtractor("Sci-Fi/Horror movies, with aliens");
+        assertArrayEquals(new String[]{"sci-fi", "horror", "movies", "with", "aliens"}, entityExtractor.getTokens());
+
+        entityExtractor.addEntity(GENRES, "horror");
+
+        assertEquals("sci-fi movies with aliens", entityExtractor.getWords());
+        assertEquals(Collections.singletonList("horror"), entityExtractor.getEntities().get(GENRES));
+    }
+
+    @Test
+    public void keepsHyphensAndApostrophesInsideWords() {
+        EntityExtractor entityExtractor = new EntityExtractor("jean-pierre léaud's 'quatre cents coups'");
+
+        assertArrayEquals(new String[]{"jean-pierre", "léaud's", "quatre", "cents", "coups"},
+                entityExtractor.getTokens());
+        assertEquals(12, entityExtractor.getTokenStart(1));
+    }
+
+    @Test
+    public void masksOnlyTheGivenTokens() {
+        EntityExtractor entityExtractor = new EntityExtractor("tom hanks comedy");
+        entityExtractor.addEntity(PERSON, "tom hanks", 0, 2);
+        entityExtractor.addEntity(GENRES, "comedy");
+
+        assertEquals("", entityExtractor.getWords());
+        assertEquals(Arrays.asList("tom hanks"), entityExtractor.getEntities().get(PERSON));
+    }
+
+    @Test
+    public void frozenResultsCannotBeModified() {
+        EntityExtractor entityExtractor = new EntityExtractor("tom hanks comedy");
+        entityExtractor.addEntity(GENRES, "comedy");
+        entityExtractor.freeze();
+
+        try {
+            entityExtractor.addEntity(PERSON, "tom hanks", 0, 2);
+            fail("a frozen parse result was modified");
+        } catch (IllegalStateException expected) {
+            assertEquals("tom hanks", entityExtractor.getWords());
+        }
+        try {
+            entityExtractor.spellChecked();
+            fail("a frozen parse result was marked spell-checked");
+        } catch (IllegalStateException expected) {
+            assertFalse(entityExtractor.isSpellChecked());
+        }
+        try {
+            entityExtractor.getEntities().get(GENRES).add("drama");
+            fail("the entities of a frozen parse result were modified");
+        } catch (UnsupportedOperationException expected) {
+            assertEquals(Collections.singletonList("comedy"), entityExtractor.getEntities().get(GENRES));
+        }
+        entityExtractor.getTokens()[0] = "tim";
+        assertEquals("tom", entityExtractor.getToken(0));
+    }
+}
@@ -0,0 +1,92 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.COLLECTION;
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.COUNTRY;
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.GENRES;
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.LANGUAGE;
+import static org.junit.Assert.assertEquals;
+
+public class GazetteerTest {
+
+    @Test
+    public void findsOverlappingTerms() {
+        Gazetteer gazetteer = gazetteer("science fiction", GENRES, "fiction", GENRES, "fiction classics", COLLECTION);
+
+        assertEquals(Arrays.asList("science fiction@0-15", "fiction@8-15", "fiction classics@8-24"),
+                describe(gazetteer.findAll("science fiction classics")));
+    }
+
+    @Test
+    public void rejectsTermsInsideLongerWords() {
+        Gazetteer gazetteer = gazetteer("action", GENRES, "music", GENRES, "drama", GENRES);
+
+        assertEquals(Collections.emptyList(), describe(gazetteer.findAll("reaction musical melodrama")));
+        assertEquals(Arrays.asList("action@0-6", "music@15-20"), describe(gazetteer.findAll("action, sci-fi/music")));
+    }
+
+    @Test
+    public void findsTermsOfSeveralWords() {
+        Gazetteer gazetteer = gazetteer("tv movie", GENRES, "united states of america", COUNTRY, "movie", GENRES);
+
+        assertEquals(Arrays.asList("tv movie@4-12", "movie@7-12", "united states of america@18-42"),
+                describe(gazetteer.findAll("old tv movie from united states of america")));
+        assertEquals(Collections.singletonList("movie@11-16"), describe(gazetteer.findAll("the states movie")));
+    }
+
+    @Test
+    public void keepsTheLongestOfOverlappingTerms() {
+        Gazetteer gazetteer = gazetteer("science fiction", GENRES, "fiction", GENRES, "fiction classics", COLLECTION,
+                "classics", COLLECTION);
+
+        // the leftmost match wins, then the longest of the matches starting at the same position
+        assertEquals(Arrays.asList("science fiction@0-15", "classics@16-24"),
+                describe(gazetteer.findLongest("science fiction classics")));
+        assertEquals(Collections.singletonList("fiction classics@0-16"),
+                describe(gazetteer.findLongest("fiction classics")));
+        assertEquals(Arrays.asList("fiction@0-7", "classics@12-20"),
+                describe(gazetteer.findLongest("fiction and classics")));
+    }
+
+    @Test
+    public void returnsEveryTypeOfATerm() {
+        Map<String, List<EntityExtractor.EntityType>> vocabulary = new HashMap<>();
+        vocabulary.put("french", Arrays.asList(LANGUAGE, COUNTRY));
+        vocabulary.put("french kiss", Collections.singletonList(COLLECTION));
+        Gazetteer gazetteer = Gazetteer.build(vocabulary);
+
+        assertEquals(3, gazetteer.size());
+        List<String> types = new ArrayList<>();
+        for (Gazetteer.Match match : gazetteer.findLongest("french movies")) {
+            types.add(match.getTerm() + ":" + match.getType());
+        }
+        types.sort(null);
+        assertEquals(Arrays.asList("french:COUNTRY", "french:LANGUAGE"), types);
+        assertEquals(Collections.singletonList("french kiss@0-11"), describe(gazetteer.findLongest("french kiss")));
+    }
+
+    private static Gazetteer gazetteer(Object... termsAndTypes) {
+        Map<String, List<EntityExtractor.EntityType>> vocabulary = new HashMap<>();
+        for (int i = 0; i < termsAndTypes.length; i += 2) {
+            vocabulary.put((String) termsAndTypes[i],
+                    Collections.singletonList((EntityExtractor.EntityType) termsAndTypes[i + 1]));
+        }
+        return Gazetteer.build(vocabulary);
+    }
+
+    private static List<String> describe(List<Gazetteer.Match> matches) {
+        List<String> described = new ArrayList<>();
+        for (Gazetteer.Match match : matches) {
+            described.add(match.getTerm() + "@" + match.getStart() + "-" + match.getEnd());
+        }
+        return described;
+    }
+}
@@ -0,0 +1,177 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.CoverVo;
+import com.cb.fts.sample.repositories.MovieRepository;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.data.couchbase.core.CouchbaseOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import rx.Observable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImageServiceTest {
+
+    private static final String STUB_URL = "https://image.tmdb.org/t/p/w500/cover.jpg";
+
+    // resolves once the test releases it, so the lookups stay in flight meanwhile
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger resolves = new AtomicInteger();
+    // the cover documents upserted to the stubbed bucket, none is found before
+    private final Map<String, String> stored = new ConcurrentHashMap<>();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    public void keysShortNamesByName() {
+        assertEquals("cover::the matrix", ImageService.key("the matrix"));
+    }
+
+    @Test
+    public void keysLongNamesByTheirHash() {
+        String prefix = "the lord of the rings the fellowship of the ring extended edition";
+        String first = ImageService.key(prefix + " part one");
+        String second = ImageService.key(prefix + " part two");
+
+        assertNotEquals(first, second);
+        assertTrue(first.startsWith("cover::#"));
+        assertTrue(first.getBytes(StandardCharsets.UTF_8).length <= 250);
+    }
+
+    @Test
+    public void concurrentLookupsOfOneNameShareOneResolve() throws Exception {
+        ImageService imageService = imageService(2, 100);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompletableFuture<CoverVo>>> lookups = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String name = i % 2 == 0 ? "The Matrix" : "the matrix ";
+                lookups.add(callers.submit(() -> imageService.getImgAsync(name)));
+            }
+            List<CompletableFuture<CoverVo>> covers = new ArrayList<>();
+            for (Future<CompletableFuture<CoverVo>> lookup : lookups) {
+                covers.add(lookup.get(5, TimeUnit.SECONDS));
+            }
+            release.countDown();
+
+            for (CompletableFuture<CoverVo> cover : covers) {
+                assertEquals(STUB_URL, cover.get(5, TimeUnit.SECONDS).getUrl());
+            }
+            assertEquals(1, resolves.get());
+            assertEquals(1, stored.size());
+            assertTrue(stored.get("cover::the matrix").contains(STUB_URL));
+            assertEquals(15, registry.get("couchflix.singleflight.joined").tag("call", "cover").counter().count(), 0);
+        } finally {
+            callers.shutdownNow();
+            imageService.shutdown();
+        }
+    }
+
+    @Test
+    public void answersTheDefaultCoverWhenTheExecutorIsFull() throws Exception {
+        // one name resolving and one queued fill the executor
+        ImageService imageService = imageService(1, 1);
+        try {
+            CompletableFuture<CoverVo> resolving = imageService.getImgAsync("the matrix");
+            CompletableFuture<CoverVo> queued = imageService.getImgAsync("toy story");
+            CompletableFuture<CoverVo> rejected = imageService.getImgAsync("heat");
+
+            assertEquals("default.jpg", rejected.get(1, TimeUnit.SECONDS).getUrl());
+            assertFalse(resolving.isDone());
+            assertFalse(queued.isDone());
+            assertEquals(1, registry.get("couchflix.cover.lookup").tag("source", "rejected").timer().count());
+
+            release.countDown();
+            assertEquals(STUB_URL, resolving.get(5, TimeUnit.SECONDS).getUrl());
+            assertEquals(STUB_URL, queued.get(5, TimeUnit.SECONDS).getUrl());
+            // the rejected cover is not stored, the next lookup resolves it
+            assertFalse(stored.containsKey("cover::heat"));
+            assertEquals(STUB_URL, imageService.getImgAsync("heat").get(5, TimeUnit.SECONDS).getUrl());
+            assertEquals(3, resolves.get());
+        } finally {
+            imageService.shutdown();
+        }
+    }
+
+    private ImageService imageService(int poolSize, int queueSize) {
+        StubCoverResolver coverResolver = new StubCoverResolver() {
+            @Override
+            public String resolve(String movieName) throws Exception {
+                resolves.incrementAndGet();
+                release.await(5, TimeUnit.SECONDS);
+                return super.resolve(movieName);
+            }
+        };
+        ReflectionTestUtils.setField(coverResolver, "url", STUB_URL);
+
+        AsyncBucket asyncBucket = proxy(AsyncBucket.class, (proxy, method, args) -> {
+            if ("get".equals(method.getName()) && args.length == 1) {
+                return Observable.empty();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        Bucket bucket = proxy(Bucket.class, (proxy, method, args) -> {
+            if ("async".equals(method.getName())) {
+                return asyncBucket;
+            }
+            if ("upsert".equals(method.getName()) && args.length == 1) {
+                JsonDocument document = (JsonDocument) args[0];
+                stored.put(document.id(), document.content().toString());
+                return document;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        CouchbaseOperations operations = proxy(CouchbaseOperations.class, (proxy, method, args) -> {
+            if ("getCouchbaseBucket".equals(method.getName())) {
+                return bucket;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        MovieRepository movieRepository = proxy(MovieRepository.class, (proxy, method, args) -> {
+            if ("getCouchbaseOperations".equals(method.getName())) {
+                return operations;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        ReflectionTestUtils.setField(pipelineMetrics, "registry", registry);
+
+        ImageService imageService = new ImageService();
+        ReflectionTestUtils.setField(imageService, "coverResolver", coverResolver);
+        ReflectionTestUtils.setField(imageService, "movieRepository", movieRepository);
+        ReflectionTestUtils.setField(imageService, "pipelineMetrics", pipelineMetrics);
+        ReflectionTestUtils.setField(imageService, "poolSize", poolSize);
+        ReflectionTestUtils.setField(imageService, "queueSize", queueSize);
+        ReflectionTestUtils.setField(imageService, "notFoundExpirySeconds", 86400);
+        imageService.init();
+        return imageService;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) ->
+                "toString".equals(method.getName()) ? type.getSimpleName() : handler.invoke(proxy, method, args));
+    }
+}
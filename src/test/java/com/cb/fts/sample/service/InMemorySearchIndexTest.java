@@ -0,0 +1,126 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.search.SearchQuery;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.facets.NumericRange;
+import com.couchbase.client.java.search.result.facets.NumericRangeFacetResult;
+import com.couchbase.client.java.search.result.facets.TermFacetResult;
+import com.couchbase.client.java.search.result.facets.TermRange;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.cb.fts.sample.service.EntityExtractor.EntityType.PERSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the queries of {@link MovieServiceImpl#buildSearch12} and {@link FacetService#buildQuery} over the
+ * movies of movies-fixture.json.
+ */
+public class InMemorySearchIndexTest {
+
+    private static final Map<String, List<String>> NO_FILTERS = Collections.emptyMap();
+
+    private static InMemorySearchIndex index;
+    private static MovieServiceImpl movieService;
+    private static FacetService facetService;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        index = new InMemorySearchIndex();
+        try (InputStream input = InMemorySearchIndexTest.class.getResourceAsStream("/movies-fixture.json")) {
+            index.load(input);
+        }
+        movieService = new MovieServiceImpl();
+        ReflectionTestUtils.setField(movieService, "boostQueryTemplates", new BoostQueryTemplates());
+        facetService = new FacetService();
+        ReflectionTestUtils.setField(facetService, "facetSize", 10);
+    }
+
+    @Test
+    public void ranksTheShortestTitleMatchFirst() {
+        // exact, since "story~1" also matches the "story2" shingle of Toy Story 2
+        SearchQueryResult result = index.search(movieService.buildSearch12("toy story", NO_FILTERS,
+                new EntityExtractor("toy story"), false));
+
+        assertEquals(6, index.size());
+        assertEquals(Arrays.asList("862", "863"), ids(result).subList(0, 2));
+    }
+
+    @Test
+    public void countsTheFacetsOfAPerson() {
+        SearchQueryResult result = index.search(facetService.buildQuery("movies_shingle",
+                movieService.buildFacetQuery12("tom hanks", NO_FILTERS, person("tom hanks"))));
+
+        assertEquals(4, result.metrics().totalHits());
+        assertEquals(Arrays.asList("Comedy=3", "Animation=2", "Drama=2", "Family=2", "Adventure=1", "Romance=1"),
+                terms((TermFacetResult) result.facets().get(FacetService.GENRES)));
+        Map<String, Long> years = new HashMap<>();
+        for (NumericRange range : ((NumericRangeFacetResult) result.facets().get(FacetService.YEAR)).numericRanges()) {
+            years.put(range.name(), range.count());
+        }
+        assertEquals(Long.valueOf(3), years.get("1990s"));
+        assertEquals(Long.valueOf(1), years.get("2000s"));
+    }
+
+    @Test
+    public void filtersByFacetValue() {
+        Map<String, List<String>> filters = Collections.singletonMap(FacetService.GENRES,
+                Collections.singletonList("Drama"));
+        SearchQueryResult result = index.search(movieService.buildSearch12("tom hanks", filters, person("tom hanks")));
+
+        List<String> ids = ids(result);
+        Collections.sort(ids);
+        assertEquals(Arrays.asList("13", "8358"), ids);
+    }
+
+    @Test
+    public void matchesMisspelledWordsOnlyWhenFuzzy() {
+        EntityExtractor entityExtractor = new EntityExtractor("forest gmp");
+
+        assertTrue(ids(index.search(movieService.buildSearch12("forest gmp", NO_FILTERS, entityExtractor, false)))
+                .isEmpty());
+        assertEquals("13", ids(index.search(movieService.buildSearch12("forest gmp", NO_FILTERS, entityExtractor)))
+                .get(0));
+    }
+
+    @Test
+    public void evaluatesQueryStrings() {
+        SearchQuery query = movieService.buildSearch1("+\"tom hanks\" -genres.name:animation release_year:>=2000");
+
+        assertEquals(Arrays.asList("8358", "13"), ids(index.search(query)));
+    }
+
+    private static EntityExtractor person(String name) {
+        EntityExtractor entityExtractor = new EntityExtractor(name);
+        entityExtractor.addEntity(PERSON, name, 0, entityExtractor.getTokenCount());
+        return entityExtractor;
+    }
+
+    private static List<String> ids(SearchQueryResult result) {
+        List<String> ids = new ArrayList<>();
+        for (SearchQueryRow row : result.hits()) {
+            ids.add(row.id());
+        }
+        return ids;
+    }
+
+    private static List<String> terms(TermFacetResult facet) {
+        List<String> terms = new ArrayList<>();
+        for (TermRange term : facet.terms()) {
+            terms.add(term.name() + "=" + term.count());
+        }
+        return terms;
+    }
+}
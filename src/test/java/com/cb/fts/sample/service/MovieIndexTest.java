@@ -0,0 +1,100 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.result.SearchQueryResult;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.facets.TermFacetResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class MovieIndexTest {
+
+    private final MovieIndex index = new MovieIndex.Builder()
+            .add("1", movie("Heat", 1995, "Crime", "Drama"))
+            .add("2", movie("Heathers", 1988, "Comedy"))
+            .add("3", movie("Wheat", 2010, "Drama"))
+            .add("4", movie("Cheat", 2010, "Crime"))
+            .add("1", movie("Duplicate", 2020, "Crime"))
+            .build();
+
+    @Test
+    public void ignoresDuplicateIds() {
+        assertEquals(4, index.size());
+        assertEquals("Heat", index.getMovie("1").getTitle());
+    }
+
+    @Test
+    public void expandsFuzzyTermsAfterThePrefix() {
+        JsonObject fuzzy = JsonObject.create().put("match", "cheat").put("field", "title").put("fuzziness", 1);
+
+        assertEquals(Arrays.asList("1", "3", "4"), sorted(search(fuzzy)));
+        assertEquals(Collections.singletonList("4"), sorted(search(fuzzy.put("prefix_length", 1))));
+    }
+
+    @Test
+    public void includesTheMinimumAndExcludesTheMaximumByDefault() {
+        JsonObject range = JsonObject.create().put("field", "release_year").put("min", 1995).put("max", 2010);
+
+        assertEquals(Collections.singletonList("1"), sorted(search(range)));
+        assertEquals(Arrays.asList("1", "3", "4"), sorted(search(range.put("inclusive_max", true))));
+    }
+
+    @Test
+    public void excludesMustNotClausesFromEveryMovie() {
+        JsonObject query = JsonObject.create().put("must_not", JsonObject.create().put("disjuncts",
+                JsonArray.from(JsonObject.create().put("term", "Crime").put("field", FacetService.GENRES_FIELD))));
+
+        assertEquals(Arrays.asList("2", "3"), sorted(search(query)));
+    }
+
+    @Test
+    public void countsTheTopTermsOfTheHits() {
+        JsonObject request = JsonObject.create()
+                .put("query", JsonObject.create().put("match_all", JsonObject.create()))
+                .put("size", 0)
+                .put("facets", JsonObject.create().put(FacetService.GENRES, JsonObject.create()
+                        .put("field", FacetService.GENRES_FIELD).put("size", 2)));
+        TermFacetResult genres = (TermFacetResult) index.search("movies_shingle", request).facets()
+                .get(FacetService.GENRES);
+
+        assertEquals(5, genres.total());
+        assertEquals(1, genres.other());
+        assertEquals("Crime", genres.terms().get(0).name());
+        assertEquals(2, genres.terms().get(0).count());
+        assertEquals("Drama", genres.terms().get(1).name());
+    }
+
+    private SearchQueryResult search(JsonObject query) {
+        return index.search("movies_shingle", JsonObject.create().put("query", query).put("size", 10));
+    }
+
+    private static List<String> sorted(SearchQueryResult result) {
+        List<String> ids = new ArrayList<>();
+        for (SearchQueryRow row : result.hits()) {
+            ids.add(row.id());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static Map<String, Object> movie(String title, int year, String... genres) {
+        List<Map<String, Object>> genreList = new ArrayList<>();
+        for (String genre : genres) {
+            genreList.add(Collections.singletonMap("name", genre));
+        }
+        Map<String, Object> document = new HashMap<>();
+        document.put("title", title);
+        document.put("release_year", year);
+        document.put("genres", genreList);
+        return document;
+    }
+}
@@ -0,0 +1,119 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.ActorName;
+import com.cb.fts.sample.repositories.ActorNameRepository;
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.json.JsonObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.data.couchbase.core.CouchbaseOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import rx.Observable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parses with the actor dictionary not loaded, so the moviesCount of the names is read from the actorName
+ * documents, by the repository for {@link MovieQueryParser#parse(String)} and by the async bucket for
+ * {@link MovieQueryParser#parseAsync(String)}.
+ */
+public class MovieQueryParserTest {
+
+    @Test
+    public void overlappingNamesResolveToTheNameWithMoreMovies() {
+        Map<String, Integer> moviesCounts = new HashMap<>();
+        moviesCounts.put("actorName-tom-hanks", 80);
+        moviesCounts.put("actorName-hanks-meg", 1);
+        moviesCounts.put("actorName-meg-ryan", 50);
+
+        // "hanks meg" overlaps both names and loses to them
+        assertEquals(Arrays.asList("tom hanks", "meg ryan"),
+                persons(parser(moviesCounts).parse("tom hanks meg ryan")));
+        assertEquals(Arrays.asList("tom hanks", "meg ryan"),
+                persons(parser(moviesCounts).parseAsync("tom hanks meg ryan").toBlocking().single()));
+    }
+
+    @Test
+    public void theNameWithMoreMoviesWinsWhicheverComesFirst() {
+        Map<String, Integer> moviesCounts = new HashMap<>();
+        moviesCounts.put("actorName-tom-hanks", 1);
+        moviesCounts.put("actorName-hanks-meg", 80);
+
+        assertEquals(Collections.singletonList("hanks meg"), persons(parser(moviesCounts).parse("tom hanks meg")));
+        assertEquals(Collections.singletonList("hanks meg"),
+                persons(parser(moviesCounts).parseAsync("tom hanks meg").toBlocking().single()));
+    }
+
+    private static List<String> persons(EntityExtractor entityExtractor) {
+        return entityExtractor.getEntities().get(EntityExtractor.EntityType.PERSON);
+    }
+
+    private static MovieQueryParser parser(Map<String, Integer> moviesCounts) {
+        AsyncBucket asyncBucket = proxy(AsyncBucket.class, (proxy, method, args) -> {
+            if ("get".equals(method.getName()) && args.length == 1) {
+                String id = (String) args[0];
+                return moviesCounts.containsKey(id)
+                        ? Observable.just(JsonDocument.create(id,
+                                JsonObject.create().put("moviesCount", moviesCounts.get(id))))
+                        : Observable.empty();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        Bucket bucket = proxy(Bucket.class, (proxy, method, args) -> {
+            if ("async".equals(method.getName())) {
+                return asyncBucket;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        CouchbaseOperations operations = proxy(CouchbaseOperations.class, (proxy, method, args) -> {
+            if ("getCouchbaseBucket".equals(method.getName())) {
+                return bucket;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+        ActorNameRepository repository = proxy(ActorNameRepository.class, (proxy, method, args) -> {
+            if ("findById".equals(method.getName())) {
+                String id = (String) args[0];
+                return moviesCounts.containsKey(id)
+                        ? Optional.of(ActorName.builder().id(id).moviesCount(moviesCounts.get(id)).build())
+                        : Optional.empty();
+            }
+            if ("getCouchbaseOperations".equals(method.getName())) {
+                return operations;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        ReflectionTestUtils.setField(pipelineMetrics, "registry", new SimpleMeterRegistry());
+
+        MovieQueryParser parser = new MovieQueryParser();
+        ReflectionTestUtils.setField(parser, "actorNameRepository", repository);
+        ReflectionTestUtils.setField(parser, "actorNameDictionary", new ActorNameDictionary());
+        ReflectionTestUtils.setField(parser, "entityGazetteer", new EntityGazetteer());
+        ReflectionTestUtils.setField(parser, "spellingCorrector", new SpellingCorrector());
+        ReflectionTestUtils.setField(parser, "pipelineMetrics", pipelineMetrics);
+        ReflectionTestUtils.setField(parser, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(parser, "cacheMaxSize", 100L);
+        ReflectionTestUtils.setField(parser, "cacheTtlMs", 600_000L);
+        parser.init();
+        return parser;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) ->
+                "toString".equals(method.getName()) ? type.getSimpleName() : handler.invoke(proxy, method, args));
+    }
+}
@@ -0,0 +1,55 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class PageCursorTest {
+
+    @Test
+    public void roundTrips() {
+        PageCursor cursor = PageCursor.decode(new PageCursor("tom hanks", "genres.name:Drama", 40, 20).encode(), 100);
+
+        assertEquals("tom hanks", cursor.getPhrase());
+        assertEquals("genres.name:Drama", cursor.getFilters());
+        assertEquals(40, cursor.getOffset());
+        assertEquals(20, cursor.getSize());
+    }
+
+    @Test
+    public void roundTripsSeparatorsInThePhrase() {
+        PageCursor cursor = PageCursor.decode(new PageCursor("tom\nhanks\n", null, 0, 20).next().encode(), 100);
+
+        assertEquals("tom\nhanks\n", cursor.getPhrase());
+        assertNull(cursor.getFilters());
+        assertEquals(20, cursor.getOffset());
+    }
+
+    @Test
+    public void rejectsOutOfRangeOffsetsAndSizes() {
+        assertInvalid(new PageCursor("tom hanks", null, -20, 20).encode());
+        assertInvalid(new PageCursor("tom hanks", null, 0, 0).encode());
+        assertInvalid(new PageCursor("tom hanks", null, 0, 101).encode());
+    }
+
+    @Test
+    public void rejectsForgedCursors() {
+        assertInvalid("not base64!");
+        assertInvalid(Base64.getUrlEncoder().encodeToString("0\n20\ntom hanks".getBytes(StandardCharsets.UTF_8)));
+        assertInvalid(Base64.getUrlEncoder().encodeToString("zero\n20\n\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertInvalid(String cursor) {
+        try {
+            PageCursor.decode(cursor, 100);
+            fail("accepted " + cursor);
+        } catch (IllegalArgumentException expected) {
+            // mapped to 400 by the controller
+        }
+    }
+}
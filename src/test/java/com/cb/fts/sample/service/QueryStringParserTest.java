@@ -0,0 +1,54 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class QueryStringParserTest {
+
+    @Test
+    public void splitsClausesByOccurrence() {
+        JsonObject query = QueryStringParser.parse("+title:\"toy story\" -genres.name:horror hanks~ pixar^2");
+
+        assertEquals(JsonArray.from(JsonObject.create().put("match", "toy story").put("operator", "and")
+                .put("field", "title")), query.getObject("must").getArray("conjuncts"));
+        assertEquals(JsonArray.from(JsonObject.create().put("match", "horror").put("field", "genres.name")),
+                query.getObject("must_not").getArray("disjuncts"));
+        assertEquals(JsonArray.from(JsonObject.create().put("match", "hanks").put("fuzziness", 1),
+                JsonObject.create().put("match", "pixar").put("boost", 2.0)),
+                query.getObject("should").getArray("disjuncts"));
+    }
+
+    @Test
+    public void comparesNumericFields() {
+        JsonObject query = QueryStringParser.parse("release_year:>=1990 runtime:<120");
+
+        assertEquals(JsonArray.from(
+                JsonObject.create().put("field", "release_year").put("min", 1990.0).put("inclusive_min", true),
+                JsonObject.create().put("field", "runtime").put("max", 120.0).put("inclusive_max", false)),
+                query.getObject("should").getArray("disjuncts"));
+    }
+
+    @Test
+    public void unescapesReservedCharacters() {
+        JsonObject query = QueryStringParser.parse("wall\\:e");
+
+        assertEquals(JsonArray.from(JsonObject.create().put("match", "wall:e")),
+                query.getObject("should").getArray("disjuncts"));
+    }
+
+    @Test
+    public void rejectsMalformedQueries() {
+        for (String malformed : new String[]{"\"toy story", "title:", "+", "pixar^high", "year:>old"}) {
+            try {
+                QueryStringParser.parse(malformed);
+                fail("parsed " + malformed);
+            } catch (IllegalArgumentException expected) {
+                // malformed
+            }
+        }
+    }
+}
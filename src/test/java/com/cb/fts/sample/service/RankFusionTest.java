@@ -0,0 +1,115 @@
+package com.cb.fts.sample.service;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.search.result.SearchQueryRow;
+import com.couchbase.client.java.search.result.hits.DefaultHitLocations;
+import com.couchbase.client.java.search.result.impl.DefaultSearchQueryRow;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RankFusionTest {
+
+    private static final double DELTA = 1e-12;
+
+    // A, B, C best first in the first branch, C, D, A in the second
+    private static final List<SearchQueryRow> FIRST = Arrays.asList(row("A", 10), row("B", 5), row("C", 2.5));
+    private static final List<SearchQueryRow> SECOND = Arrays.asList(row("C", 4), row("D", 2), row("A", 1));
+
+    @Test
+    public void sumsTheWeightedReciprocalRanks() {
+        List<SearchQueryRow> fused = RankFusion.fuse(Arrays.asList(FIRST, SECOND), new double[]{1, 0.5},
+                RankFusion.Method.RRF, 10);
+
+        assertEquals(Arrays.asList("A", "C", "B", "D"), ids(fused));
+        assertEquals(1.0 / 61 + 0.5 / 63, fused.get(0).score(), DELTA);
+        assertEquals(1.0 / 63 + 0.5 / 61, fused.get(1).score(), DELTA);
+        // B and D are only found by one branch
+        assertEquals(1.0 / 62, fused.get(2).score(), DELTA);
+        assertEquals(0.5 / 62, fused.get(3).score(), DELTA);
+    }
+
+    @Test
+    public void ignoresEmptyBranches() {
+        List<SearchQueryRow> fused = RankFusion.fuse(Arrays.asList(FIRST, Collections.emptyList(), SECOND),
+                new double[]{1, 2, 0.5}, RankFusion.Method.RRF, 10);
+
+        assertEquals(Arrays.asList("A", "C", "B", "D"), ids(fused));
+        assertEquals(scores(RankFusion.fuse(Arrays.asList(FIRST, SECOND), new double[]{1, 0.5},
+                RankFusion.Method.RRF, 10)), scores(fused));
+        assertEquals(Collections.emptyList(), RankFusion.fuse(Arrays.asList(Collections.emptyList(),
+                Collections.emptyList()), new double[]{1, 1}, RankFusion.Method.SCORE, 10));
+    }
+
+    @Test
+    public void sumsTheWeightedScoresDividedByTheTopScoreOfEachBranch() {
+        List<SearchQueryRow> fused = RankFusion.fuse(Arrays.asList(FIRST, SECOND), new double[]{1, 0.5},
+                RankFusion.Method.SCORE, 10);
+
+        assertEquals(Arrays.asList("A", "C", "B", "D"), ids(fused));
+        assertEquals(Arrays.asList(1 + 0.5 * 1 / 4, 2.5 / 10 + 0.5, 5.0 / 10, 0.5 * 2 / 4), scores(fused));
+    }
+
+    @Test
+    public void mergesTheFragmentsOfEveryBranch() {
+        Map<String, List<String>> title = Collections.singletonMap("title",
+                Collections.singletonList("<mark>Toy</mark> Story"));
+        Map<String, List<String>> overview = Collections.singletonMap("overview",
+                Collections.singletonList("a cowboy <mark>toy</mark>"));
+
+        List<SearchQueryRow> fused = RankFusion.fuse(Arrays.asList(
+                Arrays.asList(row("862", 3, title), row("863", 2)),
+                Collections.singletonList(row("862", 1, overview))), new double[]{1, 1}, RankFusion.Method.RRF, 10);
+
+        Map<String, List<String>> merged = new HashMap<>(title);
+        merged.putAll(overview);
+        assertEquals(merged, fused.get(0).fragments());
+        assertNull(fused.get(1).fragments());
+    }
+
+    @Test
+    public void keepsTheOrderOfTiesAndTheLimit() {
+        List<List<SearchQueryRow>> rankings = Arrays.asList(
+                Arrays.asList(row("P", 9), row("Q", 8)),
+                Arrays.asList(row("R", 7), row("S", 6)));
+
+        // equal ranks in branches of equal weight tie, the first branch comes first
+        assertEquals(Arrays.asList("P", "R", "Q", "S"),
+                ids(RankFusion.fuse(rankings, new double[]{1, 1}, RankFusion.Method.RRF, 10)));
+        assertEquals(Arrays.asList("P", "R", "Q"),
+                ids(RankFusion.fuse(rankings, new double[]{1, 1}, RankFusion.Method.RRF, 3)));
+    }
+
+    private static SearchQueryRow row(String id, double score) {
+        return row(id, score, null);
+    }
+
+    private static SearchQueryRow row(String id, double score, Map<String, List<String>> fragments) {
+        return new DefaultSearchQueryRow("movies_shingle", id, score, JsonObject.create(), new DefaultHitLocations(),
+                fragments, Collections.emptyMap());
+    }
+
+    private static List<String> ids(List<SearchQueryRow> rows) {
+        List<String> ids = new ArrayList<>();
+        for (SearchQueryRow row : rows) {
+            ids.add(row.id());
+        }
+        return ids;
+    }
+
+    private static List<Double> scores(List<SearchQueryRow> rows) {
+        List<Double> scores = new ArrayList<>();
+        for (SearchQueryRow row : rows) {
+            scores.add(row.score());
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,182 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.Movie;
+import com.cb.fts.sample.entities.vo.Facet;
+import com.cb.fts.sample.entities.vo.FacetItem;
+import com.cb.fts.sample.entities.vo.QueryStats;
+import com.cb.fts.sample.entities.vo.Result;
+import com.cb.fts.sample.entities.vo.SearchResult;
+import com.couchbase.client.java.search.result.facets.TermRange;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.couchbase.core.convert.MappingCouchbaseConverter;
+import org.springframework.data.couchbase.core.convert.translation.JacksonTranslationService;
+import org.springframework.data.couchbase.core.mapping.CouchbaseDocument;
+import org.springframework.data.couchbase.core.mapping.CouchbaseMappingContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the movies of movies-fixture.json with projections and compares them with the full {@link Result},
+ * and with the movies the PARTIAL hydration of application.properties reads.
+ */
+public class ResultProjectionTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String[] PARTIAL_PATHS = ("title,posterPath,overview,release_date,release_year,vote_average,"
+            + "adult,genres").split(",");
+    private static final int CAST_LIMIT = 3;
+
+    private static ResultProjection resultProjection;
+    private static Result result;
+    private static Result partialResult;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        MovieHydrator movieHydrator = new MovieHydrator();
+        ReflectionTestUtils.setField(movieHydrator, "mode", MovieHydrator.HydrationMode.PARTIAL);
+        ReflectionTestUtils.setField(movieHydrator, "paths", PARTIAL_PATHS);
+        ReflectionTestUtils.setField(movieHydrator, "castLimit", CAST_LIMIT);
+        movieHydrator.init();
+
+        resultProjection = new ResultProjection();
+        ReflectionTestUtils.setField(resultProjection, "movieHydrator", movieHydrator);
+        ReflectionTestUtils.setField(resultProjection, "card", ("id,title,posterPath,overview,releaseDate,releaseYear,"
+                + "voteAverage,adult,genres,stats.position,stats.score,facets").split(","));
+        ReflectionTestUtils.setField(resultProjection, "detail", ("card,originalTitle,tagline,runtime,backdropPath,"
+                + "voteCount,collection,spokenLanguages,productionCountries,homepage,cast,crew").split(","));
+        ReflectionTestUtils.setField(resultProjection, "debug", "movie,stats,facets,profile".split(","));
+        resultProjection.init();
+
+        // read like MovieHydrator reads the documents of the bucket
+        CouchbaseMappingContext mappingContext = new CouchbaseMappingContext();
+        mappingContext.afterPropertiesSet();
+        MappingCouchbaseConverter converter = new MappingCouchbaseConverter(mappingContext);
+        converter.afterPropertiesSet();
+        JacksonTranslationService translationService = new JacksonTranslationService();
+        translationService.afterPropertiesSet();
+
+        List<SearchResult> results = new ArrayList<>();
+        List<SearchResult> partialResults = new ArrayList<>();
+        try (InputStream input = ResultProjectionTest.class.getResourceAsStream("/movies-fixture.json")) {
+            for (JsonNode document : objectMapper.readTree(input)) {
+                String id = document.get("id").asText();
+                QueryStats stats = new QueryStats(id, results.size(), 10.0 / (results.size() + 1), null,
+                        Collections.singletonMap("title", Collections.singletonList("<mark>"
+                                + document.get("title").asText() + "</mark>")), Collections.emptyMap());
+                results.add(new SearchResult(read(converter, translationService, id, document), stats));
+
+                // the paths and the first cast entries, as the sub-document lookup of MovieHydrator returns them
+                ObjectNode partial = ((ObjectNode) document.deepCopy()).retain(PARTIAL_PATHS);
+                ArrayNode cast = partial.putArray("cast");
+                for (int i = 0; i < CAST_LIMIT && i < document.path("cast").size(); i++) {
+                    cast.add(document.get("cast").get(i));
+                }
+                partialResults.add(new SearchResult(read(converter, translationService, id, partial), stats));
+            }
+        }
+        List<Facet> facets = Collections.singletonList(new Facet(FacetService.GENRES, Arrays.asList(
+                new FacetItem(new TermRange("Comedy", 3)), new FacetItem(new TermRange("Drama", 2)))));
+        result = new Result(results, facets, null);
+        partialResult = new Result(partialResults, facets, null);
+    }
+
+    private static Movie read(MappingCouchbaseConverter converter, JacksonTranslationService translationService,
+                              String id, JsonNode document) {
+        CouchbaseDocument converted = new CouchbaseDocument(id);
+        translationService.decode(document.toString(), converted);
+        Movie movie = converter.read(Movie.class, converted);
+        movie.setId(id);
+        return movie;
+    }
+
+    @Test
+    public void writesTheCardAttributesOfTheFullResult() throws Exception {
+        JsonNode card = write(resultProjection.parse("card"));
+
+        assertEquals(6, card.get("results").size());
+        assertEquals(select(Arrays.asList("id", "title", "posterPath", "overview", "releaseDate", "releaseYear",
+                "voteAverage", "adult", "genres"), Arrays.asList("position", "score")), card);
+        assertFalse(card.get("results").get(0).get("movie").has("cast"));
+    }
+
+    @Test
+    public void writesEveryNonNullAttributeOfTheFullResultForMovieAndStats() throws Exception {
+        assertEquals(withoutNulls(objectMapper.readTree(objectMapper.writeValueAsString(result))),
+                write(resultProjection.parse("movie,stats,facets")));
+    }
+
+    @Test
+    public void profilesOnlyWhenTheProfileIsWritten() {
+        assertFalse(resultProjection.parse("card").isProfiled());
+        assertTrue(resultProjection.parse("debug").isProfiled());
+        assertTrue(resultProjection.parse("title,profile").isProfiled());
+    }
+
+    @Test
+    public void writesTheSameCardFromAPartialMovie() throws Exception {
+        ResultProjection.Projection card = resultProjection.parse("card");
+
+        assertEquals(MovieHydrator.HydrationMode.PARTIAL, card.getHydration());
+        assertEquals(write(card), write(card, partialResult));
+    }
+
+    @Test
+    public void hydratesTheDetailInFull() throws Exception {
+        ResultProjection.Projection detail = resultProjection.parse("detail");
+
+        // the PARTIAL movie lacks the detail attributes, so the detail cannot be served from it
+        assertNotEquals(write(detail), write(detail, partialResult));
+        assertEquals(MovieHydrator.HydrationMode.FULL, detail.getHydration());
+        assertEquals(MovieHydrator.HydrationMode.FULL, resultProjection.parse("debug").getHydration());
+        assertEquals(MovieHydrator.HydrationMode.FULL, resultProjection.parse("title,cast").getHydration());
+        assertEquals(MovieHydrator.HydrationMode.PARTIAL, resultProjection.parse("title,stats").getHydration());
+    }
+
+    private static JsonNode write(ResultProjection.Projection projection) throws Exception {
+        return write(projection, result);
+    }
+
+    private static JsonNode write(ResultProjection.Projection projection, Result written) throws Exception {
+        return objectMapper.readTree(objectMapper.writeValueAsString(projection.apply(written)));
+    }
+
+    // the full result without null attributes, with only the given attributes of its movies and stats
+    private static JsonNode select(List<String> movie, List<String> stats) throws Exception {
+        JsonNode selected = withoutNulls(objectMapper.readTree(objectMapper.writeValueAsString(result)));
+        for (JsonNode searchResult : selected.get("results")) {
+            ((ObjectNode) searchResult.get("movie")).retain(movie);
+            ((ObjectNode) searchResult.get("stats")).retain(stats);
+        }
+        return selected;
+    }
+
+    private static JsonNode withoutNulls(JsonNode full) {
+        JsonNode copy = full.deepCopy();
+        for (JsonNode searchResult : copy.get("results")) {
+            for (JsonNode value : searchResult) {
+                for (Iterator<JsonNode> attributes = value.elements(); attributes.hasNext(); ) {
+                    if (attributes.next().isNull()) {
+                        attributes.remove();
+                    }
+                }
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cb.fts.sample.service;
+
+import com.cb.fts.sample.entities.vo.Suggestion;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionIndexTest {
+
+    @Test
+    public void ranksTheCompletionsOfAPrefixByWeight() {
+        SuggestionIndex.Index index = new SuggestionIndex.Index(Arrays.asList(
+                title("toy story", "862", 3),
+                title("toy story 2", "863", 2),
+                title("toy soldiers", "11", 3),
+                title("top gun", "744", 5),
+                title("tomorrowland", "158852", 1),
+                title("the matrix", "603", 4)), 100);
+
+        // ties in key order
+        assertEquals(Arrays.asList("toy soldiers", "toy story", "toy story 2"), texts(index.suggest("toy", 10)));
+        assertEquals(Arrays.asList("top gun", "toy soldiers"), texts(index.suggest("to", 2)));
+        assertEquals(Collections.singletonList("toy story 2"), texts(index.suggest("toy story ", 10)));
+        assertEquals(Collections.emptyList(), texts(index.suggest("tz", 10)));
+    }
+
+    @Test
+    public void walksTheEntriesByWeightForWidePrefixes() {
+        List<SuggestionIndex.Entry> entries = new ArrayList<>();
+        float[] weights = new float[5000];
+        for (int i = 0; i < weights.length; i++) {
+            // few distinct weights, so the walk has ties to order too
+            weights[i] = (i * 7919) % 97;
+            entries.add(title(String.format("m%04d", i), "m" + i, weights[i]));
+            entries.add(title(String.format("z%04d", i), "z" + i, 100 + i % 3));
+        }
+        SuggestionIndex.Index index = new SuggestionIndex.Index(entries, entries.size());
+
+        // 5000 candidates are walked by weight, 1000 are scanned, both as the brute force ranks them
+        assertEquals(expected(weights, 0, 5000, 20), texts(index.suggest("m", 20)));
+        assertEquals(expected(weights, 1000, 2000, 20), texts(index.suggest("m1", 20)));
+        assertEquals(expected(weights, 0, 5000, 5000), texts(index.suggest("m", 6000)));
+    }
+
+    @Test
+    public void mergeReplacesTheEntriesOfAChangedDocument() {
+        SuggestionIndex.Index index = new SuggestionIndex.Index(Arrays.asList(
+                title("alien", "348", 2),
+                title("alien original", "348", 2),
+                title("aliens", "679", 1),
+                collection("alien collection", 3)), 100);
+
+        SuggestionIndex.Index merged = index.merge(Arrays.asList(
+                title("alien director's cut", "348", 4),
+                collection("alien collection", 1)), 100);
+
+        assertEquals(Arrays.asList("alien director's cut", "alien collection", "aliens"),
+                texts(merged.suggest("alien", 10)));
+        assertEquals(Arrays.asList("alien collection", "alien", "alien original", "aliens"),
+                texts(index.suggest("alien", 10)));
+    }
+
+    @Test
+    public void keepsTheHighestWeightsUpToMaxEntries() {
+        List<SuggestionIndex.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            entries.add(title("movie " + i, String.valueOf(i), i));
+        }
+        SuggestionIndex.Index index = new SuggestionIndex.Index(entries, 3);
+
+        assertEquals(Arrays.asList("movie 9", "movie 8", "movie 7"), texts(index.suggest("movie", 10)));
+
+        SuggestionIndex.Index merged = index.merge(Collections.singletonList(title("movie 0", "0", 20)), 3);
+        assertEquals(Arrays.asList("movie 0", "movie 9", "movie 8"), texts(merged.suggest("movie", 10)));
+    }
+
+    private static SuggestionIndex.Entry title(String text, String id, float weight) {
+        return new SuggestionIndex.Entry(EntityExtractor.normalize(text), text, Suggestion.Type.TITLE, id, weight);
+    }
+
+    private static SuggestionIndex.Entry collection(String text, float weight) {
+        return new SuggestionIndex.Entry(EntityExtractor.normalize(text), text, Suggestion.Type.COLLECTION, null, weight);
+    }
+
+    // the texts of "m<from>" .. "m<to - 1>", highest weight first, ties in key order
+    private static List<String> expected(float[] weights, int from, int to, int size) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            candidates.add(i);
+        }
+        candidates.sort((a, b) -> weights[a] != weights[b] ? Float.compare(weights[b], weights[a]) : a - b);
+        List<String> texts = new ArrayList<>();
+        for (int i : candidates.subList(0, Math.min(size, candidates.size()))) {
+            texts.add(String.format("m%04d", i));
+        }
+        return texts;
+    }
+
+    private static List<String> texts(List<Suggestion> suggestions) {
+        List<String> texts = new ArrayList<>();
+        for (Suggestion suggestion : suggestions) {
+            texts.add(suggestion.getText());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,48 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SymSpellDictionaryTest {
+
+    @Test
+    public void countsATranspositionAsOneEdit() {
+        assertEquals(1, SymSpellDictionary.distance("hnaks", "hanks", 2));
+        assertEquals(2, SymSpellDictionary.distance("hnaks", "hans", 2));
+        assertEquals(3, SymSpellDictionary.distance("matrix", "mtarixes", 2));
+
+        SymSpellDictionary dictionary = new SymSpellDictionary.Builder(2, 7).add("tom hanks", 48).build(1);
+        assertEquals("tom hanks", dictionary.correct("tom hnaks", 2));
+    }
+
+    @Test
+    public void checksTheWholeWordBeyondThePrefix() {
+        SymSpellDictionary dictionary = new SymSpellDictionary.Builder(2, 7).add("interstellar", 10).build(1);
+
+        assertEquals("interstellar", dictionary.correct("interstellra", 2));
+        assertEquals("interstellar", dictionary.correct("intrestellar", 2));
+        assertNull(dictionary.correct("interstexxxx", 2));
+    }
+
+    @Test
+    public void prefersTheCloserThenTheMoreFrequentTerm() {
+        SymSpellDictionary dictionary = new SymSpellDictionary.Builder(2, 7).add("hat", 5).add("cat", 50).build(1);
+
+        assertEquals("cat", dictionary.correct("bat", 1));
+        assertEquals("hat", dictionary.correct("hatt", 2));
+        assertEquals("hat", dictionary.correct("hat", 1));
+    }
+
+    @Test
+    public void dropsRareTermsAndEstimatesTheirMemory() {
+        SymSpellDictionary.Builder builder = new SymSpellDictionary.Builder(2, 7).add("matrix", 3).add("matirx", 1);
+        SymSpellDictionary dictionary = builder.build(2);
+
+        assertEquals(1, dictionary.size());
+        assertEquals(0, dictionary.count("matirx"));
+        assertTrue(dictionary.memoryFootprintBytes() > builder.build(4).memoryFootprintBytes());
+    }
+}
@@ -0,0 +1,34 @@
+package com.cb.fts.sample.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class TextAnalyzerTest {
+
+    @Test
+    public void titlesKeepWordsAndPairsWithoutStopWords() {
+        assertEquals(Arrays.asList("lord", "lordrings", "rings"), TextAnalyzer.TITLES.analyze("The Lord of the Rings"));
+    }
+
+    @Test
+    public void namesAreOnlyPairs() {
+        assertEquals(Arrays.asList("tomhanks"), TextAnalyzer.NAMES.analyze("Tom Hanks"));
+        assertEquals(Collections.emptyList(), TextAnalyzer.NAMES.analyze("Sting"));
+    }
+
+    @Test
+    public void overviewsDropStopWordsBeforeLowercasing() {
+        // stop_en runs first, so a capitalized stop word is kept
+        assertEquals(Arrays.asList("the", "thematrix", "matrix"), TextAnalyzer.OVERVIEW.analyze("The Matrix"));
+    }
+
+    @Test
+    public void splitsOnPunctuationButKeepsApostrophesInWords() {
+        assertEquals(Arrays.asList("Don't", "look", "up", "Sci", "Fi"), TextAnalyzer.tokenize("Don't look up! Sci-Fi'"));
+        assertEquals(Collections.singletonList("Science Fiction"), TextAnalyzer.KEYWORD.analyze("Science Fiction"));
+    }
+}